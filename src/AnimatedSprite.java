@@ -1,135 +1,164 @@
 import static org.lwjgl.opengl.GL11.*;
+import org.newdawn.slick.Color;
 import org.newdawn.slick.opengl.Texture;
 
+/**
+ * Sprite that steps through a grid of animation cells in a texture. The texture coordinates of every
+ * frame are worked out once at construction, and the current frame is found from the shared
+ * <code>AnimationClock</code>, so drawing an animation does not allocate or keep per instance timers.
+ * <p>
+ * Instances made with the copy constructor share the frame table of the original, so any number of
+ * copies of one animation (animated blocks, HUD effects) cost only their start time.
+ * @author John Ojala
+ */
 public class AnimatedSprite extends Sprite {
-	/** The dimension of each cell within the texture. */
-	private final int[] cellSize;
-	/** The cell grid layout within the texture. */
-	private final int[] texCellLayout;
-	/*  */
-	private final int[] cellTexStartCoord;
-	/** The amount of negative (empty) space between each cell frame. */
-	private int[] cellFrameBuffer;
-	/** Identifies which cell in <code>texCellLayout</code> is the current frame. */
-	private int[] activeCell;
-	/** The amount of time to wait between each frame. */
+	/** Texture coordinates for each frame, stored as left, top, right, bottom. Shared between copies. */
+	private final float[] frameUV;
+	/** The number of frames in one play of the animation. */
+	private final int frameCount;
+	/** The time (milliseconds) each frame is shown. */
 	private final long frameDelayTimer;
-	/** The time remaining for displaying the current frame. */
-	private long frameDelay;
-	/** The number of empty cells present in the last row of <code>texCellLayout</code>. */
-	private int emptyCells;
-	/*  */
-	private float[] cellDrawOffset;
-	/** The number of times to repeat the animation, -1 to repeat endlessly. */
-	private int repeatCount = -1;
+	/** The number of times to play the animation, zero or less to repeat endlessly. */
+	private final int repeatCount;
+	/** The <code>AnimationClock</code> time at which the animation started. */
+	private long startTime;
 	/** Indicates if the animation has completed the required (limited) number of animation loops. */
 	private boolean finished = false;
-	/** OpenGL texture float offsets for drawing frames. */
-	private final int[] glDrawSpace;
 
 	/**
-	 * 
+	 *
 	 * @param tex <code>Texture</code> object containing the animation cells
 	 * @param cellSize The width and height of an individual cell as array
-	 * @param cellArangement The grid arrangement of the animation cells within the texture as [row count][column count]
+	 * @param cellArangement The grid arrangement of the animation cells within the texture as
+	 * [column count, row count]. Frames are played left to right, then top to bottom.
 	 * @param frameDelayTime The amount of time (milliseconds) to wait between each frame
 	 * @param playTimes The number of times to play the animation sequence. Zero or negative values will cause
 	 * the animation to repeat forever.
 	 */
 	public AnimatedSprite(Texture tex, int[] cellSize, int[] cellArangement, int frameDelayTime, int playTimes) {
-		super(tex);		
-		glDrawSpace = new int[] { 
-			tex.getImageWidth(),
-			tex.getImageHeight()
-		};
-		cellTexStartCoord = new int[] { 0, 0 };
-		cellFrameBuffer = new int[] { 0, 0 };
-		frameDelayTimer = frameDelayTime;
-		frameDelay = frameDelayTimer;
-		repeatCount = playTimes;
-		texCellLayout = cellArangement.clone();
-		this.cellSize = cellSize.clone();
-		activeCell = new int[] { 0, 0 };
+		this(tex, cellSize, cellArangement, new int[] { 0, 0 }, new int[] { 0, 0 }, 0, frameDelayTime, playTimes);
 	}
-	
+
+	/**
+	 * Creates an animation that uses the whole texture as its cell grid.
+	 * @param tex <code>Texture</code> object containing the animation cells
+	 * @param cellSize The width and height of an individual cell as array
+	 * @param frameDelayTime The amount of time (milliseconds) to wait between each frame
+	 * @param playTimes The number of times to play the animation sequence. Zero or negative values will cause
+	 * the animation to repeat forever.
+	 */
 	public AnimatedSprite(Texture tex, int[] cellSize, int frameDelayTime, int playTimes) {
-		super(tex);		
-		glDrawSpace = new int[] { 
-			tex.getImageWidth(),
-			tex.getImageHeight()
-		};
-		cellTexStartCoord = new int[] { 0, 0 };
-		cellFrameBuffer = new int[] { 0, 0 };
-		frameDelayTimer = frameDelayTime;
-		frameDelay = frameDelayTimer;
-		repeatCount = playTimes;
-		texCellLayout = new int[] {
-			( (int) tex.getHeight() ) / cellSize[0],
-			( (int) tex.getWidth() ) / cellSize[1]
-		};
-		this.cellSize = cellSize.clone();
-		activeCell = new int[] { 0, 0 };
+		this(tex, cellSize,
+				new int[] { tex.getImageWidth() / cellSize[0], tex.getImageHeight() / cellSize[1] },
+				frameDelayTime, playTimes);
 	}
-	
-	public boolean isFinished() { return finished; }
-	
-	public void update(long delta) {
-		frameDelay -= delta;
-		if (frameDelay > 0) {
-			return ;
+
+	/**
+	 * Creates an animation from a cell grid placed anywhere within the texture.
+	 * @param tex <code>Texture</code> object containing the animation cells
+	 * @param cellSize The width and height of an individual cell as array
+	 * @param cellArangement The grid arrangement of the animation cells as [column count, row count]
+	 * @param texStart The pixel position of the first cell within the texture
+	 * @param cellGap The amount of empty space (pixels) between each cell horizontally and vertically
+	 * @param emptyCells The number of unused cells at the end of the last row
+	 * @param frameDelayTime The amount of time (milliseconds) to wait between each frame
+	 * @param playTimes The number of times to play the animation sequence. Zero or negative values will cause
+	 * the animation to repeat forever.
+	 */
+	public AnimatedSprite(Texture tex, int[] cellSize, int[] cellArangement, int[] texStart, int[] cellGap,
+			int emptyCells, int frameDelayTime, int playTimes) {
+		super(tex, cellSize);
+		frameCount = cellArangement[0] * cellArangement[1] - emptyCells;
+		if (frameCount <= 0 || frameDelayTime <= 0) {
+			throw new IllegalArgumentException("Invalid frame layout or delay provided to AnimatedSprite constructor.");
 		}
-		frameDelay += frameDelayTimer;
-		activeCell[0]++;
-		if (activeCell[0] == texCellLayout[0]) {
-			activeCell[0] = 0;
-			activeCell[1]++;
+		frameUV = new float[frameCount * 4];
+		float texW = tex.getImageWidth();
+		float texH = tex.getImageHeight();
+		int px, py;
+		for (int i = 0; i < frameCount; i++) {
+			px = texStart[0] + (i % cellArangement[0]) * (cellSize[0] + cellGap[0]);
+			py = texStart[1] + (i / cellArangement[0]) * (cellSize[1] + cellGap[1]);
+			frameUV[i * 4] = px / texW;
+			frameUV[i * 4 + 1] = py / texH;
+			frameUV[i * 4 + 2] = (px + cellSize[0]) / texW;
+			frameUV[i * 4 + 3] = (py + cellSize[1]) / texH;
 		}
-		if (activeCell[1] == texCellLayout[1]) {
-			activeCell[1] = 0;
-		} else if (activeCell[1] == (texCellLayout[1] - 1) && (activeCell[0] + emptyCells) == texCellLayout[0]) {
-			repeatCount -= 1;
-			if (repeatCount == 0) { // do not check for less than 1, negative values indicate repeat forever
-				finished = true;
-			}
-			activeCell[0] = 0;
-			activeCell[1] = 0;
+		frameDelayTimer = frameDelayTime;
+		repeatCount = playTimes;
+		startTime = AnimationClock.now();
+	}
+
+	/**
+	 * Creates a new instance of an animation that shares the frame table of <code>source</code>.
+	 * The new instance starts from its first frame.
+	 */
+	public AnimatedSprite(AnimatedSprite source) {
+		super(source.texture, source.drawSpace);
+		frameUV = source.frameUV;
+		frameCount = source.frameCount;
+		frameDelayTimer = source.frameDelayTimer;
+		repeatCount = source.repeatCount;
+		startTime = AnimationClock.now();
+	}
+
+	public boolean isFinished() {
+		if (!finished && repeatCount > 0) {
+			finished = AnimationClock.now() - startTime >= frameDelayTimer * frameCount * repeatCount;
 		}
+		return finished;
+	}
+
+	/** Starts the animation again from the first frame. */
+	public void restart() {
+		startTime = AnimationClock.now();
+		finished = false;
+	}
+
+	/** @return The index of the frame to show at the current <code>AnimationClock</code> time. */
+	public int getFrame() {
+		return (int) ( ( (AnimationClock.now() - startTime) / frameDelayTimer ) % frameCount );
 	}
-	
+
 	@Override
 	public void draw(int x, int y) {
-		if (finished) { return; }
+		draw(x, y, drawSpace);
+	}
+
+	@Override
+	public void draw(int xc, int yc, int[] size) {
+		if (isFinished()) { return; }
+		int f = getFrame() * 4;
 		glPushMatrix();
 		glMatrixMode(GL_MODELVIEW);
 		texture.bind();
-		glTranslatef(x, y, 0); // texture will be drawn at ( x, y )
-		
-		float[] cellStart = new float[2];
-		cellStart[0] = ( (float) activeCell[0] * (cellSize[0] + cellFrameBuffer[0]) ) / glDrawSpace[0];
-		cellStart[1] = ( (float) activeCell[1] * (cellSize[1] + cellFrameBuffer[1]) ) / glDrawSpace[1];
-		float[] cellStop = new float[2];
-		cellStop[0] = cellStart[0] + ( (float) cellSize[0] ) / glDrawSpace[0];
-		cellStop[1] = cellStart[1] + ( (float) cellSize[1] ) / glDrawSpace[1];
-		
-		// draw a quad textured to match the sprite
+		glTranslatef(xc, yc, 0); // texture will be drawn at ( x, y )
+
+		// draw a quad textured to match the current frame
 		glBegin(GL_QUADS);
 		{
-			glTexCoord2f(cellStart[0], cellStart[1]);
+			glTexCoord2f(frameUV[f], frameUV[f + 1]);
 			glVertex2i(0, 0);
-			
-			glTexCoord2f(cellStart[0], cellStop[1]);
-			glVertex2i(0, drawSpace[1]);
-			
-			glTexCoord2f(cellStop[0], cellStop[1]);
-			glVertex2i(drawSpace[0], drawSpace[1]);
-			
-			glTexCoord2f(cellStop[0], cellStart[1]);
-			glVertex2i(drawSpace[0], 0);
+
+			glTexCoord2f(frameUV[f], frameUV[f + 3]);
+			glVertex2i(0, size[1]);
+
+			glTexCoord2f(frameUV[f + 2], frameUV[f + 3]);
+			glVertex2i(size[0], size[1]);
+
+			glTexCoord2f(frameUV[f + 2], frameUV[f + 1]);
+			glVertex2i(size[0], 0);
 		}
 		glEnd();
 		glPopMatrix();
+	}
 
+	@Override
+	public void queue(int layer, int xc, int yc, int w, int h, Color color) {
+		if (isFinished()) { return; }
+		int f = getFrame() * 4;
+		SpriteBatch.queue(texture, layer, SpriteBatch.BLEND_ALPHA,
+				xc, yc, xc + w, yc + h,
+				frameUV[f], frameUV[f + 1], frameUV[f + 2], frameUV[f + 3], color);
 	}
-	
-	
 }
@@ -0,0 +1,33 @@
+/**
+ * Shared time source for sprite animations. The clock is advanced once per frame by the main loop, and
+ * every <code>AnimatedSprite</code> works out its current frame from the clock instead of keeping its
+ * own countdown, so instances started at the same time stay in step and an idle instance costs nothing.
+ * @author John Ojala
+ */
+public final class AnimationClock {
+	/** Milliseconds since the clock started, excluding time while paused. */
+	private static long time = 0;
+	private static boolean paused = false;
+
+	private AnimationClock() { }
+
+	/**
+	 * Advances the clock. Called once per frame from the main loop.
+	 * @param delta The time (milliseconds) since the last frame
+	 */
+	public static void advance(long delta) {
+		if (!paused) { time += delta; }
+	}
+
+	/** @return The current animation time in milliseconds. */
+	public static long now() { return time; }
+
+	/**
+	 * Stops or restarts all animations.
+	 * @param pause <code>true</code> to hold every animation on its current frame
+	 */
+	public static void setPaused(boolean pause) { paused = pause; }
+
+	/** @return <code>true</code> if animations are held. */
+	public static boolean isPaused() { return paused; }
+}
@@ -0,0 +1,294 @@
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import static org.lwjgl.opengl.GL11.GL_LINEAR;
+import org.newdawn.slick.opengl.ImageData;
+import org.newdawn.slick.opengl.ImageDataFactory;
+import org.newdawn.slick.opengl.InternalTextureLoader;
+import org.newdawn.slick.opengl.LoadableImageData;
+import org.newdawn.slick.opengl.Texture;
+import org.newdawn.slick.util.ResourceLoader;
+
+/**
+ * Loads a list of textures in two steps. Image files are decoded to pixel buffers on a shared pool of
+ * worker threads, one file per task, so decoding runs on every core at once. The decoded pixels are then
+ * uploaded to OpenGL on the thread that owns the GL context, either all at once with <code>finish()</code>
+ * or a few at a time with <code>uploadSlice()</code> so a frame can still be drawn between uploads.
+ * <p>
+ * The load list uses the same layout as the <code>texLoadList</code> arrays in the game modes:
+ * each entry is { key, resource path }. A file listed under several keys is only decoded once.
+ * <p>
+ * Textures are shared through <code>TextureCache</code>: files already in the cache are not decoded
+ * again, and every texture the loader provides is held until <code>release()</code> is called.
+ * <p>
+ * Decoded pixels are kept in <code>AssetPack</code>. Files with a valid pack entry are uploaded straight
+ * from the mapped pack instead of being decoded, and files that had to be decoded are added to the pack
+ * when <code>finish()</code> completes.
+ * @author John Ojala
+ */
+public class AssetLoader {
+	/** Time (nanoseconds) spent uploading per frame when loading in the background. */
+	public static final long SLICE_NANOS = 4000000L;
+	private static ExecutorService workers;
+
+	/** A file being loaded, and the keys it will be stored under. */
+	private static class Entry {
+		final String path;
+		/** Canonical file path, the <code>TextureCache</code> key */
+		final String source;
+		final ArrayList<String> keys = new ArrayList<String>(1);
+		Future<ImageData> decode;
+		/** Set by the decoder when the pixels came from <code>AssetPack</code>. */
+		volatile boolean packed = false;
+		boolean uploaded = false;
+		/** Set once the loader holds a cache reference for this file. */
+		boolean acquired = false;
+
+		Entry(String path, String source) {
+			this.path = path;
+			this.source = source;
+		}
+	}
+
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+	private final HashMap<String, Texture> target;
+	/** Written on the GL thread, read by the loading screen. */
+	private volatile int uploadCount = 0;
+	private boolean started = false;
+	/** Files decoded by this loader that are not in the pack yet. */
+	private final ArrayList<String> unpackedSources = new ArrayList<String>();
+	private final ArrayList<ImageData> unpackedImages = new ArrayList<ImageData>();
+
+	/**
+	 * Textures already in <code>TextureCache</code> are stored in <code>target</code> immediately.
+	 * @param loadList Texture list as { key, resource path } pairs
+	 * @param target The map loaded textures are stored in
+	 * @throws IOException If a listed file does not exist
+	 */
+	public AssetLoader(String[][] loadList, HashMap<String, Texture> target) throws IOException {
+		this.target = target;
+		Entry e;
+		String source;
+		for (String ref[] : loadList) {
+			// key by canonical path so different spellings of one file share an entry
+			source = FileResource.requestResource(ref[1]);
+			e = entries.get(source);
+			if (e == null) {
+				e = new Entry(ref[1], source);
+				entries.put(source, e);
+			}
+			if (!e.keys.contains(ref[0])) { e.keys.add(ref[0]); }
+		}
+		Texture tex;
+		for (Entry entry : entries.values()) {
+			tex = TextureCache.acquire(entry.source);
+			if (tex != null) {
+				entry.acquired = true;
+				store(entry, tex);
+			}
+		}
+	}
+
+	private static synchronized ExecutorService getWorkers() {
+		if (workers == null) {
+			int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+			workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				private int count = 0;
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "AssetDecoder-" + (count++));
+					// decoders must not keep the program alive after the main loop exits
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return workers;
+	}
+
+	/** Shuts down the decoder threads. Called when the program exits. */
+	public static synchronized void shutdown() {
+		if (workers != null) {
+			workers.shutdownNow();
+			workers = null;
+		}
+	}
+
+	/**
+	 * Starts decoding every file in the list. Can be called from any thread.
+	 */
+	public synchronized void start() {
+		if (started) { return; }
+		started = true;
+		ExecutorService pool = getWorkers();
+		for (final Entry e : entries.values()) {
+			if (e.uploaded) { continue; } // already cached
+			e.decode = pool.submit(() -> decode(e));
+		}
+	}
+
+	private static ImageData decode(Entry e) throws IOException {
+		long t = StartupProfiler.start();
+		ImageData packed = AssetPack.lookup(e.source);
+		if (packed != null) {
+			e.packed = true;
+			StartupProfiler.end("texture", e.path + " (pack)", t);
+			return packed;
+		}
+		ImageData data = decodeImage(e.path);
+		StartupProfiler.end("texture", e.path + " decode", t);
+		return data;
+	}
+
+	/**
+	 * Decodes an image file the same way <code>TextureLoader.getTexture()</code> does: not flipped, no
+	 * transparent color. Safe to call from any thread.
+	 * @param path The image file
+	 * @return The decoded pixels
+	 * @throws IOException If the file can not be read or decoded
+	 */
+	public static ImageData decodeImage(String path) throws IOException {
+		LoadableImageData data = ImageDataFactory.getImageDataFor(path);
+		InputStream in = ResourceLoader.getResourceAsStream(path);
+		try {
+			data.loadImage(new BufferedInputStream(in), false, null);
+		} finally {
+			in.close();
+		}
+		return data;
+	}
+
+	/**
+	 * Uploads decoded images until the time budget is used. Must be called on the GL thread.
+	 * @param budgetNanos The time (nanoseconds) to spend uploading. At least one image is uploaded if one
+	 * has finished decoding.
+	 * @return <code>true</code> once every texture is loaded
+	 * @throws IOException If a file could not be decoded
+	 */
+	public boolean uploadSlice(long budgetNanos) throws IOException {
+		start();
+		long end = System.nanoTime() + budgetNanos;
+		for (Entry e : entries.values()) {
+			if (e.uploaded || !e.decode.isDone()) { continue; }
+			upload(e);
+			if (System.nanoTime() - end >= 0) { break; }
+		}
+		return isDone();
+	}
+
+	/**
+	 * Waits for every image to decode and uploads them all. On the GL thread everything is uploaded at
+	 * once. From any other thread the uploads are passed to the GL thread through <code>GLTaskQueue</code>
+	 * in slices of <code>SLICE_NANOS</code>, at most one slice per frame, so the game keeps drawing.
+	 * @throws IOException If a file could not be decoded
+	 */
+	public void finish() throws IOException {
+		start();
+		if (GLTaskQueue.isGLThread()) {
+			for (Entry e : entries.values()) {
+				if (!e.uploaded) { upload(e); }
+			}
+			savePack();
+			return;
+		}
+		try {
+			for (Entry e : entries.values()) {
+				if (e.uploaded) { continue; }
+				// wait here rather than on the GL thread, then upload whatever is ready
+				e.decode.get();
+				GLTaskQueue.invokeAndWait(() -> uploadSlice(SLICE_NANOS));
+			}
+			savePack();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while loading textures", ie);
+		} catch (ExecutionException ee) {
+			if (ee.getCause() instanceof IOException) { throw (IOException) ee.getCause(); }
+			throw new IOException("Unable to load textures", ee.getCause());
+		}
+	}
+
+	/** Adds the files this loader decoded to the pack, from the calling thread. */
+	private void savePack() {
+		ArrayList<String> sources;
+		ArrayList<ImageData> images;
+		// uploads add to the lists on the GL thread
+		synchronized (unpackedSources) {
+			if (unpackedSources.isEmpty()) { return; }
+			sources = new ArrayList<String>(unpackedSources);
+			images = new ArrayList<ImageData>(unpackedImages);
+			unpackedSources.clear();
+			unpackedImages.clear();
+		}
+		long t = StartupProfiler.start();
+		AssetPack.store(sources, images);
+		StartupProfiler.end("texture", "write asset pack", t);
+	}
+
+	private void upload(Entry e) throws IOException {
+		ImageData data;
+		try {
+			data = e.decode.get();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while loading " + e.path, ie);
+		} catch (ExecutionException ee) {
+			throw new IOException("Unable to decode " + e.path, ee.getCause());
+		}
+		long t = StartupProfiler.start();
+		Texture tex = TextureCache.add(e.source, InternalTextureLoader.get().getTexture(data, GL_LINEAR));
+		StartupProfiler.end("texture", e.path + " upload", t);
+		e.acquired = true;
+		e.decode = null;
+		if (!e.packed) {
+			// keep the pixels until they are written to the pack
+			synchronized (unpackedSources) {
+				unpackedSources.add(e.source);
+				unpackedImages.add(data);
+			}
+		}
+		store(e, tex);
+	}
+
+	private void store(Entry e, Texture tex) {
+		for (String key : e.keys) {
+			if (target.putIfAbsent(key, tex) != null) {
+				// report error, attempting to add duplicate key entry
+				Global.writeToLog(String.format("Attempting to load multiple textures to key [%s]", key));
+				Global.writeToLog(String.format("Texture resource [%s] not loaded.", e.path) );
+			}
+		}
+		e.uploaded = true;
+		uploadCount++;
+	}
+
+	/**
+	 * Gives back the cache references held by this loader and removes the textures from the target
+	 * map. Called on the render thread when the textures are no longer used.
+	 */
+	public void release() {
+		for (Entry e : entries.values()) {
+			if (!e.acquired) { continue; }
+			for (String key : e.keys) { target.remove(key); }
+			TextureCache.release(e.source);
+			e.acquired = false;
+		}
+	}
+
+	/** @return <code>true</code> once every texture is loaded. */
+	public boolean isDone() { return uploadCount == entries.size(); }
+
+	/** @return The fraction of textures loaded, from 0 to 1. */
+	public float getProgress() {
+		return entries.isEmpty() ? 1f : (float) uploadCount / entries.size();
+	}
+}
@@ -0,0 +1,286 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.newdawn.slick.opengl.ImageData;
+
+/**
+ * Cache of decoded texture pixels kept in a single pack file. The first time an image is loaded its
+ * decoded pixels are written to the pack; later runs memory map the pack and upload the pixels straight
+ * from the mapped file, skipping image decoding.
+ * <p>
+ * Each entry records the size, modification time and CRC32 of its source file. An entry is used when the
+ * size and time still match, or when they differ but the file contents still hash to the stored CRC (for
+ * example after the file was copied). Otherwise the image is decoded again and the entry replaced.
+ * <p>
+ * The pack is rewritten to a temporary file and moved into place. If the old pack cannot be replaced
+ * because it is still mapped (Windows does not allow it), the new pack is left beside it and moved into
+ * place on the next start, before the pack is mapped.
+ * <p>
+ * Pack layout, all values big endian:
+ * <pre>
+ * int magic, int version, int entry count
+ * per entry: short path length, path (UTF-8), long source size, long source time, long source CRC32,
+ *            int width, int height, int texture width, int texture height, int depth,
+ *            long data offset, int data length
+ * pixel data for each entry
+ * </pre>
+ * @author John Ojala
+ */
+public final class AssetPack {
+	/** Location of the pack file. */
+	public static String packFile = "cache/assets.pack";
+	private static final int MAGIC = 0x42424150; // "BBAP"
+	private static final int VERSION = 1;
+
+	/** Index entry for one image in the pack. */
+	private static class Entry {
+		String path;
+		long size, time, crc;
+		int width, height, texWidth, texHeight, depth;
+		long offset;
+		int length;
+	}
+
+	/** The mapped pack and its index. Replaced as a whole when a new pack is written. */
+	private static class Pack {
+		final HashMap<String, Entry> index;
+		final ByteBuffer data;
+
+		Pack(HashMap<String, Entry> index, ByteBuffer data) {
+			this.index = index;
+			this.data = data;
+		}
+	}
+
+	private static volatile Pack pack = null;
+
+	/** Decoded pixels read from the mapped pack. */
+	private static class PackedImage implements ImageData {
+		private final Entry entry;
+		private final ByteBuffer pixels;
+
+		PackedImage(Entry entry, ByteBuffer pixels) {
+			this.entry = entry;
+			this.pixels = pixels;
+		}
+
+		@Override public int getDepth() { return entry.depth; }
+		@Override public int getWidth() { return entry.width; }
+		@Override public int getHeight() { return entry.height; }
+		@Override public int getTexWidth() { return entry.texWidth; }
+		@Override public int getTexHeight() { return entry.texHeight; }
+		@Override public ByteBuffer getImageBufferData() { return pixels; }
+	}
+
+	private AssetPack() { }
+
+	/**
+	 * Looks up the decoded pixels for an image file. Can be called from any thread.
+	 * @param source Canonical path of the image file
+	 * @return The decoded image, or <code>null</code> if the pack has no valid entry for the file
+	 */
+	public static ImageData lookup(String source) {
+		Pack p = open();
+		Entry e = p.index.get(source);
+		if (e == null) { return null; }
+		try {
+			Path file = Paths.get(source);
+			long size = Files.size(file);
+			long time = Files.getLastModifiedTime(file).toMillis();
+			if (size != e.size || (time != e.time && crc(file) != e.crc)) {
+				return null; // the source changed since it was packed
+			}
+		} catch (IOException err) {
+			return null;
+		}
+		ByteBuffer pixels = p.data.duplicate();
+		pixels.position((int) e.offset);
+		pixels.limit((int) e.offset + e.length);
+		return new PackedImage(e, pixels.slice());
+	}
+
+	/**
+	 * Writes a new pack containing the existing entries and the given images. Entries for source files
+	 * that no longer exist are dropped.
+	 * @param sources Canonical paths of the image files
+	 * @param images Decoded pixels for each source
+	 */
+	public static synchronized void store(List<String> sources, List<ImageData> images) {
+		Pack old = open();
+		HashMap<String, Entry> index = new HashMap<String, Entry>();
+		HashMap<String, ByteBuffer> pixels = new HashMap<String, ByteBuffer>();
+		ByteBuffer buf;
+		for (Entry e : old.index.values()) {
+			if (!Files.exists(Paths.get(e.path))) { continue; }
+			buf = old.data.duplicate();
+			buf.position((int) e.offset);
+			buf.limit((int) e.offset + e.length);
+			index.put(e.path, e);
+			pixels.put(e.path, buf);
+		}
+		try {
+			Entry e;
+			ImageData img;
+			Path file;
+			for (int i = 0; i < sources.size(); i++) {
+				img = images.get(i);
+				file = Paths.get(sources.get(i));
+				e = new Entry();
+				e.path = sources.get(i);
+				e.size = Files.size(file);
+				e.time = Files.getLastModifiedTime(file).toMillis();
+				e.crc = crc(file);
+				e.width = img.getWidth();
+				e.height = img.getHeight();
+				e.texWidth = img.getTexWidth();
+				e.texHeight = img.getTexHeight();
+				e.depth = img.getDepth();
+				buf = img.getImageBufferData().duplicate();
+				buf.rewind();
+				index.put(e.path, e);
+				pixels.put(e.path, buf);
+			}
+			write(index, pixels);
+		} catch (IOException err) {
+			Global.writeToLog(String.format("Unable to write asset pack %s: %s", packFile, err.getMessage()), true);
+		}
+	}
+
+	private static void write(HashMap<String, Entry> index, HashMap<String, ByteBuffer> pixels) throws IOException {
+		Path target = Paths.get(packFile);
+		if (target.getParent() != null) { Files.createDirectories(target.getParent()); }
+		Path temp = Paths.get(packFile + ".tmp");
+
+		// lay out the data after the index
+		int headerSize = 12;
+		byte[][] names = new byte[index.size()][];
+		Entry[] entries = index.values().toArray(new Entry[index.size()]);
+		for (int i = 0; i < entries.length; i++) {
+			names[i] = entries[i].path.getBytes(StandardCharsets.UTF_8);
+			headerSize += 2 + names[i].length + 8 * 3 + 4 * 5 + 8 + 4;
+		}
+		long offset = headerSize;
+		for (Entry e : entries) {
+			e.offset = offset;
+			e.length = pixels.get(e.path).remaining();
+			offset += e.length;
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(headerSize);
+		header.putInt(MAGIC).putInt(VERSION).putInt(entries.length);
+		for (int i = 0; i < entries.length; i++) {
+			Entry e = entries[i];
+			header.putShort((short) names[i].length).put(names[i]);
+			header.putLong(e.size).putLong(e.time).putLong(e.crc);
+			header.putInt(e.width).putInt(e.height).putInt(e.texWidth).putInt(e.texHeight).putInt(e.depth);
+			header.putLong(e.offset).putInt(e.length);
+		}
+		header.flip();
+		try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (header.hasRemaining()) { out.write(header); }
+			ByteBuffer data;
+			for (Entry e : entries) {
+				data = pixels.get(e.path);
+				while (data.hasRemaining()) { out.write(data); }
+			}
+			out.force(false);
+		}
+
+		try {
+			try {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException err) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException err) {
+			// the current pack is probably still mapped, swap it in on the next start
+			Files.move(temp, Paths.get(packFile + ".new"), StandardCopyOption.REPLACE_EXISTING);
+			Global.writeToLog("Asset pack in use, new pack will be used on the next start.");
+			return;
+		}
+		pack = map(target);
+	}
+
+	/** @return The current pack, mapping the pack file on first use. */
+	private static Pack open() {
+		Pack p = pack;
+		if (p != null) { return p; }
+		synchronized (AssetPack.class) {
+			if (pack != null) { return pack; }
+			Path target = Paths.get(packFile);
+			Path pending = Paths.get(packFile + ".new");
+			try {
+				if (Files.exists(pending)) {
+					Files.move(pending, target, StandardCopyOption.REPLACE_EXISTING);
+				}
+			} catch (IOException err) {
+				Global.writeToLog(String.format("Unable to replace asset pack: %s", err.getMessage()));
+			}
+			pack = Files.exists(target) ? map(target) : empty();
+			return pack;
+		}
+	}
+
+	private static Pack empty() {
+		return new Pack(new HashMap<String, Entry>(), ByteBuffer.allocate(0));
+	}
+
+	/** Maps a pack file and reads its index. A damaged or outdated pack is treated as empty. */
+	private static Pack map(Path file) {
+		try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer data = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+			if (data.getInt() != MAGIC || data.getInt() != VERSION) {
+				Global.writeToLog(String.format("Ignoring asset pack %s, unknown format.", file));
+				return empty();
+			}
+			int count = data.getInt();
+			HashMap<String, Entry> index = new HashMap<String, Entry>(count * 2);
+			byte[] name;
+			Entry e;
+			for (int i = 0; i < count; i++) {
+				e = new Entry();
+				name = new byte[data.getShort() & 0xFFFF];
+				data.get(name);
+				e.path = new String(name, StandardCharsets.UTF_8);
+				e.size = data.getLong();
+				e.time = data.getLong();
+				e.crc = data.getLong();
+				e.width = data.getInt();
+				e.height = data.getInt();
+				e.texWidth = data.getInt();
+				e.texHeight = data.getInt();
+				e.depth = data.getInt();
+				e.offset = data.getLong();
+				e.length = data.getInt();
+				if (e.offset < 0 || e.offset + e.length > data.capacity()) {
+					throw new IOException("entry outside of pack: " + e.path);
+				}
+				index.put(e.path, e);
+			}
+			return new Pack(index, data);
+		} catch (IOException | RuntimeException err) {
+			// a truncated pack runs past the end of the buffer
+			Global.writeToLog(String.format("Ignoring damaged asset pack %s: %s", file, err));
+			return empty();
+		}
+	}
+
+	private static long crc(Path file) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(Files.readAllBytes(file));
+		return crc.getValue();
+	}
+}
@@ -0,0 +1,252 @@
+import static org.lwjgl.opengl.GL11.*;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.lwjgl.BufferUtils;
+import org.newdawn.slick.Color;
+import org.newdawn.slick.Font;
+import org.newdawn.slick.opengl.TextureImpl;
+
+/**
+ * Bitmap font drawn from a glyph atlas texture, a drop in replacement for Slick's
+ * <code>TrueTypeFont</code> for characters 0 to 255.
+ * <p>
+ * The atlas is baked from an AWT font by <code>FontBaker</code> the first time a font is used, and saved
+ * with the glyph metrics to a cache file. Later starts read the cache file and upload the atlas
+ * directly, without loading AWT or rasterizing any glyphs. A cache file is baked again when it is
+ * missing, unreadable, from an older format, or was made from a different font file.
+ * <p>
+ * The atlas only holds coverage (alpha) values. Glyphs are white and take their color from the color
+ * passed to <code>drawString()</code>, as with <code>TrueTypeFont</code>.
+ * @author John Ojala
+ */
+public class BakedFont implements Font {
+	/** Font style, same value as <code>java.awt.Font.PLAIN</code>. */
+	public static final int PLAIN = 0;
+	/** Font style, same value as <code>java.awt.Font.BOLD</code>. */
+	public static final int BOLD = 1;
+	/** Number of characters in the atlas, 0 to 255. */
+	public static final int GLYPHS = 256;
+	/** Directory the baked fonts are stored in. */
+	public static String cacheDir = "cache/fonts";
+	private static final int MAGIC = 0x42424654; // "BBFT"
+	private static final int VERSION = 1;
+
+	private final int lineHeight;
+	private final int texWidth, texHeight;
+	/** Atlas position and size of each glyph, in pixels. The width is also the advance. */
+	private final int[] glyphX, glyphY, glyphW, glyphH;
+	/** Coverage values for the atlas, one byte per pixel. Dropped once uploaded. */
+	private byte[] alpha;
+	private int texture = 0;
+
+	BakedFont(int lineHeight, int texWidth, int texHeight, int[] glyphX, int[] glyphY, int[] glyphW, int[] glyphH, byte[] alpha) {
+		this.lineHeight = lineHeight;
+		this.texWidth = texWidth;
+		this.texHeight = texHeight;
+		this.glyphX = glyphX;
+		this.glyphY = glyphY;
+		this.glyphW = glyphW;
+		this.glyphH = glyphH;
+		this.alpha = alpha;
+	}
+
+	/**
+	 * Loads a font from the cache, baking it first if needed. Must be called on the GL thread.
+	 * @param family Name of an installed font, used when <code>fontFile</code> is <code>null</code>
+	 * @param fontFile Resource path of a TrueType font file, or <code>null</code> to use <code>family</code>
+	 * @param style <code>PLAIN</code> or <code>BOLD</code>
+	 * @param size Font size in points
+	 * @return The loaded font
+	 * @throws IOException If the font is not cached and can not be baked
+	 */
+	public static BakedFont load(String family, String fontFile, int style, int size) throws IOException {
+		String name = fontFile == null ? family : new File(fontFile).getName();
+		String key = sourceKey(family, fontFile, style, size);
+		File cache = new File(cacheDir, String.format("%s_%d_%d.font", name.replaceAll("[^A-Za-z0-9]", "_"), style, size));
+		long t = StartupProfiler.start();
+		BakedFont font = read(cache, key);
+		if (font != null) {
+			StartupProfiler.end("font", String.format("%s %d (cached)", name, size), t);
+		} else {
+			font = FontBaker.bake(family, fontFile, style, size);
+			try {
+				font.write(cache, key);
+			} catch (IOException e) {
+				Global.writeToLog(String.format("Unable to save baked font %s: %s", cache, e.getMessage()), true);
+			}
+			StartupProfiler.end("font", String.format("%s %d (baked)", name, size), t);
+		}
+		font.upload();
+		return font;
+	}
+
+	/** @return A description of the font source, stored in the cache file to detect a changed font file. */
+	private static String sourceKey(String family, String fontFile, int style, int size) {
+		if (fontFile == null) {
+			return String.format("system:%s:%d:%d", family, style, size);
+		}
+		String stamp = "";
+		try {
+			Path file = Paths.get(fontFile);
+			if (Files.exists(file)) {
+				stamp = String.format(":%d:%d", Files.size(file), Files.getLastModifiedTime(file).toMillis());
+			}
+		} catch (IOException e) {
+			// not a plain file, the name alone identifies it
+		}
+		return String.format("file:%s%s:%d:%d", fontFile, stamp, style, size);
+	}
+
+	/** @return The font stored in a cache file, or <code>null</code> if it is missing or stale. */
+	private static BakedFont read(File file, String key) {
+		if (!file.exists()) { return null; }
+		try (DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(file))))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || !key.equals(in.readUTF())) {
+				return null;
+			}
+			int lineHeight = in.readInt();
+			int texWidth = in.readInt();
+			int texHeight = in.readInt();
+			int[] x = new int[GLYPHS], y = new int[GLYPHS], w = new int[GLYPHS], h = new int[GLYPHS];
+			for (int i = 0; i < GLYPHS; i++) {
+				x[i] = in.readShort();
+				y[i] = in.readShort();
+				w[i] = in.readShort();
+				h[i] = in.readShort();
+			}
+			byte[] alpha = new byte[texWidth * texHeight];
+			in.readFully(alpha);
+			return new BakedFont(lineHeight, texWidth, texHeight, x, y, w, h, alpha);
+		} catch (IOException e) {
+			Global.writeToLog(String.format("Unable to read baked font %s, baking again: %s", file, e.getMessage()));
+			return null;
+		}
+	}
+
+	private void write(File file, String key) throws IOException {
+		File dir = file.getParentFile();
+		if (dir != null) { dir.mkdirs(); }
+		File temp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(temp))))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(key);
+			out.writeInt(lineHeight);
+			out.writeInt(texWidth);
+			out.writeInt(texHeight);
+			for (int i = 0; i < GLYPHS; i++) {
+				out.writeShort(glyphX[i]);
+				out.writeShort(glyphY[i]);
+				out.writeShort(glyphW[i]);
+				out.writeShort(glyphH[i]);
+			}
+			out.write(alpha);
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private void upload() {
+		ByteBuffer pixels = BufferUtils.createByteBuffer(alpha.length);
+		pixels.put(alpha).flip();
+		texture = glGenTextures();
+		glBindTexture(GL_TEXTURE_2D, texture);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+		glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+		glTexImage2D(GL_TEXTURE_2D, 0, GL_ALPHA8, texWidth, texHeight, 0, GL_ALPHA, GL_UNSIGNED_BYTE, pixels);
+		glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
+		TextureImpl.unbind();
+		alpha = null;
+	}
+
+	/** Frees the atlas texture. */
+	public void release() {
+		if (texture != 0) {
+			glDeleteTextures(texture);
+			texture = 0;
+		}
+	}
+
+	@Override
+	public int getWidth(String text) {
+		int width = 0;
+		char c;
+		for (int i = 0; i < text.length(); i++) {
+			c = text.charAt(i);
+			if (c < GLYPHS) { width += glyphW[c]; }
+		}
+		return width;
+	}
+
+	@Override
+	public int getHeight(String text) {
+		int height = 0;
+		char c;
+		for (int i = 0; i < text.length(); i++) {
+			c = text.charAt(i);
+			if (c < GLYPHS) { height = Math.max(height, glyphH[c]); }
+		}
+		return height;
+	}
+
+	@Override
+	public int getLineHeight() { return lineHeight; }
+
+	@Override
+	public void drawString(float x, float y, String text) {
+		drawString(x, y, text, Color.white);
+	}
+
+	@Override
+	public void drawString(float x, float y, String text, Color color) {
+		drawString(x, y, text, color, 0, text.length() - 1);
+	}
+
+	@Override
+	public void drawString(float x, float y, String text, Color color, int startIndex, int endIndex) {
+		color.bind();
+		glBindTexture(GL_TEXTURE_2D, texture);
+		glBegin(GL_QUADS);
+		float u0, v0, u1, v1, x1, y1;
+		char c;
+		for (int i = 0; i < text.length(); i++) {
+			c = text.charAt(i);
+			if (c >= GLYPHS) { continue; }
+			if (i >= startIndex && i <= endIndex && glyphW[c] > 0) {
+				u0 = (float) glyphX[c] / texWidth;
+				v0 = (float) glyphY[c] / texHeight;
+				u1 = (float) (glyphX[c] + glyphW[c]) / texWidth;
+				v1 = (float) (glyphY[c] + glyphH[c]) / texHeight;
+				x1 = x + glyphW[c];
+				y1 = y + glyphH[c];
+				glTexCoord2f(u0, v0);
+				glVertex2f(x, y);
+				glTexCoord2f(u0, v1);
+				glVertex2f(x, y1);
+				glTexCoord2f(u1, v1);
+				glVertex2f(x1, y1);
+				glTexCoord2f(u1, v0);
+				glVertex2f(x1, y);
+			}
+			x += glyphW[c];
+		}
+		glEnd();
+		// the texture cache in Slick does not know about the bind above
+		TextureImpl.unbind();
+	}
+}
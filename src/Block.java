@@ -1,4 +1,5 @@
 import java.util.HashMap;
+import org.newdawn.slick.Color;
 import org.newdawn.slick.opengl.Texture;
 
 public class Block implements Cloneable {
@@ -22,6 +23,15 @@ public class Block implements Cloneable {
 		GREY = 5
 	;
 	public static final int blockColorCount = 6;
+	/** Particle colors for each block color, indexed by color ID. */
+	public static final Color[] particleColor = new Color[] {
+		new Color(0.35f, 0.6f, 1.0f), // blue
+		new Color(1.0f, 0.85f, 0.2f), // yellow
+		new Color(0.35f, 0.9f, 0.35f), // green
+		new Color(1.0f, 0.3f, 0.25f), // red
+		new Color(0.75f, 0.4f, 1.0f), // purple
+		new Color(0.7f, 0.7f, 0.7f) // grey
+	};
 	
 	/* Define the draw space that a block will take up in the grid.
 	 * This value is independent from the texture size and will ensure
@@ -247,6 +257,24 @@ public class Block implements Cloneable {
 		}
 	}
 	
+	/**
+	 * Queues the block to be drawn by <code>SpriteBatch</code>. The block is queued on the block layer,
+	 * and star and bomb overlays are queued on the overlay layer so they are still drawn over the block
+	 * after the queue is sorted by texture.
+	 */
+	public void queue(int xc, int yc, int[] size) {
+		if (block == null) {
+			errorBlock.queue(SpriteBatch.LAYER_BLOCK, xc, yc, size);
+			return ;
+		}
+		block.queue(SpriteBatch.LAYER_BLOCK, xc, yc, size);
+		if (type == BlockType.STAR) {
+			blockStarOverlay.queue(SpriteBatch.LAYER_BLOCK_OVERLAY, xc, yc, size);
+		} else if (type == BlockType.BOMB) {
+			bombNumber[colorID].queue(SpriteBatch.LAYER_BLOCK_OVERLAY, xc + 9, yc + 7);
+		}
+	}
+	
 	@Override
 	public String toString() {
 		String blockID;
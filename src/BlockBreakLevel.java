@@ -1,5 +1,9 @@
 import static org.lwjgl.opengl.GL11.*;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.time.LocalDateTime;
 import java.util.HashMap;
 
@@ -36,6 +40,8 @@ public class BlockBreakLevel {
 	
 	// grid variables
 	protected GridColumn[] grid;
+	/** The level file the grid was loaded from, <code>null</code> for generated grids. */
+	protected String levelSource = null;
 	protected int[] gridBasePos;
 	protected int[] blockSize = new int[] { 32, 32 };
 	/** Defines which direction the grid columns should shift where there is space between them.<br>
@@ -62,8 +68,6 @@ public class BlockBreakLevel {
 	private int queueCount = 0;
 	/** The number of blocks that should be in the queue before forcibly adding to the grid */
 	protected int queueLimit = 5;
-	private final long queueManualShiftDelayTimer = 200;
-	private long queueManualShiftDelay = queueManualShiftDelayTimer;
 	private boolean queueHold = false;
 	/** If <code>true</code>, no queue processing will be done. */
 	protected boolean queueDisabled = false;
@@ -73,7 +77,6 @@ public class BlockBreakLevel {
 	private int heartCursorPos = 0;
 	private boolean gamePaused = false;
 	private long inputDelay = Global.inputReadDelayTimer;
-	private long actionDelay = Global.inputReadDelayTimer * 2;
 	protected String levelTitle;
 	protected final int level;
 	
@@ -106,6 +109,18 @@ public class BlockBreakLevel {
 	protected int minColors = 2;
 	private int heartGenChance = 20;
 	private int bombGenChance = 20;
+	
+	/* Particle effect settings */
+	/** Particles spawned for each cleared block when the pool has room. */
+	private static final int clearParticles = 24;
+	/** Fewest particles spawned for a cleared block, used when a large clear would fill the pool. */
+	private static final int clearParticlesMin = 4;
+	private static final Color bombFlash = new Color(1.0f, 0.6f, 0.2f);
+	private static final Color starFlash = new Color(1.0f, 1.0f, 0.6f);
+	private static final Color heartFlash = new Color(1.0f, 0.4f, 0.6f);
+	
+	/** File the level in progress is saved to by <code>LevelSession</code>. */
+	protected static final String SESSION_FILE = "standard.session";
 
 	public static void buildStaticAssets(HashMap<String,Texture> localTexMap) {
 		overlay = new Sprite(
@@ -171,11 +186,140 @@ public class BlockBreakLevel {
 	}
 	
 	public BlockBreakLevel(int levelSelect) { 
+		ParticleSystem.clear();
 		level = levelSelect;
 		buildGrid(level);
 		levelTitle = String.format("Level %02d", level);
 	} 
 	
+	/**
+	 * @return The file this level's session is saved to, or <code>null</code> if the level is not saved
+	 */
+	protected String getSessionFile() {
+		return SESSION_FILE;
+	}
+	
+	/** @return <code>true</code> if the level is in a state that can be resumed later */
+	protected boolean canSaveSession() {
+		return level > 0 && !levelFinished && !levelComplete && !gameOver && !heartSpecialActive;
+	}
+	
+	/**
+	 * Writes the play state of the level for <code>LevelSession</code>. Settings that
+	 * <code>buildGrid()</code> sets for the level are not written, they are set again when the level
+	 * is created to be resumed.
+	 * @param out The session state
+	 * @throws IOException If the state can not be written
+	 */
+	protected void writeSession(DataOutputStream out) throws IOException {
+		out.writeInt(score);
+		out.writeInt(energy);
+		out.writeInt(blocksRemaining);
+		out.writeInt(allowedColors);
+		out.writeInt(totalColors);
+		for (int count : blockCounts) { out.writeInt(count); }
+		out.writeInt(cursorGridPos[0]);
+		out.writeInt(cursorGridPos[1]);
+		out.writeInt(gridShiftDir);
+		out.writeLong(gridShiftActionDelay);
+		out.writeInt(wedgePos[0]);
+		out.writeInt(wedgePos[1]);
+		out.writeBoolean(blocksMoving);
+		out.writeLong(blockDropDelay);
+		// grid cells, then the movement of each column and block
+		byte[] cells = GridColumn.encodeBinary(GridColumn.toCells(grid));
+		out.writeInt(cells.length);
+		out.write(cells);
+		for (GridColumn gc : grid) {
+			out.writeInt(gc.columnOffset);
+			for (Block b : gc.blocks) {
+				out.writeShort(b == null ? 0 : b.dropDistance);
+			}
+		}
+		// levels without a queue have none to save
+		out.writeInt(queue == null ? -1 : queue.length);
+		if (queue != null) {
+			for (Block b : queue) { out.writeByte(GridColumn.codeFromBlock(b)); }
+		}
+		out.writeLong(queueStepDelay);
+		out.writeInt(queueStepCount);
+		out.writeInt(queueCount);
+	}
+	
+	/**
+	 * Restores the play state written by <code>writeSession()</code> and pauses the level.
+	 * @param in The session state
+	 * @throws IOException If the state is damaged or does not fit this level
+	 */
+	protected void readSession(DataInputStream in) throws IOException {
+		score = in.readInt();
+		energy = Math.max(0, Math.min(energyMax, in.readInt()));
+		blocksRemaining = in.readInt();
+		allowedColors = in.readInt();
+		totalColors = in.readInt();
+		for (int i = 0; i < blockCounts.length; i++) { blockCounts[i] = in.readInt(); }
+		cursorGridPos[0] = in.readInt();
+		cursorGridPos[1] = in.readInt();
+		gridShiftDir = in.readInt();
+		gridShiftActionDelay = in.readLong();
+		wedgePos = new int[] { in.readInt(), in.readInt() };
+		blocksMoving = in.readBoolean();
+		blockDropDelay = in.readLong();
+		byte[] cells = new byte[in.readInt()];
+		in.readFully(cells);
+		GridColumn[] saved = GridColumn.toGrid(GridColumn.decodeBinary(ByteBuffer.wrap(cells)));
+		if (saved.length != grid.length || saved[0].blocks.length != grid[0].blocks.length) {
+			throw new IOException("The saved grid does not match the level");
+		}
+		for (GridColumn gc : saved) {
+			gc.columnOffset = in.readInt();
+			for (Block b : gc.blocks) {
+				int drop = in.readShort();
+				if (b != null) { b.dropDistance = drop; }
+			}
+		}
+		if (in.readInt() != (queue == null ? -1 : queue.length)) {
+			throw new IOException("The saved queue does not match the level");
+		}
+		Block[] savedQueue = queue == null ? null : new Block[queue.length];
+		if (savedQueue != null) {
+			for (int i = 0; i < savedQueue.length; i++) { savedQueue[i] = GridColumn.blockFromCode(in.readByte()); }
+		}
+		queueStepDelay = in.readLong();
+		queueStepCount = in.readInt();
+		queueCount = in.readInt();
+		if (cursorGridPos[0] < 0 || cursorGridPos[0] >= saved.length
+				|| cursorGridPos[1] < 0 || cursorGridPos[1] >= saved[0].blocks.length) {
+			throw new IOException("The saved cursor is outside of the grid");
+		}
+		grid = saved;
+		queue = savedQueue;
+		pauseCursorPos = 0;
+		gamePaused = true;
+		inputDelay = 1000l;
+	}
+	
+	/** Loads the grid from a level file, noting the file so <code>HotReload</code> can find the level. */
+	protected GridColumn[] loadLevelFile(String filename) {
+		levelSource = filename;
+		return LevelPack.loadLevel(filename);
+	}
+	
+	/**
+	 * Replaces the grid with a changed version of <code>levelSource</code>, keeping the rest of the
+	 * level as it is. Called by <code>HotReload</code> on the render thread.
+	 * @param newGrid The grid read from the level file
+	 */
+	protected void reloadGrid(GridColumn[] newGrid) {
+		grid = newGrid;
+		if (queue != null && queue.length != grid.length) { queue = new Block[grid.length]; }
+		// the old wedge position would turn the new wedge into trash
+		wedgePos = new int[] { -1, -1 };
+		cursorGridPos[0] = Math.min(cursorGridPos[0], grid.length - 1);
+		cursorGridPos[1] = Math.min(cursorGridPos[1], grid[0].blocks.length - 1);
+		setGridCounts();
+	}
+	
 	protected void buildGrid(int levelSelect) {
 		// set the energy amount for the level
 		energy = energyMax = 200000;
@@ -257,7 +401,7 @@ public class BlockBreakLevel {
 				}
 				break;
 			case 5:
-				grid = GridColumn.loadFromFile("media/sp2.csv");
+				grid = loadLevelFile("media/sp2.csv");
 				break;
 			case 6:
 				// 3 colors, first show of the wedge block, with heart block
@@ -311,7 +455,7 @@ public class BlockBreakLevel {
 				}
 				break;
 			case 10:
-				grid = GridColumn.loadFromFile("media/sp9.csv");
+				grid = loadLevelFile("media/sp9.csv");
 				break;
 			case 11:
 				// 4 colors, randomly selected set, slightly faster queue
@@ -403,7 +547,7 @@ public class BlockBreakLevel {
 				
 				break;
 			case 15:
-				grid = GridColumn.loadFromFile("media/sp6.csv");
+				grid = loadLevelFile("media/sp6.csv");
 				break;
 			case 16:
 				// 4 colors, wedge, faster queue, fewer steps to add blocks
@@ -438,7 +582,7 @@ public class BlockBreakLevel {
 			case 19:
 				break;
 			case 20:
-				grid = GridColumn.loadFromFile("media/sp4.csv");
+				grid = loadLevelFile("media/sp4.csv");
 				break;
 			default:
 				return;
@@ -451,8 +595,8 @@ public class BlockBreakLevel {
 	}
 	
 	public void run() {
+		HotReload.poll(this);
 		// decrement input delay variables
-		actionDelay -= Global.delta;
 		inputDelay -= Global.delta;
 		
 		background.draw(0, 0);
@@ -474,7 +618,6 @@ public class BlockBreakLevel {
 		
 		if (!gamePaused && !gameOver && !levelComplete) {
 			// process active gameplay
-			queueManualShiftDelay -= Global.delta;
 			gridShiftActionDelay -= Global.delta;
 			if (!disableEnergy) { 
 				energy -= Global.delta; 
@@ -485,6 +628,8 @@ public class BlockBreakLevel {
 			processGridBlocks(grid);
 			drawGrid(grid);
 			drawCursor();
+			SpriteBatch.flush();
+			drawParticles();
 
 			// check if heart special control is active and handle accordingly
 			if (heartSpecialActive) {
@@ -510,7 +655,8 @@ public class BlockBreakLevel {
 	}
 	
 	protected void drawCursor() {
-		cursor.draw(
+		cursor.queue(
+				SpriteBatch.LAYER_CURSOR,
 				gridBasePos[0] + blockSize[0] * cursorGridPos[0],
 				gridBasePos[1] - blockSize[1] * cursorGridPos[1],
 				blockSize
@@ -687,6 +833,7 @@ public class BlockBreakLevel {
 			}
 		} else if (gameOver) {
 			drawGrid(grid);
+			SpriteBatch.flush();
 			showGameOver();
 		}
 	}
@@ -716,9 +863,8 @@ public class BlockBreakLevel {
 			Global.drawFont24(440, 380, "Quit the level.", Color.black);
 		}
 		
-		if (Global.getControlActive(Global.GameControl.CANCEL)) {
+		if (InputQueue.takePress(Global.GameControl.CANCEL)) {
 			this.levelFinished = true;
-			Global.actionDelay = Global.inputReadDelayTimer;
 		}
 	}
 
@@ -943,8 +1089,9 @@ public class BlockBreakLevel {
 		
 	}
 
-	/** Draws the grid to the screen. Calculates block offsets used by the updated
-	 *  grid management algorithm.
+	/** Queues the grid and block queue to be drawn. Calculates block offsets used by the updated
+	 *  grid management algorithm. <code>SpriteBatch.flush()</code> must be called before anything
+	 *  that should be drawn over the grid.
 	 * @param grid
 	 * @author John
 	 */
@@ -954,13 +1101,13 @@ public class BlockBreakLevel {
 			for (int k = 0; k < grid[0].blocks.length; k++) {
 				if (grid[i].blocks[k] == null) { continue; }
 				if (grid[i].blocks[k].type == Block.BlockType.WEDGE) { // wedge blocks are not drawn with grid column offset adjustment
-					grid[i].blocks[k].draw(
+					grid[i].blocks[k].queue(
 							gridBasePos[0] + blockSize[0] * i,
 							(gridBasePos[1] - blockSize[1] * k) + grid[i].blocks[k].dropDistance,
 							blockSize
 						);
 				} else {
-					grid[i].blocks[k].draw(
+					grid[i].blocks[k].queue(
 							gridBasePos[0] + blockSize[0] * i + grid[i].columnOffset,
 							(gridBasePos[1] - blockSize[1] * k) + grid[i].blocks[k].dropDistance,
 							blockSize
@@ -980,6 +1127,7 @@ public class BlockBreakLevel {
 		int yMin = (pos[1] - 1) < 0 ? 0 : pos[1] - 1;
 		int yMax = (pos[1] + 1) >= grid[0].blocks.length ? grid[0].blocks.length - 1 : pos[1] + 1;
 		grid[pos[0]].blocks[pos[1]].clearMark = true;
+		ParticleSystem.ring(getBlockCenterX(pos[0], pos[1]), getBlockCenterY(pos[0], pos[1]), 48, 160f, 350, 6f, starFlash);
 		for (int xx = xMin; xx <= xMax; xx++) {
 			for (int yy = yMin; yy <= yMax; yy++) {
 				if (grid[xx].blocks[yy] == null) { continue; }
@@ -1004,58 +1152,48 @@ public class BlockBreakLevel {
 	/** @author Brock */
 	protected void pauseControls() {
 		if (inputDelay <= 0) {
-			if (Global.getControlActive(Global.GameControl.UP)) {
+			if (InputQueue.take(Global.GameControl.UP)) {
 				pauseCursorPos--;
 				if (pauseCursorPos < 0) {
 						pauseCursorPos = 1;
 				}
-				inputDelay = Global.inputReadDelayTimer * 2;
 			}
-			if (Global.getControlActive(Global.GameControl.DOWN)) {
+			if (InputQueue.take(Global.GameControl.DOWN)) {
 				pauseCursorPos++;
 				if (pauseCursorPos > 1) {
 					pauseCursorPos = 0;
 				}
-				inputDelay = Global.inputReadDelayTimer * 2;
 			}
-			if (Global.getControlActive(Global.GameControl.CANCEL)) { // Cancel key moves the cursor to the program exit button
+			if (InputQueue.takePress(Global.GameControl.CANCEL)) { // Cancel key moves the cursor to the program exit button
 				gamePaused = false;
-				inputDelay = Global.inputReadDelayTimer * 2;
 			}
-			if (Global.getControlActive(Global.GameControl.PAUSE)) { // Cancel key moves the cursor to the program exit button
+			if (InputQueue.takePress(Global.GameControl.PAUSE)) { // Cancel key moves the cursor to the program exit button
 				gamePaused = false;
-				inputDelay = Global.inputReadDelayTimer * 2;		
 			}
-			if (Global.getControlActive(Global.GameControl.SELECT)) {
+			if (InputQueue.takePress(Global.GameControl.SELECT)) {
 				switch (pauseCursorPos) {
 					case 0:
 						gamePaused = false;
-						inputDelay = Global.inputReadDelayTimer;	
 						break;
 					case 1:
 						levelFinished = true;
 						gameOver = true;
-						inputDelay = Global.inputReadDelayTimer;	
 						break;
 				}
 			}
-		} else if (inputDelay > 0) {
-			inputDelay -= Global.delta;
 		}
 	}
 	
 	/** @author Mario */
 	protected void gameOverControls() {
 		if (inputDelay <= 0) {
-			if (Global.getControlActive(Global.GameControl.LEFT) || Global.getControlActive(Global.GameControl.DOWN)) {
+			if (InputQueue.take(Global.GameControl.LEFT) || InputQueue.take(Global.GameControl.DOWN)) {
 				pauseCursorPos = pauseCursorPos == 0 ? 1 : 0;
-				inputDelay = Global.inputReadDelayTimer * 2;
 			}
-			if (Global.getControlActive(Global.GameControl.RIGHT) || Global.getControlActive(Global.GameControl.DOWN)) {
+			if (InputQueue.take(Global.GameControl.RIGHT) || InputQueue.take(Global.GameControl.DOWN)) {
 				pauseCursorPos = pauseCursorPos == 0 ? 1 : 0;
-				inputDelay = Global.inputReadDelayTimer * 2;
 			}
-			if (Global.getControlActive(Global.GameControl.SELECT)) {
+			if (InputQueue.takePress(Global.GameControl.SELECT)) {
 				switch (pauseCursorPos) {
 					case 0:
 						gameOver = false;
@@ -1070,29 +1208,25 @@ public class BlockBreakLevel {
 						break;
 				}
 			}
-		} else if (inputDelay > 0) {
-			inputDelay -= Global.delta;
 		}
 	}
 	
 	/** @author Mario */
 	protected void levelFinishedControls() {
 		if (inputDelay <= 0) {
-			if (Global.getControlActive(Global.GameControl.UP)) {
+			if (InputQueue.take(Global.GameControl.UP)) {
 				pauseCursorPos--;
 				if (pauseCursorPos < 0) {
 					pauseCursorPos = 1;
 				}
-				inputDelay = Global.inputReadDelayTimer * 2;
 			}
-			if (Global.getControlActive(Global.GameControl.DOWN)) {
+			if (InputQueue.take(Global.GameControl.DOWN)) {
 				pauseCursorPos++;
 				if (pauseCursorPos > 1) {
 					pauseCursorPos = 0;
 				}
-				inputDelay = Global.inputReadDelayTimer * 2;
 			}
-			if (Global.getControlActive(Global.GameControl.SELECT)) {
+			if (InputQueue.takePress(Global.GameControl.SELECT)) {
 				switch (pauseCursorPos) {
 					case 0:
 						levelFinished = true;
@@ -1107,8 +1241,6 @@ public class BlockBreakLevel {
 						break;
 				}
 			}
-		} else if (inputDelay > 0) {
-			inputDelay -= Global.delta;
 		}
 	}
 
@@ -1117,77 +1249,64 @@ public class BlockBreakLevel {
 	 * @author John
 	 */
 	protected void checkCommonControls() {
-		if (Global.getControlActive(Global.GameControl.PAUSE)) {
+		if (InputQueue.takePress(Global.GameControl.PAUSE)) {
 			pauseCursorPos = 0;
 			gamePaused = true;
-			inputDelay = 1000l;
+			LevelSession.save(this);
 		} else if (Global.getControlActive(Global.GameControl.SPECIAL2)) {
 			// queue control
 			queueHold = true;
-			if ( queueManualShiftDelay <= 0) {
-				if (Global.getControlActive(Global.GameControl.LEFT)) {
-					// shift queue left
-					shiftQueue(-1);
-					queueManualShiftDelay = queueManualShiftDelayTimer;
-				} else if (Global.getControlActive(Global.GameControl.RIGHT)) {
-					// shift queue right
-					shiftQueue(1);
-					queueManualShiftDelay = queueManualShiftDelayTimer;
-				} else if (Global.getControlActive(Global.GameControl.DOWN)) {
-					// drop (add to grid) queue
-					int overflow = addToGrid();
-					updateScore( overflow * -10 );
-					queueManualShiftDelay = queueManualShiftDelayTimer;
-				}
+			if (InputQueue.take(Global.GameControl.LEFT)) {
+				// shift queue left
+				shiftQueue(-1);
+			} else if (InputQueue.take(Global.GameControl.RIGHT)) {
+				// shift queue right
+				shiftQueue(1);
+			} else if (InputQueue.take(Global.GameControl.DOWN)) {
+				// drop (add to grid) queue
+				int overflow = addToGrid();
+				updateScore( overflow * -10 );
 			}
 		} else {
 			queueHold = false;
 			// cursor control
-			if (Global.getControlActive(Global.GameControl.SPECIAL1) && gridShiftActionDelay <= 0) {
+			if (gridShiftActionDelay <= 0 && InputQueue.takePress(Global.GameControl.SPECIAL1)) {
 				gridShiftActionDelay = gridShiftActionDelayTimer;
 				blocksMoving = true;
 				gridShiftDir *= -1;
 			}
-			if (Global.getControlActive(Global.GameControl.UP)) {
+			if (InputQueue.take(Global.GameControl.UP)) {
 				cursorGridPos[1]++;
 				if (cursorGridPos[1] >= grid[0].blocks.length) {
 					cursorGridPos[1] = grid[0].blocks.length - 1;
 				}
-				inputDelay = Global.inputReadDelayTimer;
 			} else
-			if (Global.getControlActive(Global.GameControl.DOWN)) {
+			if (InputQueue.take(Global.GameControl.DOWN)) {
 				if (cursorGridPos[1] > 0) {
 					cursorGridPos[1]--;
 				}
-				inputDelay = Global.inputReadDelayTimer;
 			} 
-			if (Global.getControlActive(Global.GameControl.LEFT)) {
+			if (InputQueue.take(Global.GameControl.LEFT)) {
 				if (cursorGridPos[0] > 0) {
 					cursorGridPos[0]--;
 				}
-				inputDelay = Global.inputReadDelayTimer;
 			} else
-			if (Global.getControlActive(Global.GameControl.RIGHT)) {
+			if (InputQueue.take(Global.GameControl.RIGHT)) {
 				cursorGridPos[0]++;
 				if (cursorGridPos[0] >= grid.length) {
 					cursorGridPos[0] = grid.length - 1;
 				}
-				inputDelay = Global.inputReadDelayTimer;
 			}
-			if (actionDelay <= 0) {
-				if ((!blocksMoving || !Global.waitForGridMovement) &&
-						Global.getControlActive(Global.GameControl.SELECT) &&
-						grid[cursorGridPos[0]].blocks[cursorGridPos[1]] != null) {
-					int counter = processActivate();
-					if (counter > 1 
-							|| grid[cursorGridPos[0]].blocks[cursorGridPos[1]].type == Block.BlockType.BOMB
-							|| grid[cursorGridPos[0]].blocks[cursorGridPos[1]].type == Block.BlockType.STAR ) {
-						// decrease the blocksRemaining counter after blocks are cleared
-						removeMarkedBlocks();
-					}
-					if (actionDelay < Global.inputReadDelayTimer) {
-						actionDelay = Global.inputReadDelayTimer;
-					}
+			// holding select keeps activating, at the repeat rate
+			if ((!blocksMoving || !Global.waitForGridMovement) &&
+					grid[cursorGridPos[0]].blocks[cursorGridPos[1]] != null &&
+					InputQueue.take(Global.GameControl.SELECT)) {
+				int counter = processActivate();
+				if (counter > 1 
+						|| grid[cursorGridPos[0]].blocks[cursorGridPos[1]].type == Block.BlockType.BOMB
+						|| grid[cursorGridPos[0]].blocks[cursorGridPos[1]].type == Block.BlockType.STAR ) {
+					// decrease the blocksRemaining counter after blocks are cleared
+					removeMarkedBlocks();
 				}
 			}
 		}
@@ -1197,9 +1316,23 @@ public class BlockBreakLevel {
 	 * @author John
 	 */
 	protected final void removeMarkedBlocks() {
+		// share the free particles between the cleared blocks so a large clear does not fill the pool early
+		int marked = 0;
+		for (int xc = 0; xc < grid.length; xc++) {
+			for (int yc = 0; yc < grid[0].blocks.length; yc++) {
+				if (grid[xc].blocks[yc] != null && grid[xc].blocks[yc].clearMark) { marked++; }
+			}
+		}
+		int particles = marked == 0 ? 0 : ParticleSystem.getFree() / marked;
+		if (particles > clearParticles) { particles = clearParticles; }
+		else if (particles < clearParticlesMin) { particles = clearParticlesMin; }
+		
 		for (int xc = 0; xc < grid.length; xc++) {
 			for (int yc = 0; yc < grid[0].blocks.length; yc++) {
 				if (grid[xc].blocks[yc] != null && grid[xc].blocks[yc].clearMark) {
+					ParticleSystem.burst(getBlockCenterX(xc, yc), getBlockCenterY(xc, yc), particles, 240f, 700, 8f,
+							grid[xc].blocks[yc].type == Block.BlockType.BLOCK
+								? Block.particleColor[grid[xc].blocks[yc].colorID] : Color.white);
 					if (grid[xc].blocks[yc].type == Block.BlockType.BLOCK) {
 						int cid = grid[xc].blocks[yc].colorID;
 						blockCounts[cid]--;
@@ -1216,6 +1349,27 @@ public class BlockBreakLevel {
 		}
 	}
 
+	/** @return The screen x coordinate of the center of a grid position, including column shift. */
+	protected float getBlockCenterX(int xc, int yc) {
+		return gridBasePos[0] + blockSize[0] * xc + blockSize[0] / 2
+				+ (grid[xc].blocks[yc] != null && grid[xc].blocks[yc].type == Block.BlockType.WEDGE ? 0 : grid[xc].columnOffset);
+	}
+	
+	/** @return The screen y coordinate of the center of a grid position, including drop distance. */
+	protected float getBlockCenterY(int xc, int yc) {
+		return gridBasePos[1] - blockSize[1] * yc + blockSize[1] / 2
+				+ (grid[xc].blocks[yc] != null ? grid[xc].blocks[yc].dropDistance : 0);
+	}
+	
+	/**
+	 * Updates and draws the particle effects. Called after <code>SpriteBatch.flush()</code> so the
+	 * particles are drawn over the grid.
+	 */
+	protected void drawParticles() {
+		ParticleSystem.update(Global.delta);
+		ParticleSystem.draw();
+	}
+
 	/**
 	 * Adds blocks in queue to the grid at the top level. Returns the number of blocks 
 	 * that could not be added (such as when the column is already full). 
@@ -1292,13 +1446,11 @@ public class BlockBreakLevel {
 				break;
 			case HEART:
 				heartSpecialActive = true;
-				actionDelay = Global.inputReadDelayTimer * 3;
 				addEnergy(energyMax / 10); // regenerate 10% of max energy on use
 				break;
 			case STAR:
 				counter = activateStarBlock(cursorGridPos, false);
 				if (counter > 0) {
-					actionDelay = Global.inputReadDelayTimer;
 					updateScore(50);
 				}
 				break;
@@ -1432,7 +1584,7 @@ public class BlockBreakLevel {
 		int offset = 0;
 		for (int i = 0; i < queue.length; i++) {
 			if (queue[i] != null) {
-				queue[i].draw(anchorPos[0] + offset, anchorPos[1], blockSize);
+				queue[i].queue(anchorPos[0] + offset, anchorPos[1], blockSize);
 			}
 			offset += blockSize[0];
 		}
@@ -1520,6 +1672,11 @@ public class BlockBreakLevel {
 		// mark center bomb as cleared to prevent recursive calls to already activated bomb blocks
 		grid[pos[0]].blocks[pos[1]].clearMark = true;
 		count++;
+		// shock wave sized to reach the edge of the blast radius
+		ParticleSystem.ring(getBlockCenterX(pos[0], pos[1]), getBlockCenterY(pos[0], pos[1]),
+				48 * radius, blockSize[0] * radius * 2.5f, 400, 10f, bombFlash);
+		// a chain of bombs in one frame is played as a single explosion by the voice pool
+		Global.sounds.playSoundEffect("explo", SoundVoicePool.PRIORITY_HIGH);
 		for (int i = xMin; i <= xMax; i++) {
 			for (int k = yMin; k <= yMax; k++) {
 				dist = Math.abs(i - pos[0]) + Math.abs(k - pos[1]) - flex;
@@ -1566,56 +1723,47 @@ public class BlockBreakLevel {
 	 * @author Brock
 	 */
 	protected void heartMenuControls() {
-		//actionDelay = Global.inputReadDelayTimer * 2;
-		if (actionDelay <= 0) {
-			if (Global.getControlActive(Global.GameControl.LEFT)) {
-				heartCursorPos--;
-				if (heartCursorPos < 0) {
-					heartCursorPos = 5;
-				}
-				actionDelay = Global.inputReadDelayTimer * 2;
+		if (InputQueue.take(Global.GameControl.LEFT)) {
+			heartCursorPos--;
+			if (heartCursorPos < 0) {
+				heartCursorPos = 5;
 			}
-			if (Global.getControlActive(Global.GameControl.RIGHT)) {
-				heartCursorPos++;
-				if (heartCursorPos > 5) {
-					heartCursorPos = 0;
-				}
-				actionDelay = Global.inputReadDelayTimer * 2;
+		}
+		if (InputQueue.take(Global.GameControl.RIGHT)) {
+			heartCursorPos++;
+			if (heartCursorPos > 5) {
+				heartCursorPos = 0;
 			}
-			if (Global.getControlActive(Global.GameControl.CANCEL)) {
-				heartSpecialActive = true;
-				actionDelay = Global.inputReadDelayTimer * 2;
+		}
+		if (InputQueue.takePress(Global.GameControl.CANCEL)) {
+			heartSpecialActive = true;
 	
-			}
-			if (Global.getControlActive(Global.GameControl.SELECT)) {
-				switch(heartCursorPos) {
-					case 0:
-						heartSelectColor = 0;
-						break;
-					case 1:
-						heartSelectColor = 1;
-						break;
-					case 2:
-						heartSelectColor = 2;
-						break;
-					case 3:
-						heartSelectColor = 3;
-						break;
-					case 4:
-						heartSelectColor = 4;
-						break;
-					case 5:
-						heartSelectColor = 5;
-						break;
-					default:
-							break;
-				}
-				clearColor = true;
-				actionDelay = Global.inputReadDelayTimer * 2;
-			}  
-		} else {
-			actionDelay -= Global.delta;
 		}
+		if (InputQueue.takePress(Global.GameControl.SELECT)) {
+			switch(heartCursorPos) {
+				case 0:
+					heartSelectColor = 0;
+					break;
+				case 1:
+					heartSelectColor = 1;
+					break;
+				case 2:
+					heartSelectColor = 2;
+					break;
+				case 3:
+					heartSelectColor = 3;
+					break;
+				case 4:
+					heartSelectColor = 4;
+					break;
+				case 5:
+					heartSelectColor = 5;
+					break;
+				default:
+						break;
+			}
+			clearColor = true;
+		}  
 	}
 	
 	/**
@@ -1625,6 +1773,7 @@ public class BlockBreakLevel {
 	protected int activateHeartBlock(int pos[]) {
 		int count = 0;
 		grid[pos[0]].blocks[pos[1]].clearMark = true;
+		ParticleSystem.ring(getBlockCenterX(pos[0], pos[1]), getBlockCenterY(pos[0], pos[1]), 96, 600f, 600, 8f, heartFlash);
 		
 		for (int i = 0; i < grid.length; i++) {
 			for (int j = 0; j < grid[0].blocks.length; j++) {
@@ -1648,6 +1797,9 @@ public class BlockBreakLevel {
 		}
 	}
 	
+	/** Extra wedges are reported on every recount, so the report is limited. */
+	private static final GameLog.Limiter wedgeLog = new GameLog.Limiter(GameLog.Level.WARN, true, 5000);
+	
 	protected void setGridCounts() {
 		
 		for (int i = 0; i < blockCounts.length; i++) {
@@ -1662,7 +1814,9 @@ public class BlockBreakLevel {
 						blockCounts[grid[x].blocks[y].colorID]++;
 					} else if (grid[x].blocks[y].type == Block.BlockType.WEDGE) {
 						if (wedgePos[0] >= 0 && !(wedgePos[0] == x && wedgePos[1] == y )) {
-							Global.writeToLog("Too many wedge blocks! Additional wedges will be converted to TRASH type.", true);
+							if (wedgeLog.ready()) {
+								wedgeLog.log("Too many wedge blocks! Additional wedges will be converted to TRASH type.");
+							}
 							grid[x].blocks[y] = new Block(Block.BlockType.TRASH);
 						} else {
 							wedgePos = new int[] { x, y };
@@ -1,11 +1,6 @@
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.zip.DataFormatException;
@@ -16,20 +11,22 @@ import org.lwjgl.input.Keyboard;
 import org.newdawn.slick.Color;
 import org.newdawn.slick.opengl.Texture;
 import org.newdawn.slick.opengl.TextureImpl;
-import org.newdawn.slick.opengl.TextureLoader;
-import org.newdawn.slick.util.ResourceLoader;
 
 public class BlockBreakStandard implements GameMode {
-	protected LoadState currentState = LoadState.NOT_LOADED;
+	protected volatile LoadState currentState = LoadState.NOT_LOADED;
+	/** Loader holding this mode's textures, also used for the load progress. */
+	private volatile AssetLoader assetLoader = null;
+	/** Portion of the load progress used by textures. */
+	private static final float textureLoadShare = 0.9f;
 	protected HashMap<String, Texture> localTexMap = new HashMap<String, Texture>(10);
 	protected int cursorPos = 0;
 	//protected long inputDelay = Global.inputReadDelayTimer;
 	private BlockBreakLevel playLevel;
+	/** Level in progress saved at the last exit, read while loading and resumed on the first frame. */
+	private volatile LevelSession.Snapshot resumeSession = null;
 
 	// Level variables. These may be moved/removed if level play is moved to separated class object.
 	protected int[] blockOffSet = new int[] { 32, 32 };
-	private long movementInputDelay = Global.inputReadDelayTimer;
-	private long actionDelay = Global.inputReadDelayTimer;
 	
 	private boolean pageBack = false;
 	/** The current game mode within the main logic loop. */
@@ -70,7 +67,6 @@ public class BlockBreakStandard implements GameMode {
 	
 	private boolean newHighScore = false;
 	private String hsNameEntry = "";
-	private boolean preClearComplete = false;
 
 	
 	public BlockBreakStandard() {
@@ -79,9 +75,6 @@ public class BlockBreakStandard implements GameMode {
 		for (int i = 0; i < menuOptions.length; i++) {
 			menuOptionOffset[i] = Global.getFont24DrawSize(menuOptions[i]) / 2;
 		}
-		for (int i = 0; i < 10; i++) {
-			hsRecords.add(HighScoreRecord.getNewEmptyRecord());
-		}
 	}
 	
 	@Override
@@ -89,28 +82,14 @@ public class BlockBreakStandard implements GameMode {
 		// This should always be the first line
 		currentState = LoadState.LOADING_ASSETS;
 		// TODO Auto-generated method stub
-		Texture tex;
-		String type; // holds file type extension
-		String source; // absolute file path to resource
-		for (String ref[] : texLoadList) {
-			// Load local textures
-			type = ref[1].substring(ref[1].lastIndexOf('.')).toUpperCase();
-			tex = null;
-			source = ref[1];
-			 try {
-				 source = FileResource.requestResource(ref[1]);
-				 tex = TextureLoader.getTexture(type, ResourceLoader.getResourceAsStream(ref[1]));
-				 if ( localTexMap.putIfAbsent(ref[0], tex) != null) {
-					 // report error, attempting to add duplicate key entry
-					 Global.writeToLog(String.format("Attempting to load multiple textures to key [%s]", ref[0]));
-					 Global.writeToLog(String.format("Texture resource [%s] not loaded.", ref[1]) );
-				 }
-				 localTexMap.put(source, tex);
-			 } catch (IOException e) {
-				 Global.writeToLog(String.format("Unable to load texture resource %s\n", source) );
-				 e.printStackTrace();
-				 System.exit(-1);
-			 }
+		// Load local textures through the shared cache, missing files are decoded in parallel
+		try {
+			assetLoader = new AssetLoader(texLoadList, localTexMap);
+			assetLoader.finish();
+		} catch (IOException e) {
+			GameLog.error("Unable to load texture resource: %s", e.getMessage());
+			e.printStackTrace();
+			System.exit(-1);
 		}
 // author Brock
 		//moveClick = new GameSounds(GameSounds.soundType.SOUND, "media/click3.ogg");
@@ -163,6 +142,7 @@ public class BlockBreakStandard implements GameMode {
 		hsBack = localTexMap.get("bigsky");
 		
 		loadPrefs();
+		resumeSession = LevelSession.read(BlockBreakLevel.SESSION_FILE);
 
 		// Update mode state when asset loading is completed
 		currentState = LoadState.LOADING_DONE;
@@ -173,30 +153,42 @@ public class BlockBreakStandard implements GameMode {
 	public LoadState getState() {
 		return currentState;
 	}
+	
+	@Override
+	public float getLoadProgress() {
+		if (currentState == LoadState.NOT_LOADED) { return 0f; }
+		AssetLoader loader = assetLoader;
+		if (loader != null && !loader.isDone()) { return loader.getProgress() * textureLoadShare; }
+		return currentState == LoadState.LOADING_ASSETS ? textureLoadShare : 1f;
+	}
 
 	@Override
 	public void run() {
 		currentState = LoadState.READY;
 		
+		if (resumeSession != null) {
+			if (resumeSession.level >= 1 && resumeSession.level <= pracMax) {
+				playLevel = new BlockBreakLevel(resumeSession.level);
+				if (!LevelSession.restore(playLevel, resumeSession)) { playLevel = null; }
+			}
+			resumeSession = null;
+		}
+		
 		if (playLevel != null) {
 			if (!playLevel.levelFinished) {
 				playLevel.run();
 			} else if (playLevel.level == 0) { 
 				playLevel = null;
 			} else {
+				LevelSession.end(playLevel);
 				if (maxUnlocked < playLevel.level) { maxUnlocked = playLevel.level; }
+				// the store writes in the background, so progress is kept even if the window is closed
+				savePrefs();
 				if (playLevel.gameOver || playLevel.practice || playLevel.level == this.pracMax) {
-					movementInputDelay = Global.inputReadDelayTimer;
-					if (!playLevel.practice) {
-						for (int i = 9; i >= 0; i--) {
-							if (hsRecords.get(i).getScore() < BlockBreakLevel.score) {
-								newHighScore = true;
-								showHighScore = true;
-								hsNameEntry = "";
-								preClearComplete = false;
-								break;
-							}
-						}
+					if (!playLevel.practice && BlockBreakLevel.score > 0 && scoreBoard.rank(BlockBreakLevel.score) <= hsShown) {
+						newHighScore = true;
+						showHighScore = true;
+						hsNameEntry = "";
 					}
 					lastLevel = playLevel.level;
 					playLevel = null;
@@ -207,45 +199,34 @@ public class BlockBreakStandard implements GameMode {
 		} else if (showHighScore) {
 			showHighScores();
 			if (newHighScore) {
-				if (!preClearComplete) {
-					int c = Keyboard.getNumKeyboardEvents();
-					if (c > 0) {
-						while (Keyboard.next()) {
-							c = Keyboard.getEventKey();
+				// keys pressed while playing were read in earlier frames, so only typing shows here
+				while (newHighScore && InputQueue.nextKey()) {
+					if (!InputQueue.getEventKeyState()) { continue; }
+					int key = InputQueue.getEventKey();
+					char c = InputQueue.getEventCharacter();
+					
+					if (key == Keyboard.KEY_RETURN) {
+						scoreBoard.add(
+							new HighScoreRecord(
+								hsNameEntry,
+								LocalDateTime.now(),
+								BlockBreakLevel.score,
+								lastLevel
+							)
+						);
+						hsRecords = scoreBoard.top(hsShown);
+						newHighScore = false;
+					} else if (key == Keyboard.KEY_BACK) {
+						if (hsNameEntry.length() > 0) {
+							hsNameEntry = hsNameEntry.substring(0, hsNameEntry.length() - 1);
 						}
-					} else {
-						preClearComplete = true;
-					}
-				} else if (Keyboard.isKeyDown(Keyboard.KEY_RETURN)) {
-					hsRecords.add(
-						new HighScoreRecord(
-							hsNameEntry,
-							LocalDateTime.now(),
-							BlockBreakLevel.score,
-							lastLevel
-						)
-					);
-					Collections.sort(hsRecords);
-					while (hsRecords.size() > 10) {
-						hsRecords.remove(10);
-					}
-					newHighScore = false;
-				} else if (Keyboard.isKeyDown(Keyboard.KEY_BACK)) {
-					if (hsNameEntry.length() > 0) {
-						hsNameEntry = hsNameEntry.substring(0, hsNameEntry.length() - 1);
-					}
-				} else {
-					while (Keyboard.next()) {
-						char c = Keyboard.getEventCharacter();
-						
-						if (hsNameEntry.length() > 40) {
-							// do nothing
-						} else if (Character.isLetter(c)) {
-							hsNameEntry += Character.toUpperCase(c);
-						} else if (Character.isSpaceChar(c)) {
-							hsNameEntry += ' ';
-						} 
-					}
+					} else if (hsNameEntry.length() > 40) {
+						// do nothing
+					} else if (Character.isLetter(c)) {
+						hsNameEntry += Character.toUpperCase(c);
+					} else if (Character.isSpaceChar(c)) {
+						hsNameEntry += ' ';
+					} 
 				}
 				Global.uiBlue.draw(256, 256, 512, 376);
 				Global.drawFont24(276, 276, "Level: " + Integer.toString(lastLevel), Color.white);
@@ -254,11 +235,8 @@ public class BlockBreakStandard implements GameMode {
 				Global.uiBlueSel.draw(276, 360, 472, 48);
 				Global.drawFont24(282, 386, hsNameEntry + '_', Color.black);
 				
-			} else if (movementInputDelay <= 0 && Global.getControlActive(Global.GameControl.CANCEL)) {
-				movementInputDelay = 2 * Global.inputReadDelayTimer;
+			} else if (InputQueue.takePress(Global.GameControl.CANCEL)) {
 				showHighScore = false;
-			} else {
-				movementInputDelay -= Global.delta;
 			}
 			
 		} else {
@@ -303,8 +281,10 @@ public class BlockBreakStandard implements GameMode {
 	@Override
 	public void cleanup() {
 		// TODO Auto-generated method stub
-		for (Texture ref : localTexMap.values()) {
-			ref.release();
+		// textures stay in the shared cache for other modes and the next visit
+		if (assetLoader != null) {
+			assetLoader.release();
+			assetLoader = null;
 		}
 		localTexMap.clear();
 		savePrefs();
@@ -318,84 +298,73 @@ public class BlockBreakStandard implements GameMode {
 	 * @author Brock
 	 */
 	private void moveCursorMain() {
-		if (movementInputDelay <= 0) {
-			if (Global.getControlActive(Global.GameControl.UP)) {
-				cursorPos--;
-				Global.sounds.playSoundEffect("button_click");
-				if (cursorPos < 0) {
-					
-					cursorPos = 3;
-				}
-				movementInputDelay = Global.inputReadDelayTimer;
-			}
-			if (Global.getControlActive(Global.GameControl.DOWN)) {
-				cursorPos++;
-				Global.sounds.playSoundEffect("button_click");
-
-				if (cursorPos > 3) {
-					cursorPos = 0;
-				}
-				movementInputDelay = Global.inputReadDelayTimer;
-			}
-			if (Global.getControlActive(Global.GameControl.CANCEL)) { // Cancel key moves the cursor to the program exit button
+		if (InputQueue.take(Global.GameControl.UP)) {
+			cursorPos--;
+			Global.sounds.playSoundEffect("button_click");
+			if (cursorPos < 0) {
+				
 				cursorPos = 3;
 			}
-			if (cursorPos == 1) { // practice selected, not confirmed
-				inputPracMenu();
+		}
+		if (InputQueue.take(Global.GameControl.DOWN)) {
+			cursorPos++;
+			Global.sounds.playSoundEffect("button_click");
+
+			if (cursorPos > 3) {
+				cursorPos = 0;
 			}
-			if (Global.getControlActive(Global.GameControl.SELECT)) {
-				switch (cursorPos) {
-					case 0: // normal mode
-						if (Global.getControlActive(Global.GameControl.LEFT)) {
-							playLevel = new BlockStandardLevelBuilder(-1);
-							playLevel.levelTitle = "Build Mode";
-						} else {
-							loadLevel(1);
-						}
-						BlockBreakLevel.score = 0;
-						//activeGameMode = BlockMatchStandard;
-						break;
-					case 1: // practice mode
-						if (pracLevel > maxUnlocked) { break; }
-						loadLevel(pracLevel);
-						playLevel.practice = true;
-						movementInputDelay = Global.inputReadDelayTimer;
-						BlockBreakLevel.score = 0;
-						//selectPractice = true;
-						break;
-					case 2: // high score
-						showHighScore = true;
-						newHighScore = false;
-						break;
-					case 3: // exit
-					default:
-						pageBack = true;
-						break;
-				}
-				movementInputDelay = 2 * Global.inputReadDelayTimer;
+		}
+		if (InputQueue.takePress(Global.GameControl.CANCEL)) { // Cancel key moves the cursor to the program exit button
+			cursorPos = 3;
+		}
+		if (cursorPos == 1) { // practice selected, not confirmed
+			inputPracMenu();
+		}
+		if (InputQueue.takePress(Global.GameControl.SELECT)) {
+			switch (cursorPos) {
+				case 0: // normal mode
+					if (Global.getControlActive(Global.GameControl.LEFT)) {
+						playLevel = new BlockStandardLevelBuilder(-1);
+						playLevel.levelTitle = "Build Mode";
+					} else {
+						loadLevel(1);
+					}
+					BlockBreakLevel.score = 0;
+					//activeGameMode = BlockMatchStandard;
+					break;
+				case 1: // practice mode
+					if (pracLevel > maxUnlocked) { break; }
+					loadLevel(pracLevel);
+					playLevel.practice = true;
+					BlockBreakLevel.score = 0;
+					//selectPractice = true;
+					break;
+				case 2: // high score
+					showHighScore = true;
+					newHighScore = false;
+					break;
+				case 3: // exit
+				default:
+					pageBack = true;
+					break;
 			}
-		} else if (movementInputDelay > 0) {
-			movementInputDelay -= Global.delta;
 		}
 	}
 	
 	private void loadLevel(int levelID) {
 		playLevel = new BlockBreakLevel(levelID);
+		LevelSession.setActive(playLevel);
 	}
 		
 	private void inputPracMenu() {
-		movementInputDelay -= Global.delta;
-		if (movementInputDelay > 0) { return; }
-		if (Global.getControlActive(Global.GameControl.LEFT)) {
+		if (InputQueue.take(Global.GameControl.LEFT)) {
 			pracLevel--;
 			Global.sounds.playSoundEffect("button_click"); //Mario
 			if (pracLevel < 1) { pracLevel = pracMax; }
-			movementInputDelay = Global.inputReadDelayTimer;
-		} else if (Global.getControlActive(Global.GameControl.RIGHT)) {
+		} else if (InputQueue.take(Global.GameControl.RIGHT)) {
 			pracLevel++;
 			Global.sounds.playSoundEffect("button_click"); //Mario
 			if (pracLevel > pracMax) { pracLevel = 1; }
-			movementInputDelay = Global.inputReadDelayTimer;
 		} 		
 	}
 
@@ -419,7 +388,14 @@ public class BlockBreakStandard implements GameMode {
 	private final int hsBarSpace = 10;
 	private final int hsBarHeight = 48;
 	private final int hsMargin = 30;
-	private List<HighScoreRecord> hsRecords = new ArrayList<HighScoreRecord>(10);
+	/** Scores of whole games, each started from level 1. */
+	private final Leaderboard scoreBoard = Leaderboard.get("standard", 0, 0);
+	/** Number of scores shown on the high score screen. */
+	private final int hsShown = 10;
+	/** The scores shown, read from <code>scoreBoard</code> when it changes. */
+	private List<HighScoreRecord> hsRecords = new ArrayList<HighScoreRecord>(hsShown);
+	/** Drawn in the places that have no score yet. */
+	private final HighScoreRecord emptyRecord = HighScoreRecord.getNewEmptyRecord();
 	private Texture hsBack;
 	private int[] hsBackShift = new int[] { 1, 0 };
 	private float[] hsBackDraw = new float[] { 1024 / 4096f, 768 / 1024f };
@@ -428,7 +404,7 @@ public class BlockBreakStandard implements GameMode {
 		int drawWidth = 1024 - 2 * hsMargin;
 		int interval = hsBarHeight + hsBarSpace;
 		int firstDrop = 100;
-		int limit = 10;
+		int limit = hsShown;
 		
 		if (hsBackShift[0] == 1) {
 			hsBackShift[1] += Global.delta >> 4;
@@ -471,7 +447,7 @@ public class BlockBreakStandard implements GameMode {
 		HighScoreRecord hsr;
 		int scoreOff = 0;
 		for (int i = 0; i < limit; i++) {
-			hsr = hsRecords.get(i);
+			hsr = i < hsRecords.size() ? hsRecords.get(i) : emptyRecord;
 			boxColor.bind();
 			Global.uiTransWhite.draw(hsMargin, firstDrop + i * interval, drawWidth, hsBarHeight);
 			resetColor.bind();
@@ -490,74 +466,33 @@ public class BlockBreakStandard implements GameMode {
 	}
 	
 	/**
-	 * Load custom values and high scores from file. Loads default values for
-	 * high scores if data is not present or corrupted.
+	 * Load custom values from the settings store and the high scores from the leaderboard. High scores
+	 * kept in the settings store by older versions are moved to the leaderboard.
 	 */
 	private void loadPrefs() {
-		BufferedReader prefFile;
-		String line;
 		HighScoreRecord hsr;
-
-		try {
-			prefFile = new BufferedReader(new FileReader("standard.pref"));
-			line = prefFile.readLine();
-			while (line != null) {
-				if (line.compareToIgnoreCase("[HighScore]") == 0) {
-					try {
-						line = prefFile.readLine();
-						while (line != null) {
-							hsr = HighScoreRecord.getNewEmptyRecord();
-							hsr.readRecord(line);
-							hsRecords.add(hsr);
-							line = prefFile.readLine();
-						}
-					} catch (DataFormatException dfe) {
-						continue;
-					}
-				} else if (line.compareToIgnoreCase("[TopLevel]") == 0) {
-					line = prefFile.readLine();
-					try {
-						maxUnlocked = Integer.parseInt(line);
-					} catch (NumberFormatException nfe) {
-						maxUnlocked = 1;
-					}
-				}
-				line = prefFile.readLine();
-			}
-			prefFile.close();
-		} catch (IOException err) {
-			
-		} finally {
-			Collections.sort(hsRecords);
-			while (hsRecords.size() > 10) {
-				hsRecords.remove(10);
+		String record;
+		maxUnlocked = SettingsStore.getInt("standard.maxUnlocked", 1);
+		Leaderboard.load();
+		for (int i = 0; (record = SettingsStore.getString("standard.highScore." + i, null)) != null; i++) {
+			try {
+				hsr = HighScoreRecord.getNewEmptyRecord();
+				hsr.readRecord(record);
+				// the old list was padded to ten with empty records, which are not scores
+				if (!hsr.isEmptyRecord()) { scoreBoard.add(hsr); }
+			} catch (DataFormatException dfe) {
+				Global.writeToLog(String.format("Dropping unreadable high score: %s", record), true);
 			}
+			SettingsStore.remove("standard.highScore." + i);
 		}
-		
+		hsRecords = scoreBoard.top(hsShown);
 	}
 	
 	/** 
-	 * Saves custom values and high scores to file.
+	 * Saves custom values to the settings store. High scores are saved by the leaderboard as they are added.
 	 */
 	private void savePrefs() {
-		try {
-			BufferedWriter prefFile = new BufferedWriter(new FileWriter("standard.pref"));
-			prefFile.write("[TopLevel]");
-			prefFile.newLine();
-			prefFile.write(Integer.toString(maxUnlocked));
-			prefFile.newLine();
-			prefFile.write("[HighScore]");
-			prefFile.newLine();
-			for(HighScoreRecord hsr : hsRecords) {
-				prefFile.write(hsr.toString());
-				prefFile.newLine();
-			}
-			prefFile.close();
-		} catch (IOException e) {
-			Global.writeToLog("Error opening Standard mode preferences file for writing.", true);
-			e.printStackTrace();
-		}
-		
+		SettingsStore.putInt("standard.maxUnlocked", maxUnlocked);
 	}
 	
 }
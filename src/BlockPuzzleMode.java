@@ -1,7 +1,3 @@
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
@@ -16,26 +12,30 @@ import org.lwjgl.input.Keyboard;
 import org.newdawn.slick.Color;
 import org.newdawn.slick.opengl.Texture;
 import org.newdawn.slick.opengl.TextureImpl;
-import org.newdawn.slick.opengl.TextureLoader;
-import org.newdawn.slick.util.ResourceLoader;
 
 /*
  * @Author Brock
  */
 
 public class BlockPuzzleMode implements GameMode {
-	protected LoadState currentState = LoadState.NOT_LOADED;
-	protected static HashMap<String, Texture> localTexMap = new HashMap<String, Texture>(10);
+	protected volatile LoadState currentState = LoadState.NOT_LOADED;
+	/** Loader holding this mode's textures, also used for the load progress. */
+	private volatile AssetLoader assetLoader = null;
+	/** Load progress once textures are loaded. */
+	private volatile float loadProgress = 0f;
+	/** Portion of the load progress used by textures, the rest is used by building the sprites. */
+	private static final float textureLoadShare = 0.9f;
+	protected HashMap<String, Texture> localTexMap = new HashMap<String, Texture>(10);
 	protected int cursorPos = 0;
 	//protected long inputDelay = Global.inputReadDelayTimer;
 	//private PuzzleModeLevel playLevel;
 	private PuzzleBreakLevel playLevel;
+	/** Level in progress saved at the last exit, read while loading and resumed on the first frame. */
+	private volatile LevelSession.Snapshot resumeSession = null;
 	//private PuzzleModeLevel playLevelDisplay;
 
 	// Level variables. These may be moved/removed if level play is moved to separated class object.
 	protected int[] blockOffSet = new int[] { 32, 32 };
-	private long movementInputDelay = Global.inputReadDelayTimer;
-	private long actionDelay = Global.inputReadDelayTimer;
 	
 	//protected int[] levelArray = new int[3];
 	//private HighScoreRecord[] hsLevelArray = new HighScoreRecord[3];
@@ -100,10 +100,8 @@ public class BlockPuzzleMode implements GameMode {
 	private int level = 1;
 	protected static int[] medals = PuzzleBreakLevel.medals;//PuzzleBreakLevel.medals;//PuzzleModeLevel.medals;
 	
-	protected List<GridColumn[]> gridDispLevel = new ArrayList<GridColumn[]>();
-
-	//protected List<PuzzleModeLevel> gridDisplay = new ArrayList<PuzzleModeLevel>();
-	protected List<PuzzleBreakLevel> gridDisplay = new ArrayList<PuzzleBreakLevel>();
+	/** Level select previews, created the first time each level is shown. */
+	protected LevelPreview[] levelPreviews = new LevelPreview[pracMax + 1];
 	
 	public BlockPuzzleMode() {
 		
@@ -122,52 +120,22 @@ public class BlockPuzzleMode implements GameMode {
 		// This should always be the first line
 		currentState = LoadState.LOADING_ASSETS;
 		// TODO Auto-generated method stub
-		Texture tex;
-		String type; // holds file type extension
-		String source; // absolute file path to resource
-		for (String ref[] : texLoadList) {
-			// Load local textures
-			type = ref[1].substring(ref[1].lastIndexOf('.')).toUpperCase();
-			tex = null;
-			source = ref[1];
-			 try {
-				 source = FileResource.requestResource(ref[1]);
-				 tex = TextureLoader.getTexture(type, ResourceLoader.getResourceAsStream(ref[1]));
-				 if ( localTexMap.putIfAbsent(ref[0], tex) != null) {
-					 // report error, attempting to add duplicate key entry
-					 Global.writeToLog(String.format("Attempting to load multiple textures to key [%s]", ref[0]));
-					 Global.writeToLog(String.format("Texture resource [%s] not loaded.", ref[1]) );
-				 }
-				 localTexMap.put(source, tex);
-			 } catch (IOException e) {
-				 Global.writeToLog(String.format("Unable to load texture resource %s\n", source) );
-				 e.printStackTrace();
-				 System.exit(-1);
-			 }
+		// Load local textures through the shared cache, missing files are decoded in parallel
+		try {
+			assetLoader = new AssetLoader(texLoadList, localTexMap);
+			assetLoader.finish();
+			loadProgress = textureLoadShare;
+		} catch (IOException e) {
+			GameLog.error("Unable to load texture resource: %s", e.getMessage());
+			e.printStackTrace();
+			System.exit(-1);
 		}
 // author Brock
 		//moveClick = new GameSounds(GameSounds.soundType.SOUND, "media/click3.ogg");
 
 		//for (int i = 0; i < PuzzleModeLevel.nLevels; i++) {
 
-		for (int i = 0; i <= pracMax; i++) {
-			
-			loadLevel(i);
-			gridDisplay.add(playLevel);
-			//if (gridDispLevel.size() <= 0) {
-			
-			gridDispLevel.add(GridColumn.copyGrid(playLevel.grid));
-			Global.writeToLog(String.format("init grid: %d", i),true );
-			playLevel = null;
-		//	preloadLevel(i);
-		//}
-			//gridDisplay.add(playLevel.buildGridPuzzle(i));
-			//gridDisplay.add(selectDisplayGrid(i));
-			//gridDisplay.add(i,loadLevel(i));
-			//playLevel = null;
-			//gridDispLevel.add(GridColumn.copyGrid(gridDisplay.get(i).grid));
-			
-		}
+		// levels are built when played, and for the level select preview when first shown
 		PuzzleBreakLevel.buildStaticAssets(localTexMap);
 		GameSelector_background = new Sprite(
 				Global.textureMap.get("main_menu_background"),
@@ -293,10 +261,12 @@ public class BlockPuzzleMode implements GameMode {
 			);
 		
 		hsBack = localTexMap.get("bigsky");
-		// Update mode state when asset loading is completed
-		currentState = LoadState.LOADING_DONE;
 		
 		loadPrefs();
+		resumeSession = LevelSession.read(PuzzleBreakLevel.SESSION_FILE);
+		// Update mode state when asset loading is completed. This must be last, the render thread
+		// starts running the mode as soon as it sees this state
+		currentState = LoadState.LOADING_DONE;
 		return;
 	}
 
@@ -305,6 +275,14 @@ public class BlockPuzzleMode implements GameMode {
 		return currentState;
 	}
 	
+	@Override
+	public float getLoadProgress() {
+		if (currentState == LoadState.NOT_LOADED) { return 0f; }
+		AssetLoader loader = assetLoader;
+		if (loader != null && !loader.isDone()) { return loader.getProgress() * textureLoadShare; }
+		return currentState == LoadState.LOADING_ASSETS ? loadProgress : 1f;
+	}
+	
 	@Override
 	public void run() {
 		currentState = LoadState.READY;
@@ -313,6 +291,13 @@ public class BlockPuzzleMode implements GameMode {
 		//medalOffset -= 5;
 
 		//playLevel = gridDisplay.get(1);
+		if (resumeSession != null) {
+			if (resumeSession.level >= 1 && resumeSession.level <= pracMax) {
+				playLevel = new PuzzleBreakLevel(resumeSession.level);
+				if (!LevelSession.restore(playLevel, resumeSession)) { playLevel = null; }
+			}
+			resumeSession = null;
+		}
 		if (playLevel != null) {
 
 			//playLevel = gridDisplay.get(index);
@@ -325,16 +310,18 @@ public class BlockPuzzleMode implements GameMode {
 				playLevel = null;
 			}
 			else {
+				LevelSession.end(playLevel);
 
 				//if (playLevel.levelFinished) {
 
 				//}
 				medals = PuzzleBreakLevel.medals;
 				if (maxUnlocked < playLevel.level) { maxUnlocked = playLevel.level; }
+				// keep the unlocked level and medals even if the window is closed before leaving the mode
+				savePrefs();
 				if (playLevel.gameOver || playLevel.practice) {
 				//	gridDisplay.get(playLevel.level).levelFinished = false;
 					// TODO: selectPractice = false;
-					movementInputDelay = Global.inputReadDelayTimer;
 					//if (!playLevel.practice) {
 						//for (int i = 0; i < pracMax; i++) {
 							//	preloadLevel(i);
@@ -395,7 +382,11 @@ public class BlockPuzzleMode implements GameMode {
 					
 					// load next level
 					// TODO: add test for at last level and return to menu
-					playLevel = gridDisplay.get(playLevel.level + 1);
+					if (playLevel.level < pracMax) {
+						loadLevel(playLevel.level + 1);
+					} else {
+						playLevel = null;
+					}
 					//loadLevel(playLevel.level + 1);
 					//gridDisplay.get(playLevel.level).levelFinished = false;
 					//preloadLevel(playLevel.level + 1);
@@ -413,21 +404,15 @@ public class BlockPuzzleMode implements GameMode {
 		} else if (showHighScore) {
 			showHighScores();
 			
-			if (movementInputDelay <= 0 && Global.getControlActive(Global.GameControl.CANCEL)) {
-				movementInputDelay = 2 * Global.inputReadDelayTimer;
+			if (InputQueue.takePress(Global.GameControl.CANCEL)) {
 				showHighScore = false;
-			} else {
-				movementInputDelay -= Global.delta;
 			}
 			
 			
 		} else if (showPuzzleGuide) {
 			drawPuzzlePlayGuide();
-			if (movementInputDelay <= 0 && Global.getControlActive(Global.GameControl.CANCEL)) {
-				movementInputDelay = 2 * Global.inputReadDelayTimer;
+			if (InputQueue.takePress(Global.GameControl.CANCEL)) {
 				showPuzzleGuide = false;
-			} else {
-				movementInputDelay -= Global.delta;
 			}
 		}
 		else {
@@ -471,10 +456,18 @@ public class BlockPuzzleMode implements GameMode {
 	@Override
 	public void cleanup() {
 		// TODO Auto-generated method stub
-		for (Texture ref : localTexMap.values()) {
-			ref.release();
+		// textures stay in the shared cache for other modes and the next visit
+		if (assetLoader != null) {
+			assetLoader.release();
+			assetLoader = null;
 		}
 		localTexMap.clear();
+		for (int i = 0; i < levelPreviews.length; i++) {
+			if (levelPreviews[i] != null) {
+				levelPreviews[i].release();
+				levelPreviews[i] = null;
+			}
+		}
 		savePrefs();
 		/* Indicate that the game mode had complete unloading and is ready to
 		 * return control to previous control loop.
@@ -486,74 +479,67 @@ public class BlockPuzzleMode implements GameMode {
 	 * @author Brock
 	 */
 	private void moveCursorMain() {
-		if (movementInputDelay <= 0) {
-			if (Global.getControlActive(Global.GameControl.UP)) {
-				cursorPos--;
-				Global.sounds.playSoundEffect("button_click");
+		if (InputQueue.take(Global.GameControl.UP)) {
+			cursorPos--;
+			Global.sounds.playSoundEffect("button_click");
+			
+			if (cursorPos < 0) {
 				
-				if (cursorPos < 0) {
-					
-					cursorPos = 4;
-				}
-				movementInputDelay = Global.inputReadDelayTimer;
-			}
-			if (Global.getControlActive(Global.GameControl.DOWN)) {
-				cursorPos++;
-				Global.sounds.playSoundEffect("button_click");
-
-				if (cursorPos > 4) {
-					cursorPos = 0;
-				}
-				movementInputDelay = Global.inputReadDelayTimer;
-			}
-			if (Global.getControlActive(Global.GameControl.CANCEL)) { // Cancel key moves the cursor to the program exit button
 				cursorPos = 4;
-					//PuzzleModeLevel.gamePaused = false;
-				
-			}
-			if (Global.getControlActive(Global.GameControl.PAUSE)) {
-				//PuzzleModeLevel.gamePaused = true;
 			}
-			if (cursorPos == 1) { // practice selected, not confirmed
-				inputPracMenu();
+		}
+		if (InputQueue.take(Global.GameControl.DOWN)) {
+			cursorPos++;
+			Global.sounds.playSoundEffect("button_click");
+
+			if (cursorPos > 4) {
+				cursorPos = 0;
 			}
-			if (Global.getControlActive(Global.GameControl.SELECT)) {
-				switch (cursorPos) {
-					case 0: // normal mode
-						//playLevel = gridDisplay.get(1);
-						loadLevel(1);
-						PuzzleBreakLevel.score = 0;
-						
-						break;
-					case 1: // practice mode
-						if (pracLevel > maxUnlocked) { break; }
-						loadLevel(pracLevel);
-						
-						movementInputDelay = Global.inputReadDelayTimer;
-						PuzzleBreakLevel.score = 0;
-						//selectPractice = true;
-						break;
-					case 2: // high score
-						showHighScore = true;
-						newHighScore = false;
-						break;
-					case 3: 
-						showPuzzleGuide = true;
-						break;
-					case 4: // exit
-					default:
-						pageBack = true;
-						break;
-				}
-				movementInputDelay = 2 * Global.inputReadDelayTimer;
+		}
+		if (InputQueue.takePress(Global.GameControl.CANCEL)) { // Cancel key moves the cursor to the program exit button
+			cursorPos = 4;
+				//PuzzleModeLevel.gamePaused = false;
+			
+		}
+		if (InputQueue.takePress(Global.GameControl.PAUSE)) {
+			//PuzzleModeLevel.gamePaused = true;
+		}
+		if (cursorPos == 1) { // practice selected, not confirmed
+			inputPracMenu();
+		}
+		if (InputQueue.takePress(Global.GameControl.SELECT)) {
+			switch (cursorPos) {
+				case 0: // normal mode
+					//playLevel = gridDisplay.get(1);
+					loadLevel(1);
+					PuzzleBreakLevel.score = 0;
+					
+					break;
+				case 1: // practice mode
+					if (pracLevel > maxUnlocked) { break; }
+					loadLevel(pracLevel);
+					
+					PuzzleBreakLevel.score = 0;
+					//selectPractice = true;
+					break;
+				case 2: // high score
+					showHighScore = true;
+					newHighScore = false;
+					break;
+				case 3: 
+					showPuzzleGuide = true;
+					break;
+				case 4: // exit
+				default:
+					pageBack = true;
+					break;
 			}
-		} else if (movementInputDelay > 0) {
-			movementInputDelay -= Global.delta;
 		}
 	}
 	
 	private void loadLevel(int levelID) {
 		playLevel = new PuzzleBreakLevel(levelID);
+		LevelSession.setActive(playLevel);
 		/*switch (levelID) {
 			case 1:
 				playLevel = new PuzzleModeLevel01(localTexMap);
@@ -618,18 +604,14 @@ public class BlockPuzzleMode implements GameMode {
 	}
 		
 	private void inputPracMenu() {
-		movementInputDelay -= Global.delta;
-		if (movementInputDelay > 0) { return; }
-		if (Global.getControlActive(Global.GameControl.LEFT)) {
+		if (InputQueue.take(Global.GameControl.LEFT)) {
 			pracLevel--;
 			Global.sounds.playSoundEffect("button_click"); //Mario
 			if (pracLevel < 1) { pracLevel = pracMax; }
-			movementInputDelay = Global.inputReadDelayTimer;
-		} else if (Global.getControlActive(Global.GameControl.RIGHT)) {
+		} else if (InputQueue.take(Global.GameControl.RIGHT)) {
 			pracLevel++;
 			Global.sounds.playSoundEffect("button_click"); //Mario
 			if (pracLevel > pracMax) { pracLevel = 1; }
-			movementInputDelay = Global.inputReadDelayTimer;
 		} 		
 	}
 
@@ -662,32 +644,11 @@ public class BlockPuzzleMode implements GameMode {
 		}
 		//}
 	}*/
-	private GridColumn[] grid;
-	private int[] gridSize;
-	private int[] gridBasePos;
-	private int[] blockSize;
-	
-	private void drawGridDisplay(GridColumn[] grid) {
-		blockSize = new int[] { 24, 24 };
-		gridSize = new int[] { 20, 20 }; // default grid size is { 20, 20 }
-		//gridBasePos = new int[] { 20, Global.glEnvHeight - blockSize[1] - 50 };
-		gridBasePos = new int[] { pracOffset + 82, 700 };
-		
-		// The old grid draw functions will not work with the new grid management algorithm, the math will not move the blocks the same
-		for (int i = 0; i < grid.length; i++) {
-			for (int k = 0; k < grid[0].blocks.length; k++) {
-				if (grid[i].blocks[k] == null) {
-					continue;
-				} else {
-					grid[i].blocks[k].draw(
-							gridBasePos[0] + blockSize[0] * i,
-							(gridBasePos[1] - blockSize[1] * k),
-							blockSize
-							);
-				}
-			}
+	private void drawLevelPreview(int levelID) {
+		if (levelPreviews[levelID] == null) {
+			levelPreviews[levelID] = new LevelPreview(levelID);
 		}
-		
+		levelPreviews[levelID].draw(pracOffset + 82, 244);
 	}
 	
 	private void drawPracticeSelect() {
@@ -710,7 +671,7 @@ public class BlockPuzzleMode implements GameMode {
 		//playLevelDisplay = gridDisplay.get(pracLevel);
 
 //		drawGridDisplay(gridDisplay.get(pracLevel).grid);
-		drawGridDisplay(gridDispLevel.get(pracLevel));
+		drawLevelPreview(pracLevel);
 		
 		//Global.uiGreen.draw(pracOffset + 40, 250, 49, 45);
 		//PuzzleModeLevel.numbers[pracLevel].draw(525, 255);
@@ -959,138 +920,23 @@ public class BlockPuzzleMode implements GameMode {
 		}
 	}
 	/**
-	 * Load custom values and high scores from file. Loads default values for
-	 * high scores if data is not present or corrupted.
+	 * Load the top unlocked level and the medals earned for each level from the settings store.
 	 */
 	private void loadPrefs() {
-		BufferedReader prefFile;
-		String line;
-		HighScoreRecord hsr;
-		//int i = 1;
-		
-		try {
-			prefFile = new BufferedReader(new FileReader("puzzle.pref"));
-			line = prefFile.readLine();
-			while (line != null) {
-			
-				if (line.compareToIgnoreCase("[HighScore]") == 0) {
-					line = prefFile.readLine();
-					
-					for (int i = 1; line != null && i < medals.length; i++) {
-						//for (int i = 1; i < medals.length; i++) {
-							//if (line != null) {
-	
-						//if (line.compareToIgnoreCase(i + ":") == 0) {
-						if (line.compareToIgnoreCase(i + ":" + line.charAt(line.length() - 1)) == 0) {
-								try {
-	
-									medals[i] = Character.getNumericValue(line.charAt(line.length() - 1));
-	
-									line = prefFile.readLine();
-								} catch (NumberFormatException nfe) {
-									medals[i] = 0;
-									continue;
-								}
-						}
-								
-					}
-				} else if (line.compareToIgnoreCase("[TopLevel]") == 0) {
-					line = prefFile.readLine();
-					try {
-						maxUnlocked = Integer.parseInt(line);
-					} catch (NumberFormatException nfe) {
-						maxUnlocked = 1;
-					}
-							
-				}
-						
-				line = prefFile.readLine();
-			
-			}
-			prefFile.close();
-		} catch (IOException err) {
-			
+		maxUnlocked = SettingsStore.getInt("puzzle.maxUnlocked", 1);
+		for (int i = 1; i < medals.length; i++) {
+			medals[i] = SettingsStore.getInt("puzzle.medals." + i, 0);
 		}
-		
-
-		/*try {
-			prefFile = new BufferedReader(new FileReader("puzzle.pref"));
-			line = prefFile.readLine();
-			while (line != null && i < medals.length) {
-				//for (int i = 1; i < medals.length; i++) {
-					//if (line != null) {
-					if (line.compareToIgnoreCase("[HighScore" + i +"]") == 0) {
-						try {
-							line = prefFile.readLine();
-							//while (line != null) {
-							medals[i] = Integer.parseInt(line);
-								
-							line = prefFile.readLine();
-							//}
-						} catch (NumberFormatException nfe) {
-							medals[i] = 0;
-							continue;
-						}
-					} else if (line.compareToIgnoreCase("[TopLevel]") == 0) {
-						line = prefFile.readLine();
-						try {
-							maxUnlocked = Integer.parseInt(line);
-						} catch (NumberFormatException nfe) {
-							maxUnlocked = 1;
-						}
-					}
-				//}
-				i++;
-				line = prefFile.readLine();
-			}
-			//}
-			prefFile.close();
-		} catch (IOException err) {
-			
-		}/* /*finally {
-			Collections.sort(hsRecords);
-			while (hsRecords.size() > 10) {
-				hsRecords.remove(10);
-			}
-		}*/
-		
 	}
 	
 	/** 
-	 * Saves custom values and high scores to file.
+	 * Saves the top unlocked level and the medals earned for each level to the settings store.
 	 */
 	private void savePrefs() {
-		try {
-			BufferedWriter prefFile = new BufferedWriter(new FileWriter("puzzle.pref"));
-			prefFile.write("[TopLevel]");
-			prefFile.newLine();
-			prefFile.write(Integer.toString(maxUnlocked));
-			prefFile.newLine();
-			prefFile.write("[HighScore]");
-			prefFile.newLine();
-			for (int i = 1; i < pracMax + 1; i++) {
-				
-				prefFile.write(i +":");
-				//if (maxUnlocked == playLevel.level) {
-					//prefFile.newLine();
-					///for(HighScoreRecord hsr : hsRecords) {
-					//	prefFile.write(hsr.toString());
-					if (i < medals.length) {
-						prefFile.write(Integer.toString(medals[i]).toString());
-						
-					} else if (i >= medals.length){
-						prefFile.write("0");
-					}
-					prefFile.newLine();
-					//}
-				//}
-			}
-			prefFile.close();
-		} catch (IOException e) {
-			Global.writeToLog("Error opening Standard mode preferences file for writing.", true);
-			e.printStackTrace();
+		SettingsStore.putInt("puzzle.maxUnlocked", maxUnlocked);
+		for (int i = 1; i < pracMax + 1; i++) {
+			SettingsStore.putInt("puzzle.medals." + i, i < medals.length ? medals[i] : 0);
 		}
-		
 	}
 	
 }
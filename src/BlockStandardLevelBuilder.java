@@ -1,5 +1,4 @@
 import java.util.HashMap;
-import java.util.Stack;
 
 import org.lwjgl.input.Keyboard;
 import org.newdawn.slick.opengl.Texture;
@@ -7,16 +6,30 @@ import org.newdawn.slick.Color;
 
 /**
  * Example level to demonstrate the flow and references need to build a level
+ * <p>
+ * The canvas can be resized up to <code>MAX_SIZE</code> in each direction. Only
+ * <code>VIEW_SIZE</code> cells are shown in each direction, the view scrolls to follow the cursor.
  * @author John
  */
 public class BlockStandardLevelBuilder extends BlockBreakLevel {
+	/** Largest canvas width or height. */
+	public static final int MAX_SIZE = 500;
+	/** Cells shown in each direction, larger canvases scroll. */
+	private static final int VIEW_SIZE = 20;
+	/** Cells added or removed by one resize while shift is held. */
+	private static final int RESIZE_STEP = 10;
 	private Block[] list = new Block[12];
-	private Stack<GridColumn[]> undo = new Stack<GridColumn[]>();
+	/** Bottom left cell shown. */
+	private int[] viewPos = new int[] { 0, 0 };
+	/** Cells copied with [K], placed with [V]. */
+	private GridColumn.Cells stamp = null;
+	/** Running totals of the random fill weight of each <code>list</code> entry. */
+	private int[] randomWeights;
+	/** Undo history, limited to the memory set by <code>editor.undoMemoryKB</code>. */
+	private final EditHistory history = new EditHistory(SettingsStore.getInt("editor.undoMemoryKB", 16 * 1024) * 1024L);
 	private boolean fillToggle = false;
 	private int[] fillPoint1 = null;
 	private int[] fillPoint2 = null;
-	private long moveDelay = 0;
-	private long keyDelay = 0;
 	private final long fileDelayTimer = 5000l;
 	private long fileDelay = 0;
 	
@@ -42,142 +55,127 @@ public class BlockStandardLevelBuilder extends BlockBreakLevel {
 		list[9] = new Block(Block.BlockType.HEART);
 		list[10] = new Block(Block.BlockType.BOMB);
 		list[11] = new Block(Block.BlockType.ROCK);
+		randomWeights = readWeights(SettingsStore.getString("editor.randomWeights", "1,1,1,1,1,1,0,0,0,0,0,0"));
+	}
+	
+	/**
+	 * Reads the random fill weights, one per <code>list</code> entry. The wedge is never placed at random.
+	 * @return Running totals of the weights
+	 */
+	private int[] readWeights(String setting) {
+		String[] parts = setting.split(",");
+		int[] totals = new int[list.length];
+		int total = 0;
+		try {
+			for (int i = 0; i < list.length; i++) {
+				if (i < parts.length && i != 6) { total += Math.max(0, Integer.parseInt(parts[i].trim())); }
+				totals[i] = total;
+			}
+		} catch (NumberFormatException e) {
+			total = 0;
+		}
+		if (total == 0) {
+			Global.writeToLog(String.format("Invalid editor.randomWeights '%s', using the six colors", setting), true);
+			for (int i = 0; i < list.length; i++) { totals[i] = Math.min(i + 1, 6); }
+		}
+		return totals;
+	}
+	
+	/** Levels being built are not saved as sessions. */
+	@Override
+	protected String getSessionFile() {
+		return null;
 	}
 	
 	
 	@Override
 	protected void checkCommonControls() {
-		moveDelay -= Global.delta;
-		keyDelay -= Global.delta;
 		fileDelay -= Global.delta;
 		int key;
-		if (moveDelay < 0) {  
-			if (Keyboard.isKeyDown(Keyboard.KEY_UP)) {
-				cursorGridPos[1]++;
-				if (cursorGridPos[1] >= grid[0].blocks.length) {
-					cursorGridPos[1] = grid[0].blocks.length - 1;
-				}
-				moveDelay = Global.inputReadDelayTimer;
-			} else
-			if (Keyboard.isKeyDown(Keyboard.KEY_DOWN)) {
-				if (cursorGridPos[1] > 0) {
-					cursorGridPos[1]--;
-				}
-				moveDelay = Global.inputReadDelayTimer;
-			} 
-			if (Keyboard.isKeyDown(Keyboard.KEY_LEFT)) {
-				if (cursorGridPos[0] > 0) {
-					cursorGridPos[0]--;
-				}
-				moveDelay = Global.inputReadDelayTimer;
-			} else
-			if (Keyboard.isKeyDown(Keyboard.KEY_RIGHT)) {
-				cursorGridPos[0]++;
-				if (cursorGridPos[0] >= grid.length) {
-					cursorGridPos[0] = grid.length - 1;
-				}
-				moveDelay = Global.inputReadDelayTimer;
-			}
+		// shift moves a screen at a time and resizes in steps of ten
+		boolean shift = Keyboard.isKeyDown(Keyboard.KEY_LSHIFT) || Keyboard.isKeyDown(Keyboard.KEY_RSHIFT);
+		int step = shift ? VIEW_SIZE : 1;
+		int resizeStep = shift ? RESIZE_STEP : 1;
+		if (InputQueue.takeKey(Keyboard.KEY_UP)) {
+			cursorGridPos[1] += step;
+		} else if (InputQueue.takeKey(Keyboard.KEY_DOWN)) {
+			cursorGridPos[1] -= step;
+		}
+		if (InputQueue.takeKey(Keyboard.KEY_LEFT)) {
+			cursorGridPos[0] -= step;
+		} else if (InputQueue.takeKey(Keyboard.KEY_RIGHT)) {
+			cursorGridPos[0] += step;
 		}
+		clampCursor();
 		int x = this.cursorGridPos[0], y = this.cursorGridPos[1]; // done to improve code readability
-		while (Keyboard.next()) {
-			key = Keyboard.getEventKey();
+		while (InputQueue.nextKey()) {
+			// each press acts once, releases do nothing
+			if (!InputQueue.getEventKeyState()) { continue; }
+			key = InputQueue.getEventKey();
 			switch (key) {
 				case Keyboard.KEY_1:
-					if (keyDelay > 0) { break; } 
 					updateGrid(list[0]);
-					keyDelay = Global.inputReadDelayTimer;
 					break;
 				case Keyboard.KEY_2:
-					if (keyDelay > 0) { break; } 
 					updateGrid(list[1]);
-					keyDelay = Global.inputReadDelayTimer;
 					break;
 				case Keyboard.KEY_3:
-					if (keyDelay > 0) { break; } 
 					updateGrid(list[2]);
-					keyDelay = Global.inputReadDelayTimer;
 					break;
 				case Keyboard.KEY_4:
-					if (keyDelay > 0) { break; } 
 					updateGrid(list[3]);
-					keyDelay = Global.inputReadDelayTimer;
 					break;
 				case Keyboard.KEY_5:
-					if (keyDelay > 0) { break; } 
 					updateGrid(list[4]);
-					keyDelay = Global.inputReadDelayTimer;
 					break;
 				case Keyboard.KEY_6:
-					if (keyDelay > 0) { break; } 
 					updateGrid(list[5]);
-					keyDelay = Global.inputReadDelayTimer;
 					break;
 				case Keyboard.KEY_R: // Rock
-					if (grid[x].blocks[y].type != Block.BlockType.ROCK) {
-						if (keyDelay > 0) { break; } 
-						undo.push(GridColumn.copyGrid(grid));
-						updateGrid( list[11].clone() );
-						keyDelay = Global.inputReadDelayTimer;
+					if (!isType(grid[x].blocks[y], Block.BlockType.ROCK)) {
+						updateGrid(list[11]);
 					}
 					break;
 				case Keyboard.KEY_W: // Wedge
-					if (grid[x].blocks[y].type != Block.BlockType.WEDGE) {
-						if (keyDelay > 0) { break; } 
-						undo.push(GridColumn.copyGrid(grid));
-						if (wedgePos[0] >= 0 && grid[wedgePos[0]].blocks[wedgePos[1]].type == Block.BlockType.WEDGE) {
-							grid[wedgePos[0]].blocks[wedgePos[1]] = new Block(Block.BlockType.BLOCK);
+					if (!isType(grid[x].blocks[y], Block.BlockType.WEDGE)) {
+						// only one wedge is allowed, the old one becomes a block
+						history.begin();
+						if (wedgePos[0] >= 0 && isType(grid[wedgePos[0]].blocks[wedgePos[1]], Block.BlockType.WEDGE)) {
+							history.set(grid, wedgePos[0], wedgePos[1], new Block(Block.BlockType.BLOCK));
 						}
 						wedgePos[0] = x;
 						wedgePos[1] = y;
-						grid[x].blocks[y] = list[6].clone();
-						keyDelay = Global.inputReadDelayTimer;
+						history.set(grid, x, y, list[6].clone());
+						history.end();
 					}
 					break;
 				case Keyboard.KEY_N: // Star
-					if (keyDelay > 0) { break; } 
 					updateGrid(list[7]);
-					keyDelay = Global.inputReadDelayTimer;
 					break;
 				case Keyboard.KEY_T: // Trash
-					if (keyDelay > 0) { break; } 
 					updateGrid(list[8]);
-					keyDelay = Global.inputReadDelayTimer;
 					break;
 				case Keyboard.KEY_H: // Heart
-					if (keyDelay > 0) { break; } 
 					updateGrid(list[9].clone());
-					keyDelay = Global.inputReadDelayTimer;
 					break;
 				case Keyboard.KEY_B:
-					if (grid[x].blocks[y].type != Block.BlockType.BOMB) {
-						if (keyDelay > 0) { break; } 
-						undo.push(GridColumn.copyGrid(grid));
+					if (!isType(grid[x].blocks[y], Block.BlockType.BOMB)) {
 						//grid[x].blocks[y] = list[10].clone();
-						updateGrid(list[10].clone());
-						keyDelay = Global.inputReadDelayTimer;
+						updateGrid(list[10]);
 					}
 					break;
 				case Keyboard.KEY_EQUALS: // + Bomb range
-					if (keyDelay > 0) { break; } 
-					if (grid[x].blocks[y].type != Block.BlockType.BOMB) { break; }
+					if (!isType(grid[x].blocks[y], Block.BlockType.BOMB)) { break; }
 					if (grid[x].blocks[y].colorID == 9) { break; } // upper limit for Bomb size
-					undo.push(GridColumn.copyGrid(grid));
-					grid[x].blocks[y].colorID++;
-					keyDelay = Global.inputReadDelayTimer;
+					setBombRadius(x, y, grid[x].blocks[y].colorID + 1);
 					break;
 				case Keyboard.KEY_MINUS: // - Bomb range
-					if (keyDelay > 0) { break; } 
-					if (grid[x].blocks[y].type != Block.BlockType.BOMB) { break; }
+					if (!isType(grid[x].blocks[y], Block.BlockType.BOMB)) { break; }
 					if (grid[x].blocks[y].colorID  == 2) { break; } // upper limit for Bomb size
-					undo.push(GridColumn.copyGrid(grid));
-					grid[x].blocks[y].colorID--;
-					keyDelay = Global.inputReadDelayTimer;
+					setBombRadius(x, y, grid[x].blocks[y].colorID - 1);
 					break;
 				case Keyboard.KEY_F:
-					if (keyDelay > 0) { break; } 
 					fillToggle = !fillToggle;
-					keyDelay = Global.inputReadDelayTimer;
 					break;
 				case Keyboard.KEY_S:
 					if (fileDelay > 0) { break; } 
@@ -188,20 +186,26 @@ public class BlockStandardLevelBuilder extends BlockBreakLevel {
 					if (fileDelay > 0) { break; } 
 					GridColumn[] newGrid = GridColumn.loadFromFile("import.dat");
 					if (newGrid != null) {  // ensure data loaded properly before switching grids 
-						undo.push(GridColumn.copyGrid(grid));
+						history.replaceGrid(grid, newGrid);
 						grid = newGrid; 
+						gridChanged();
 					}
 					fileDelay = fileDelayTimer;
 					break;
 				case Keyboard.KEY_Z:
 				case Keyboard.KEY_U:
 					if (fileDelay > 0) { break; } 
-					if (undo.empty()) { break; } 
-					grid = undo.pop();
-					keyDelay = Global.inputReadDelayTimer * 3;
+					if (!history.canUndo()) { break; } 
+					grid = history.undo(grid);
+					gridChanged();
+					break;
+				case Keyboard.KEY_Y:
+					if (fileDelay > 0) { break; } 
+					if (!history.canRedo()) { break; } 
+					grid = history.redo(grid);
+					gridChanged();
 					break;
 				case Keyboard.KEY_P:
-					if (keyDelay > 0) { break; } 
 					if (fillPoint1 == null) {
 						fillPoint1 = cursorGridPos.clone();
 					} else if (fillPoint2 == null){
@@ -212,14 +216,37 @@ public class BlockStandardLevelBuilder extends BlockBreakLevel {
 						fillPoint1 = fillPoint2;
 						fillPoint2 = cursorGridPos.clone();
 					}
-					keyDelay = Global.inputReadDelayTimer;
+					break;
+				case Keyboard.KEY_K: // copy the area between the fill points
+					copyStamp();
+					break;
+				case Keyboard.KEY_V: // place the copied area at the cursor
+					if (stamp == null) { break; } 
+					history.begin();
+					placeStamp();
+					history.end();
+					break;
+				case Keyboard.KEY_X: // random blocks in the area between the fill points, or everywhere
+					history.begin();
+					randomFill();
+					history.end();
+					break;
+				case Keyboard.KEY_LBRACKET:
+					resize(grid.length - resizeStep, grid[0].blocks.length);
+					break;
+				case Keyboard.KEY_RBRACKET:
+					resize(grid.length + resizeStep, grid[0].blocks.length);
+					break;
+				case Keyboard.KEY_COMMA:
+					resize(grid.length, grid[0].blocks.length - resizeStep);
+					break;
+				case Keyboard.KEY_PERIOD:
+					resize(grid.length, grid[0].blocks.length + resizeStep);
 					break;
 				case Keyboard.KEY_C: // clear sets
-					if (keyDelay > 0) { break; } 
 					fillPoint1 = null;
 					fillPoint2 = null;
 					fillToggle = false;
-					keyDelay = Global.inputReadDelayTimer;
 					break;
 				case Keyboard.KEY_ESCAPE:
 					levelFinished = true;
@@ -229,10 +256,6 @@ public class BlockStandardLevelBuilder extends BlockBreakLevel {
 					break;
 			}
 		}
-		if (undo.size() > 30) { // limit undo history to 15 entries
-			undo.remove(0);
-		}
-		
 	}
 	
 	private final String[] cmds = new String[] { "[W]", "[N]", "[T]", "[H]", "[B]", "[R]" };
@@ -270,7 +293,7 @@ public class BlockStandardLevelBuilder extends BlockBreakLevel {
 		
 		Global.drawFont24(xst + 110, yst, "[P]Set Fill Points", Color.white);
 		yst += ysp;
-		Global.drawFont24(xst, yst, "[C]Clear Fills  [U]Undo", Color.white);
+		Global.drawFont24(xst, yst, "[C]Clear [U]Undo [Y]Redo", Color.white);
 		yst += ysp;
 		Global.drawFont24(xst, yst, "[+/-]Adjust Bomb Radius", Color.white);
 		yst += ysp;
@@ -282,6 +305,12 @@ public class BlockStandardLevelBuilder extends BlockBreakLevel {
 			Global.drawFont24(xst, yst + ysp, "[L]Load from import.dat", Color.white);
 		}
 		yst += ysp * 2;
+		Global.drawFont24(xst, yst, "[K]Copy [V]Stamp [X]Rand", Color.white);
+		yst += ysp;
+		Global.drawFont24(xst, yst, "[ ]Width  < >Height", Color.white);
+		yst += ysp;
+		Global.drawFont24(xst, yst, String.format("Size: %d x %d", grid.length, grid[0].blocks.length), Color.white);
+		yst += ysp;
 		Global.drawFont24(xst, yst, String.format("Position: [ %d %d ]", cursorGridPos[0], cursorGridPos[1]), Color.white);
 	}
 	
@@ -289,37 +318,120 @@ public class BlockStandardLevelBuilder extends BlockBreakLevel {
 	protected void drawCursor() {
 		energy = energyMax; // prevent energy from decreasing
 		
-		cursor.draw(
-				gridBasePos[0] + blockSize[0] * cursorGridPos[0],
-				gridBasePos[1] - blockSize[1] * cursorGridPos[1],
+		cursor.queue(
+				SpriteBatch.LAYER_CURSOR,
+				gridBasePos[0] + blockSize[0] * (cursorGridPos[0] - viewPos[0]),
+				gridBasePos[1] - blockSize[1] * (cursorGridPos[1] - viewPos[1]),
 				blockSize
 			);
 		
-		if (fillPoint1 != null) {
-			Color.cyan.bind();
-			cursor.draw(
-					gridBasePos[0] + blockSize[0] * fillPoint1[0], 
-					gridBasePos[1] - blockSize[1] * fillPoint1[1],
-					blockSize
+		if (fillPoint1 != null && inView(fillPoint1)) {
+			cursor.queue(
+					SpriteBatch.LAYER_CURSOR,
+					gridBasePos[0] + blockSize[0] * (fillPoint1[0] - viewPos[0]), 
+					gridBasePos[1] - blockSize[1] * (fillPoint1[1] - viewPos[1]),
+					blockSize[0], blockSize[1], Color.cyan
 				);
-			Color.white.bind();
 		}
-		if (fillPoint2 != null) {
-			Color.magenta.bind();
-			cursor.draw(
-					gridBasePos[0] + blockSize[0] * fillPoint2[0], 
-					gridBasePos[1] - blockSize[1] * fillPoint2[1],
-					blockSize
+		if (fillPoint2 != null && inView(fillPoint2)) {
+			cursor.queue(
+					SpriteBatch.LAYER_CURSOR,
+					gridBasePos[0] + blockSize[0] * (fillPoint2[0] - viewPos[0]), 
+					gridBasePos[1] - blockSize[1] * (fillPoint2[1] - viewPos[1]),
+					blockSize[0], blockSize[1], Color.magenta
 				);
-			Color.white.bind();
 		}
 	}
+	
+	private boolean inView(int[] pos) {
+		return pos[0] >= viewPos[0] && pos[0] < viewPos[0] + VIEW_SIZE
+			&& pos[1] >= viewPos[1] && pos[1] < viewPos[1] + VIEW_SIZE;
+	}
+	
+	/** Draws only the cells in view. */
+	@Override
+	protected void drawGrid(GridColumn[] grid) {
+		int xEnd = Math.min(grid.length, viewPos[0] + VIEW_SIZE);
+		int yEnd = Math.min(grid[0].blocks.length, viewPos[1] + VIEW_SIZE);
+		for (int i = viewPos[0]; i < xEnd; i++) {
+			for (int k = viewPos[1]; k < yEnd; k++) {
+				if (grid[i].blocks[k] == null) { continue; }
+				grid[i].blocks[k].queue(
+						gridBasePos[0] + blockSize[0] * (i - viewPos[0]),
+						gridBasePos[1] - blockSize[1] * (k - viewPos[1]),
+						blockSize
+					);
+			}
+		}
+	}
+	
+	/** Keeps the cursor on the grid and scrolls the view to it. */
+	private void clampCursor() {
+		int width = grid.length, height = grid[0].blocks.length;
+		cursorGridPos[0] = Math.max(0, Math.min(width - 1, cursorGridPos[0]));
+		cursorGridPos[1] = Math.max(0, Math.min(height - 1, cursorGridPos[1]));
+		for (int i = 0; i < 2; i++) {
+			if (cursorGridPos[i] < viewPos[i]) { viewPos[i] = cursorGridPos[i]; }
+			else if (cursorGridPos[i] >= viewPos[i] + VIEW_SIZE) { viewPos[i] = cursorGridPos[i] - VIEW_SIZE + 1; }
+		}
+		viewPos[0] = Math.max(0, Math.min(viewPos[0], width - VIEW_SIZE));
+		viewPos[1] = Math.max(0, Math.min(viewPos[1], height - VIEW_SIZE));
+	}
+	
+	/** Called after the grid was replaced by undo, redo, loading or resizing. */
+	private void gridChanged() {
+		int width = grid.length, height = grid[0].blocks.length;
+		if (fillPoint1 != null && (fillPoint1[0] >= width || fillPoint1[1] >= height)
+				|| fillPoint2 != null && (fillPoint2[0] >= width || fillPoint2[1] >= height)) {
+			fillPoint1 = null;
+			fillPoint2 = null;
+		}
+		blocksRemaining = width * height;
+		clampCursor();
+		findWedge();
+	}
+	
+	/**
+	 * Resizes the canvas, keeping the cells that still fit, empty ones included, and filling new cells
+	 * with blue blocks.
+	 * Sizes are kept between 1 and <code>MAX_SIZE</code>.
+	 */
+	private void resize(int width, int height) {
+		width = Math.max(1, Math.min(MAX_SIZE, width));
+		height = Math.max(1, Math.min(MAX_SIZE, height));
+		if (width == grid.length && height == grid[0].blocks.length) { return; }
+		GridColumn[] resized = new GridColumn[width];
+		int keep = Math.min(height, grid[0].blocks.length);
+		Block b;
+		for (int x = 0; x < width; x++) {
+			resized[x] = new GridColumn(height);
+			for (int y = 0; y < height; y++) {
+				if (x < grid.length && y < keep) {
+					b = grid[x].blocks[y];
+					resized[x].blocks[y] = b == null ? null : b.clone();
+				} else {
+					resized[x].blocks[y] = new Block(Block.BlockType.BLOCK, Block.BLUE);
+				}
+			}
+		}
+		history.replaceGrid(grid, resized);
+		grid = resized;
+		gridChanged();
+	}
 
 	
 	private void updateGrid(Block copyBlock) {
-		undo.push(GridColumn.copyGrid(grid));
+		history.begin();
+		try {
+			fillGrid(copyBlock);
+		} finally {
+			history.end();
+		}
+	}
+	
+	private void fillGrid(Block copyBlock) {
 		if (!fillToggle) {
-			grid[cursorGridPos[0]].blocks[cursorGridPos[1]] = copyBlock.clone();
+			history.set(grid, cursorGridPos[0], cursorGridPos[1], copyBlock.clone());
 			return;
 		}
 		
@@ -331,25 +443,148 @@ public class BlockStandardLevelBuilder extends BlockBreakLevel {
 			
 			for (int x = xMin; x <= xMax; x++) {
 				for (int y = yMin; y <= yMax; y++) {
-					grid[x].blocks[y] = copyBlock.clone();
+					history.set(grid, x, y, copyBlock.clone());
 				}
 			}
 		} else {
 			// use matching block defined areas
-			checkGrid(cursorGridPos);
-			for (int j = 0; j < grid.length; j++) {
-				for (int k = 0; k < grid[0].blocks.length; k++) {
-					if (grid[j].blocks[k].clearMark) {
-						grid[j].blocks[k] = copyBlock.clone();
-					}
-				}
-			}
+			floodFill(cursorGridPos[0], cursorGridPos[1], copyBlock);
 		}
+		checkWedge();
 		fillToggle = false;
 		fillPoint1 = null;
 		fillPoint2 = null;
 	}
 	
+	/**
+	 * Replaces the area of blocks matching the block at a cell, same type and same color or bomb
+	 * radius, connected along edges. Uses its own stack, as a large canvas is too deep to recurse.
+	 */
+	private void floodFill(int xc, int yc, Block copyBlock) {
+		int width = grid.length, height = grid[0].blocks.length;
+		Block start = grid[xc].blocks[yc];
+		boolean[] seen = new boolean[width * height];
+		int[] stack = new int[64];
+		int size = 0, cell, x, y;
+		stack[size++] = xc * height + yc;
+		seen[xc * height + yc] = true;
+		while (size > 0) {
+			cell = stack[--size];
+			x = cell / height;
+			y = cell % height;
+			history.set(grid, x, y, copyBlock.clone());
+			// each neighbour is pushed once, so the stack never holds more than every cell
+			for (int n = 0; n < 4; n++) {
+				int nx = x + (n == 0 ? -1 : n == 1 ? 1 : 0);
+				int ny = y + (n == 2 ? -1 : n == 3 ? 1 : 0);
+				if (nx < 0 || ny < 0 || nx >= width || ny >= height) { continue; }
+				int next = nx * height + ny;
+				if (seen[next]) { continue; }
+				if (!sameKind(grid[nx].blocks[ny], start)) { continue; }
+				seen[next] = true;
+				if (size == stack.length) { stack = java.util.Arrays.copyOf(stack, Math.min(size * 2, width * height)); }
+				stack[size++] = next;
+			}
+		}
+	}
+	
+	/** @return <code>true</code> if both cells are empty, or hold blocks of the same type and color */
+	private static boolean sameKind(Block a, Block b) {
+		if (a == null || b == null) { return a == b; }
+		return a.type == b.type && a.colorID == b.colorID;
+	}
+	
+	/** Copies the area between the fill points. */
+	private void copyStamp() {
+		if (fillPoint1 == null || fillPoint2 == null) { return; }
+		int xMin = Math.min(fillPoint1[0], fillPoint2[0]), yMin = Math.min(fillPoint1[1], fillPoint2[1]);
+		int width = Math.abs(fillPoint1[0] - fillPoint2[0]) + 1, height = Math.abs(fillPoint1[1] - fillPoint2[1]) + 1;
+		stamp = new GridColumn.Cells(width, height);
+		for (int x = 0; x < width; x++) {
+			for (int y = 0; y < height; y++) {
+				stamp.set(x, y, GridColumn.codeFromBlock(grid[xMin + x].blocks[yMin + y]));
+			}
+		}
+	}
+	
+	/** Places the copied area with its bottom left cell at the cursor. Wedges are not copied. */
+	private void placeStamp() {
+		int width = Math.min(stamp.width, grid.length - cursorGridPos[0]);
+		int height = Math.min(stamp.height, grid[0].blocks.length - cursorGridPos[1]);
+		int code;
+		for (int x = 0; x < width; x++) {
+			for (int y = 0; y < height; y++) {
+				code = stamp.get(x, y);
+				if (code == GridColumn.CELL_EMPTY || code == 30) { continue; }
+				history.set(grid, cursorGridPos[0] + x, cursorGridPos[1] + y, GridColumn.blockFromCode(code));
+			}
+		}
+		checkWedge();
+	}
+	
+	/**
+	 * Fills the area between the fill points, or the whole canvas when they are not set, with blocks
+	 * picked at random by <code>randomWeights</code>.
+	 */
+	private void randomFill() {
+		int xMin = 0, yMin = 0, xMax = grid.length - 1, yMax = grid[0].blocks.length - 1;
+		if (fillPoint1 != null && fillPoint2 != null) {
+			xMin = Math.min(fillPoint1[0], fillPoint2[0]);
+			yMin = Math.min(fillPoint1[1], fillPoint2[1]);
+			xMax = Math.max(fillPoint1[0], fillPoint2[0]);
+			yMax = Math.max(fillPoint1[1], fillPoint2[1]);
+		}
+		int total = randomWeights[randomWeights.length - 1];
+		int pick;
+		for (int x = xMin; x <= xMax; x++) {
+			for (int y = yMin; y <= yMax; y++) {
+				pick = java.util.Arrays.binarySearch(randomWeights, Global.rand.nextInt(total) + 1);
+				// equal totals belong to the first entry, binarySearch may find any of them
+				if (pick < 0) { pick = -pick - 1; }
+				while (pick > 0 && randomWeights[pick - 1] == randomWeights[pick]) { pick--; }
+				history.set(grid, x, y, list[pick].clone());
+			}
+		}
+		checkWedge();
+	}
+	
+	/** Forgets the wedge if a fill covered it. */
+	private void checkWedge() {
+		if (wedgePos[0] >= 0 && !isType(grid[wedgePos[0]].blocks[wedgePos[1]], Block.BlockType.WEDGE)) {
+			wedgePos[0] = -1;
+			wedgePos[1] = -1;
+		}
+	}
+	
+	/** Changes a bomb's radius by replacing it, as blocks in the grid are kept unchanged for undo. */
+	private void setBombRadius(int x, int y, int radius) {
+		Block bomb = grid[x].blocks[y].clone();
+		bomb.colorID = radius;
+		history.begin();
+		history.set(grid, x, y, bomb);
+		history.end();
+	}
+	
+	/** @return <code>true</code> if the cell holds a block of the type, imported levels can have empty cells */
+	private static boolean isType(Block block, Block.BlockType type) {
+		return block != null && block.type == type;
+	}
+	
+	/** Finds the wedge after the grid was changed by undo, redo or loading. */
+	private void findWedge() {
+		wedgePos[0] = -1;
+		wedgePos[1] = -1;
+		for (int x = 0; x < grid.length; x++) {
+			for (int y = 0; y < grid[x].blocks.length; y++) {
+				if (isType(grid[x].blocks[y], Block.BlockType.WEDGE)) {
+					wedgePos[0] = x;
+					wedgePos[1] = y;
+					return;
+				}
+			}
+		}
+	}
+	
 	@Override	
 	protected void buildGrid(int wudfnlisduhfiu) {
 		grid = new GridColumn[20];
@@ -1,18 +1,11 @@
-import java.io.BufferedReader; // file I/O will be used to load and save preferences
-import java.io.BufferedWriter;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.IOException;
 
-import org.lwjgl.LWJGLException;
 import org.lwjgl.input.Controller;
 import org.lwjgl.input.Keyboard;
-import org.lwjgl.opengl.Display;
 import org.newdawn.slick.Color;
 import org.newdawn.slick.opengl.Texture;
 
 public class Configuration implements GameMode {
-	private LoadState currentState = LoadState.NOT_LOADED;
+	private volatile LoadState currentState = LoadState.NOT_LOADED;
 	
 	private final String title = "Configuration";
 	private final int titleOffset;
@@ -27,6 +20,8 @@ public class Configuration implements GameMode {
 		"Wait For Block Fall",
 		"Fullscreen",
 		"Configure Input",
+		"Frame Rate",
+		"Render Scale",
 		""
 		};
 	
@@ -36,6 +31,8 @@ public class Configuration implements GameMode {
 		new String[] { "Wait", "No Wait" }, // grid wait
 		new String[] { "Fullscreen", "Window" }, // fullscreen
 		new String[] { "Keyboard", "Gamepad" }, // input configuration
+		new String[] { "", "" }, // frame pacing, drawn from paceLabels
+		new String[] { "", "" }, // render scale, drawn from scaleLabels
 		new String[] { "Accept", "Cancel" } // save or discard changes
 	};
 	
@@ -45,10 +42,26 @@ public class Configuration implements GameMode {
 		new int[] { 239, 603, 876 } // center
 	};
 	
+	/** Menu row of the frame pacing setting. */
+	private final int paceRow = 5;
+	/* Frame pacing choices, the configuration screen steps through these in order */
+	private static final String[] paceLabels = new String[] {
+		"VSync", "Adaptive", "30 FPS", "60 FPS", "120 FPS", "144 FPS", "240 FPS", "Uncapped"
+	};
+	private static final FramePacer.Mode[] paceModes = new FramePacer.Mode[] {
+		FramePacer.Mode.VSYNC, FramePacer.Mode.ADAPTIVE,
+		FramePacer.Mode.FIXED, FramePacer.Mode.FIXED, FramePacer.Mode.FIXED,
+		FramePacer.Mode.FIXED, FramePacer.Mode.FIXED,
+		FramePacer.Mode.UNCAPPED
+	};
+	private static final int[] paceCaps = new int[] { 0, 0, 30, 60, 120, 144, 240, 0 };
+	/** Menu row of the render scale setting. */
+	private final int scaleRow = 6;
+	private static final String[] scaleLabels = new String[] { "50%", "75%", "100%", "150%", "200%" };
+	private static final float[] scaleValues = new float[] { 0.5f, 0.75f, 1.0f, 1.5f, 2.0f };
+	
 	private int select = 0;
-	private int selectMax = menus.length;
-	private long inputReadDelayTimer = Global.inputReadDelayTimer;
-	private long inputDelay = Global.inputReadDelayTimer;
+	private int selectMax = menus.length - 1;
 	
 	
 	private final int delayMin = 8;
@@ -73,21 +86,16 @@ public class Configuration implements GameMode {
 		titleOffset = Global.getFont48DrawSize(title) / 2;
 		settings = new int[] {
 			(int)Global.inputReadDelayTimer / 10,
-			Global.fullscreen ? 1 : 0, // fullscreen
 			Global.useBlockCascading ? 1 : 0,
 			Global.waitForGridMovement ? 1 : 0,
+			Global.fullscreen ? 1 : 0, // fullscreen
 			0, // input config
+			getPaceIndex(), // frame pacing
+			getScaleIndex(), // render scale
 			0 // accept/cancel
 		};
 		
-		originalSettings = new int[] {
-				(int)Global.inputReadDelayTimer / 10,
-				Global.fullscreen ? 1 : 0, // fullscreen
-				Global.useBlockCascading ? 1 : 0,
-				Global.waitForGridMovement ? 1 : 0,
-				0, // input config
-				0 // accept/cancel
-			};
+		originalSettings = settings.clone();
 		
 		
 		background = new Sprite(
@@ -137,6 +145,11 @@ public class Configuration implements GameMode {
 		// TODO Auto-generated method stub
 		return currentState;
 	}
+	
+	@Override
+	public float getLoadProgress() {
+		return currentState == LoadState.NOT_LOADED || currentState == LoadState.LOADING_ASSETS ? 0f : 1f;
+	}
 
 	@Override
 	public void run() {
@@ -147,9 +160,9 @@ public class Configuration implements GameMode {
 		
 		int barW = ( (settings[0] * 100) / delayMax ) * 5;
 		
-		for (int i = 0, ys = 200; i < menus.length; i++, ys += 80) {
+		for (int i = 0, ys = 200; i < menus.length; i++, ys += 70) {
 			shader.bind();
-			if (i < 5) { // do not draw for last option
+			if (i < menus.length - 1) { // do not draw for last option
 				Global.uiTransWhite.draw(spacing[0][0], ys, spacing[1][0], 54);
 			}
 			if (i == 0) {
@@ -159,6 +172,9 @@ public class Configuration implements GameMode {
 				sensBar[1].draw(spacing[0][1] + 24, ys + 12, new int[] { barW, 24 });
 				sensBar[2].draw(spacing[0][1] + barW + 24, ys + 12);
 				shader.bind();
+			} else if (i == paceRow || i == scaleRow) {
+				// single wide box spanning both option columns
+				Global.uiTransWhite.draw(spacing[0][1], ys, spacing[0][2] + spacing[1][2] - spacing[0][1], 54);
 			} else {
 				Global.uiTransWhite.draw(spacing[0][1], ys, spacing[1][1], 54);
 				Global.uiTransWhite.draw(spacing[0][2], ys, spacing[1][2], 54);
@@ -169,7 +185,10 @@ public class Configuration implements GameMode {
 			} else {
 				Global.drawFont48(spacing[2][0], ys + 10, menus[i], Color.black, true);
 			}
-			if (i > 0 && (settings[i] % 2) == 1) {
+			if (i == paceRow || i == scaleRow) {
+				Global.drawFont48((spacing[0][1] + spacing[0][2] + spacing[1][2]) / 2, ys + 10,
+						i == paceRow ? getPaceLabel() : getScaleLabel(), Color.cyan, true);
+			} else if (i > 0 && (settings[i] % 2) == 1) {
 				Global.drawFont48(spacing[2][1], ys + 10, options[i][0], Color.cyan, true);
 				Global.drawFont48(spacing[2][2], ys + 10, options[i][1], Color.gray, true);
 			} else {
@@ -188,27 +207,23 @@ public class Configuration implements GameMode {
 
 	
 	private void processInput() {
-		inputDelay -= Global.delta;
-		if (inputDelay > 0) { return; }
-		if (Global.getControlActive(Global.GameControl.CANCEL)) {
+		if (InputQueue.takePress(Global.GameControl.CANCEL)) {
 			cleanup();
 			return;
 		}
 		
-		if (Global.getControlActive(Global.GameControl.UP)) {
+		if (InputQueue.take(Global.GameControl.UP)) {
 			select --;
 			if (select < 0) { select = 0; }
-			inputDelay = inputReadDelayTimer;
 		} else 
-		if (Global.getControlActive(Global.GameControl.DOWN)) {
+		if (InputQueue.take(Global.GameControl.DOWN)) {
 			select++;
 			if (select > selectMax) {
 				select = selectMax;
 			}
-			inputDelay = inputReadDelayTimer;
 		}
 
-		if (Global.getControlActive(Global.GameControl.SELECT)) {
+		if (InputQueue.takePress(Global.GameControl.SELECT)) {
 			switch (select) {
 				case 3: // window/fullscreen switch 
 					
@@ -216,7 +231,7 @@ public class Configuration implements GameMode {
 				case 4: // goto input config for keyboard/gamepad
 					
 					break;
-				case 5: // accept/cancel and leave screen
+				case 7: // accept/cancel and leave screen
 					if (settings[select] % 2 == 0) {
 						commitSettings();
 					} else {
@@ -230,16 +245,19 @@ public class Configuration implements GameMode {
 		}
 		
 		int action = 0;
-		if (Global.getControlActive(Global.GameControl.LEFT)) {
+		if (InputQueue.take(Global.GameControl.LEFT)) {
 			action = -1;
-			inputDelay = inputReadDelayTimer;
 		} else
-		if (Global.getControlActive(Global.GameControl.RIGHT)) {
+		if (InputQueue.take(Global.GameControl.RIGHT)) {
 			action = 1;
-			inputDelay = inputReadDelayTimer;
 		}		
 		if (action != 0) {
-			if (select > 0) {
+			if (select == paceRow) {
+				// step through the frame pacing choices without wrapping
+				settings[paceRow] = Math.max(0, Math.min(paceLabels.length - 1, settings[paceRow] + action));
+			} else if (select == scaleRow) {
+				settings[scaleRow] = Math.max(0, Math.min(scaleLabels.length - 1, settings[scaleRow] + action));
+			} else if (select > 0) {
 				settings[select] += action;
 			} else {
 				settings[0] += action;
@@ -261,13 +279,48 @@ public class Configuration implements GameMode {
 		boolean fc = settings[3] % 2 == 1 ? true : false;
 		if (Global.fullscreen != fc) {
 			Global.fullscreen = fc;
-			try {
-				Display.setFullscreen(Global.fullscreen);
-			} catch (LWJGLException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+			RenderTarget.setDisplayMode(Global.fullscreen);
+		}
+		// a negative index is a custom cap from game.settings that was left unchanged
+		if (settings[paceRow] >= 0) {
+			Global.framePacing = paceModes[settings[paceRow]];
+			if (paceCaps[settings[paceRow]] > 0) {
+				Global.frameRateCap = paceCaps[settings[paceRow]];
 			}
 		}
+		// a negative index is a custom scale from game.settings that was left unchanged
+		if (settings[scaleRow] >= 0) {
+			Global.renderScale = scaleValues[settings[scaleRow]];
+		}
+	}
+	
+	/** @return The index in the frame pacing choices that matches the current setting, or -1 if none do. */
+	private static int getPaceIndex() {
+		for (int i = 0; i < paceModes.length; i++) {
+			if (paceModes[i] == Global.framePacing
+					&& (paceModes[i] != FramePacer.Mode.FIXED || paceCaps[i] == Global.frameRateCap)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/** @return The index in the render scale choices that matches the current setting, or -1 if none do. */
+	private static int getScaleIndex() {
+		for (int i = 0; i < scaleValues.length; i++) {
+			if (scaleValues[i] == Global.renderScale) { return i; }
+		}
+		return -1;
+	}
+	
+	private String getScaleLabel() {
+		if (settings[scaleRow] >= 0) { return scaleLabels[settings[scaleRow]]; }
+		return String.format("%d%%", Math.round(Global.renderScale * 100));
+	}
+	
+	private String getPaceLabel() {
+		if (settings[paceRow] >= 0) { return paceLabels[settings[paceRow]]; }
+		return String.format("%d FPS", Global.frameRateCap);
 	}
 	
 	private void resetSettings() {
@@ -284,19 +337,45 @@ public class Configuration implements GameMode {
 	}
 	
 	
+	/**
+	 * Reads the configurable values in Global from the settings store. Values that are missing or
+	 * invalid keep their defaults.
+	 */
 	public static void loadSettings() {
-		String filename = "game.conf";
+		SettingsStore.load();
+		Global.inputReadDelayTimer = SettingsStore.getLong("inputReadDelayTimer", Global.inputReadDelayTimer);
+		Global.useBlockCascading = SettingsStore.getBoolean("useBlockCascading", Global.useBlockCascading);
+		Global.waitForGridMovement = SettingsStore.getBoolean("waitForGridMovement", Global.waitForGridMovement);
+		Global.fullscreen = SettingsStore.getBoolean("fullscreen", Global.fullscreen);
+		String pacing = SettingsStore.getString("framePacing", Global.framePacing.name());
 		try {
-			BufferedReader inf = new BufferedReader( new FileReader(filename));
-			
-			inf.close();
-		} catch (IOException err) {
-			
+			Global.framePacing = FramePacer.Mode.valueOf(pacing.toUpperCase());
+		} catch (IllegalArgumentException err) {
+			Global.writeToLog(String.format("Ignoring invalid frame pacing setting: %s", pacing), true);
 		}
+		Global.frameRateCap = Math.max(1, SettingsStore.getInt("frameRateCap", Global.frameRateCap));
+		Global.renderScale = Math.max(RenderTarget.MIN_SCALE,
+				Math.min(RenderTarget.MAX_SCALE, SettingsStore.getFloat("renderScale", Global.renderScale)));
+		Global.winWidth = Math.max(320, SettingsStore.getInt("windowWidth", Global.winWidth));
+		Global.winHeight = Math.max(240, SettingsStore.getInt("windowHeight", Global.winHeight));
 	}
 	
+	/**
+	 * Stores the configurable values in Global. The store writes them in the background.
+	 */
 	public static void saveSettings() {
-		
+		SettingsStore.putLong("inputReadDelayTimer", Global.inputReadDelayTimer);
+		SettingsStore.putBoolean("useBlockCascading", Global.useBlockCascading);
+		SettingsStore.putBoolean("waitForGridMovement", Global.waitForGridMovement);
+		SettingsStore.putBoolean("fullscreen", Global.fullscreen);
+		SettingsStore.putString("framePacing", Global.framePacing.name());
+		SettingsStore.putInt("frameRateCap", Global.frameRateCap);
+		SettingsStore.putFloat("renderScale", Global.renderScale);
+		if (!Global.fullscreen) {
+			// the window size is only meaningful in windowed mode, fullscreen uses the desktop size
+			SettingsStore.putInt("windowWidth", Global.winWidth);
+			SettingsStore.putInt("windowHeight", Global.winHeight);
+		}
 	}
 
 	public static void setupDefaultValues() {
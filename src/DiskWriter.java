@@ -0,0 +1,75 @@
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The background thread that writes the game's files: settings, session files, scores and the log.
+ * Work runs one piece at a time in the order it was queued, at low priority, so a slow disk never holds
+ * up a frame and the writes do not compete with each other.
+ * <p>
+ * At exit the classes that batch their writes queue what they still hold, then <code>shutdown()</code>
+ * waits for everything queued against one shared deadline. Work queued after that runs straight away on
+ * the caller's thread.
+ * @author John Ojala
+ */
+public final class DiskWriter {
+	/** Longest time the program waits at exit for queued writes. */
+	public static final long SHUTDOWN_WAIT_MILLIS = 2000;
+
+	private static ScheduledThreadPoolExecutor executor = null;
+	private static boolean stopped = false;
+
+	private DiskWriter() { }
+
+	/**
+	 * Queues work to run on the writer thread.
+	 * @param task The work, which handles its own errors
+	 */
+	public static void execute(Runnable task) {
+		schedule(task, 0);
+	}
+
+	/**
+	 * Queues work to run on the writer thread after a delay, so further changes can be gathered into
+	 * the same write. Delayed work still waiting at exit is dropped; flush it before
+	 * <code>shutdown()</code>.
+	 * @param task The work, which handles its own errors
+	 * @param delayMillis Time to wait before running it
+	 */
+	public static void schedule(Runnable task, long delayMillis) {
+		synchronized (DiskWriter.class) {
+			if (!stopped) {
+				if (executor == null) {
+					executor = new ScheduledThreadPoolExecutor(1, r -> {
+						Thread t = new Thread(r, "DiskWriter");
+						t.setDaemon(true);
+						t.setPriority(Thread.MIN_PRIORITY);
+						return t;
+					});
+					executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+				}
+				executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+				return;
+			}
+		}
+		task.run();
+	}
+
+	/** Waits a short time for queued writes to finish. Called once when the program exits. */
+	public static void shutdown() {
+		ScheduledThreadPoolExecutor e;
+		synchronized (DiskWriter.class) {
+			stopped = true;
+			e = executor;
+			executor = null;
+		}
+		if (e == null) { return; }
+		e.shutdown();
+		try {
+			if (!e.awaitTermination(SHUTDOWN_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+				Global.writeToLog("Files were not all written before exit.", true);
+			}
+		} catch (InterruptedException err) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
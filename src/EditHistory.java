@@ -0,0 +1,203 @@
+import java.util.ArrayDeque;
+
+/**
+ * Undo and redo history for the level editor. Each step records only the cells it changed, the block
+ * that was there before and the block put in its place, so a step painting one cell costs a few bytes
+ * however large the grid is.
+ * <p>
+ * Changes are made through <code>set()</code> between <code>begin()</code> and <code>end()</code>, and
+ * become one step. A step that only changes cells the previous step changed, made within
+ * <code>COALESCE_MILLIS</code> of it, is merged into that step, so tapping a key repeatedly on one cell
+ * undoes in one go. The oldest steps are forgotten when the history grows past its memory limit.
+ * <p>
+ * Replacing the whole grid (loading a level, resizing) is recorded with <code>replaceGrid()</code>,
+ * which keeps both grids.
+ * @author John Ojala
+ */
+public class EditHistory {
+	/** Steps made closer together than this over the same cells are merged. */
+	public static final long COALESCE_MILLIS = 600;
+	/** Largest step that later steps are merged into. */
+	private static final int COALESCE_CELLS = 64;
+	/** Rough memory use of one recorded cell: its position, two references and two blocks. */
+	private static final long CELL_BYTES = 4 + 8 + 2 * 48;
+
+	/** One undoable step. */
+	private static final class Step {
+		int count = 0;
+		int[] cells = new int[8];
+		Block[] before = new Block[8];
+		Block[] after = new Block[8];
+		/** Set instead of the cells when the whole grid was replaced. */
+		GridColumn[] gridBefore, gridAfter;
+		long time;
+
+		void add(int cell, Block was, Block now) {
+			if (count == cells.length) {
+				int size = count * 2;
+				cells = java.util.Arrays.copyOf(cells, size);
+				before = java.util.Arrays.copyOf(before, size);
+				after = java.util.Arrays.copyOf(after, size);
+			}
+			cells[count] = cell;
+			before[count] = was;
+			after[count] = now;
+			count++;
+		}
+
+		int indexOf(int cell) {
+			for (int i = 0; i < count; i++) {
+				if (cells[i] == cell) { return i; }
+			}
+			return -1;
+		}
+
+		long bytes() {
+			if (gridBefore != null) {
+				return CELL_BYTES / 2 * ((long) gridBefore.length * gridBefore[0].blocks.length
+					+ (long) gridAfter.length * gridAfter[0].blocks.length);
+			}
+			return CELL_BYTES * cells.length;
+		}
+	}
+
+	private final ArrayDeque<Step> undo = new ArrayDeque<Step>();
+	private final ArrayDeque<Step> redo = new ArrayDeque<Step>();
+	private final long maxBytes;
+	private long bytes = 0;
+	private Step current = null;
+
+	/**
+	 * @param maxBytes Approximate memory the history may use before the oldest steps are forgotten
+	 */
+	public EditHistory(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/** Starts a step. */
+	public void begin() {
+		current = new Step();
+	}
+
+	/**
+	 * Puts a block in the grid, recording the change in the current step. Blocks must not be changed
+	 * once they are in the grid; put a changed copy in instead.
+	 * @param grid The grid being edited
+	 * @param x Column
+	 * @param y Row
+	 * @param block The new block, or <code>null</code> to empty the cell
+	 */
+	public void set(GridColumn[] grid, int x, int y, Block block) {
+		Block was = grid[x].blocks[y];
+		if (was == block) { return; }
+		grid[x].blocks[y] = block;
+		// a cell changed twice in one step is simply recorded twice, undo runs backwards
+		current.add(x << 16 | y, was, block);
+	}
+
+	/**
+	 * Ends the current step, adding it to the history unless it changed nothing. Clears the redo
+	 * history when a step is added.
+	 */
+	public void end() {
+		Step s = current;
+		current = null;
+		if (s == null || s.count == 0) { return; }
+		s.time = System.currentTimeMillis();
+		clearRedo();
+		Step last = undo.peekFirst();
+		if (last != null && last.gridBefore == null && s.time - last.time < COALESCE_MILLIS && covers(last, s)) {
+			bytes -= last.bytes();
+			for (int i = 0; i < s.count; i++) {
+				last.add(s.cells[i], s.before[i], s.after[i]);
+			}
+			last.time = s.time;
+			bytes += last.bytes();
+			trim();
+			return;
+		}
+		push(s);
+	}
+
+	/** Only small steps are merged, so checking costs little. */
+	private static boolean covers(Step last, Step s) {
+		if (last.count > COALESCE_CELLS) { return false; }
+		for (int i = 0; i < s.count; i++) {
+			if (last.indexOf(s.cells[i]) < 0) { return false; }
+		}
+		return true;
+	}
+
+	/**
+	 * Records a replacement of the whole grid as one step.
+	 * @param old The grid before
+	 * @param replacement The grid after, which the editor now uses
+	 */
+	public void replaceGrid(GridColumn[] old, GridColumn[] replacement) {
+		Step s = new Step();
+		s.cells = null;
+		s.before = s.after = null;
+		s.gridBefore = old;
+		s.gridAfter = replacement;
+		s.time = System.currentTimeMillis();
+		clearRedo();
+		push(s);
+	}
+
+	private void push(Step s) {
+		undo.push(s);
+		bytes += s.bytes();
+		trim();
+	}
+
+	private void clearRedo() {
+		for (Step s : redo) { bytes -= s.bytes(); }
+		redo.clear();
+	}
+
+	/** Forgets the oldest steps while the history is over its limit, always keeping the newest. */
+	private void trim() {
+		while (bytes > maxBytes && undo.size() > 1) {
+			bytes -= undo.removeLast().bytes();
+		}
+	}
+
+	public boolean canUndo() { return !undo.isEmpty(); }
+	public boolean canRedo() { return !redo.isEmpty(); }
+
+	/** @return Approximate memory used by the history */
+	public long getBytes() { return bytes; }
+
+	/**
+	 * Reverts the newest step.
+	 * @param grid The grid being edited
+	 * @return The grid to edit from now on, a different one if the step replaced the grid
+	 */
+	public GridColumn[] undo(GridColumn[] grid) {
+		Step s = undo.poll();
+		if (s == null) { return grid; }
+		redo.push(s);
+		if (s.gridBefore != null) { return s.gridBefore; }
+		// in reverse, so a cell recorded twice ends with its first block
+		for (int i = s.count - 1; i >= 0; i--) {
+			grid[s.cells[i] >>> 16].blocks[s.cells[i] & 0xFFFF] = s.before[i] == null ? null : s.before[i].clone();
+		}
+		return grid;
+	}
+
+	/**
+	 * Repeats the newest undone step.
+	 * @param grid The grid being edited
+	 * @return The grid to edit from now on, a different one if the step replaced the grid
+	 */
+	public GridColumn[] redo(GridColumn[] grid) {
+		Step s = redo.poll();
+		if (s == null) { return grid; }
+		undo.push(s);
+		if (s.gridAfter != null) { return s.gridAfter; }
+		for (int i = 0; i < s.count; i++) {
+			grid[s.cells[i] >>> 16].blocks[s.cells[i] & 0xFFFF] = s.after[i] == null ? null : s.after[i].clone();
+		}
+		return grid;
+	}
+}
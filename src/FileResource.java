@@ -1,16 +1,21 @@
 
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 public final class FileResource {
 	
 	public static String requestResource(String file) throws IOException { 
 		Path resourcePath;
 		Path reqPath = Paths.get(file).toAbsolutePath();
-		Global.writeToLog(String.format("Loading resource file: %s...", file));
 		//try {
 			resourcePath = reqPath.toRealPath(LinkOption.NOFOLLOW_LINKS);
 		/*} catch (IOException e) {
@@ -19,8 +24,30 @@ public final class FileResource {
 			e.printStackTrace();
 			return null;
 		}*/
-		Global.writeToLog(String.format("Success."));
-		Global.writeToLog(String.format("\t%s\n", resourcePath.toString()));
+		GameLog.debug("Loaded resource file: %s\n\t%s", file, resourcePath);
 		return resourcePath.toString();
 	}
+	
+	/**
+	 * Replaces a file without ever leaving it partly written. The data is written and synced to a
+	 * temporary file beside the target, which is then renamed over the target.
+	 * @param file The file to write
+	 * @param data The complete new contents
+	 * @throws IOException If the file can not be written, the old contents are left in place
+	 */
+	public static void writeAtomically(String file, byte[] data) throws IOException {
+		Path target = Paths.get(file);
+		Path temp = Paths.get(file + ".tmp");
+		try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buf = ByteBuffer.wrap(data);
+			while (buf.hasRemaining()) { out.write(buf); }
+			out.force(true);
+		}
+		try {
+			Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
 }
@@ -0,0 +1,96 @@
+import java.awt.Font;
+import java.awt.FontFormatException;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.newdawn.slick.util.ResourceLoader;
+
+/**
+ * Rasterizes an AWT font into a <code>BakedFont</code> atlas. Kept apart from <code>BakedFont</code> so
+ * AWT is only loaded when a font has to be baked.
+ * <p>
+ * Glyphs are drawn the same way Slick's <code>TrueTypeFont</code> draws them, without antialiasing, each
+ * in a cell as wide as the character's advance and as tall as the font, so baked text has the same
+ * spacing as before.
+ * @author John Ojala
+ */
+final class FontBaker {
+	/** Width of the atlas texture. The height is the next power of two that fits every glyph. */
+	private static final int ATLAS_WIDTH = 512;
+	/** Empty pixels between glyphs in the atlas. */
+	private static final int PADDING = 1;
+
+	private FontBaker() { }
+
+	/**
+	 * @param family Name of an installed font, used when <code>fontFile</code> is <code>null</code>
+	 * @param fontFile Resource path of a TrueType font file, or <code>null</code> to use <code>family</code>
+	 * @param style <code>BakedFont.PLAIN</code> or <code>BakedFont.BOLD</code>
+	 * @param size Font size in points
+	 * @return The baked font, not yet uploaded
+	 * @throws IOException If the font file can not be read
+	 */
+	static BakedFont bake(String family, String fontFile, int style, int size) throws IOException {
+		Font font;
+		if (fontFile == null) {
+			font = new Font(family, style, size);
+		} else {
+			try (InputStream in = ResourceLoader.getResourceAsStream(fontFile)) {
+				font = Font.createFont(Font.TRUETYPE_FONT, in).deriveFont(style, (float) size);
+			} catch (FontFormatException e) {
+				throw new IOException("Invalid font file " + fontFile, e);
+			}
+		}
+
+		// measure with a scratch image
+		BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = scratch.createGraphics();
+		g.setFont(font);
+		FontMetrics metrics = g.getFontMetrics();
+		g.dispose();
+		int cellHeight = metrics.getHeight() > 0 ? metrics.getHeight() : size;
+
+		// lay the glyphs out in rows
+		int[] x = new int[BakedFont.GLYPHS], y = new int[BakedFont.GLYPHS];
+		int[] w = new int[BakedFont.GLYPHS], h = new int[BakedFont.GLYPHS];
+		int penX = 0, penY = 0;
+		for (int c = 0; c < BakedFont.GLYPHS; c++) {
+			w[c] = Math.max(1, metrics.charWidth((char) c));
+			h[c] = cellHeight;
+			if (penX + w[c] > ATLAS_WIDTH) {
+				penX = 0;
+				penY += cellHeight + PADDING;
+			}
+			x[c] = penX;
+			y[c] = penY;
+			penX += w[c] + PADDING;
+		}
+		int height = Integer.highestOneBit(Math.max(1, penY + cellHeight - 1)) << 1;
+
+		BufferedImage atlas = new BufferedImage(ATLAS_WIDTH, height, BufferedImage.TYPE_INT_ARGB);
+		g = atlas.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_OFF);
+		g.setFont(font);
+		g.setColor(java.awt.Color.WHITE);
+		for (int c = 0; c < BakedFont.GLYPHS; c++) {
+			// clip so a glyph that overhangs its advance does not draw into its neighbour
+			g.setClip(x[c], y[c], w[c], h[c]);
+			g.drawString(String.valueOf((char) c), x[c], y[c] + metrics.getAscent());
+		}
+		g.dispose();
+
+		byte[] alpha = new byte[ATLAS_WIDTH * height];
+		int[] row = new int[ATLAS_WIDTH];
+		for (int py = 0; py < height; py++) {
+			atlas.getRGB(0, py, ATLAS_WIDTH, 1, row, 0, ATLAS_WIDTH);
+			for (int px = 0; px < ATLAS_WIDTH; px++) {
+				alpha[py * ATLAS_WIDTH + px] = (byte) (row[px] >>> 24);
+			}
+		}
+		return new BakedFont(cellHeight, ATLAS_WIDTH, height, x, y, w, h, alpha);
+	}
+}
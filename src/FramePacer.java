@@ -0,0 +1,219 @@
+import java.util.Arrays;
+
+import org.lwjgl.opengl.Display;
+import org.lwjgl.opengl.DisplayMode;
+
+/**
+ * Controls how long each frame is held before the next one starts, and keeps a running record of
+ * frame times. The pacing mode and frame cap are read from <code>Global.framePacing</code> and
+ * <code>Global.frameRateCap</code> every frame, so a change made in the configuration screen takes
+ * effect on the next frame.
+ * <p>
+ * Fixed caps are held with a hybrid limiter: the thread sleeps in 1ms steps while the deadline is far
+ * away, then yields in a spin for the last stretch. The spin window follows the worst oversleep seen
+ * recently, so on systems with a coarse sleep timer more of the wait is spent spinning.
+ * @author John Ojala
+ */
+public final class FramePacer {
+	/**
+	 * Frame pacing modes.
+	 * @author John Ojala
+	 */
+	public enum Mode {
+		/** Frames are held by the display's vertical sync. */
+		VSYNC,
+		/** Frames are capped at <code>Global.frameRateCap</code> by the limiter, vsync is off. */
+		FIXED,
+		/** No waiting between frames. */
+		UNCAPPED,
+		/** Vertical sync while the game keeps up with the display, the limiter at the refresh rate when it does not. */
+		ADAPTIVE
+	}
+
+	/** The number of frame times kept for the statistics. Must be a power of two. */
+	private static final int SAMPLE_COUNT = 1024;
+	private static final long NANOS_PER_SECOND = 1000000000L;
+	private static final long SLEEP_NANOS = 1000000L;
+	private static final long MIN_SPIN_NANOS = 250000L;
+	private static final long MAX_SPIN_NANOS = 4000000L;
+	/** Refresh rate used when the display does not report one. */
+	private static final int DEFAULT_REFRESH = 60;
+	/** Consecutive missed refreshes before adaptive mode turns vsync off. */
+	private static final int ADAPTIVE_MISS_LIMIT = 3;
+	/** Consecutive frames with spare time before adaptive mode turns vsync back on. */
+	private static final int ADAPTIVE_RECOVER_FRAMES = 120;
+
+	private static Mode appliedMode = null;
+	private static boolean vsync = false;
+	/** Time at which the current frame may end, used by the limiter. */
+	private static long nextDeadline = 0;
+	/** Time at which the last frame ended. */
+	private static long lastFrameEnd = 0;
+	/** The portion of a wait spent spinning instead of sleeping. */
+	private static long spinNanos = 2000000L;
+	private static int missedFrames = 0;
+	private static int spareFrames = 0;
+
+	/* Frame time record, in nanoseconds */
+	private static final long[] samples = new long[SAMPLE_COUNT];
+	private static final long[] sorted = new long[SAMPLE_COUNT];
+	private static int sampleCount = 0;
+	private static int sampleIndex = 0;
+	private static final double[] reportPercentiles = new double[] { 50, 95, 99, 100 };
+	private static final double[] reportValues = new double[4];
+
+	private FramePacer() { }
+
+	/**
+	 * Ends the frame, waiting as long as the current pacing mode requires. Called once per frame
+	 * after <code>Display.update()</code>.
+	 */
+	public static void endFrame() {
+		Mode mode = Global.framePacing;
+		if (mode != appliedMode) { applyMode(mode); }
+		long now = System.nanoTime();
+		long work = lastFrameEnd == 0 ? 0 : now - lastFrameEnd;
+
+		switch (mode) {
+			case FIXED:
+				limit(now, Global.frameRateCap);
+				break;
+			case ADAPTIVE:
+				adapt(work);
+				if (!vsync) { limit(now, getRefreshRate()); }
+				break;
+			default:
+				// vsync waits inside Display.update, uncapped does not wait at all
+				break;
+		}
+
+		now = System.nanoTime();
+		if (lastFrameEnd != 0) { record(now - lastFrameEnd); }
+		lastFrameEnd = now;
+	}
+
+	private static void applyMode(Mode mode) {
+		setVSync(mode == Mode.VSYNC || mode == Mode.ADAPTIVE);
+		appliedMode = mode;
+		nextDeadline = 0;
+		missedFrames = 0;
+		spareFrames = 0;
+	}
+
+	private static void setVSync(boolean enabled) {
+		vsync = enabled;
+		Display.setVSyncEnabled(enabled);
+	}
+
+	/**
+	 * Adaptive mode: when vsync is on and the frame took longer than one refresh, the swap waited for
+	 * the following refresh and the frame rate halves. After a few of those in a row vsync is turned
+	 * off so a slow frame tears instead. It is turned back on once frames finish well inside a refresh.
+	 * @param work The time (nanoseconds) since the previous frame ended, including any vsync wait
+	 */
+	private static void adapt(long work) {
+		if (work == 0) { return; }
+		long period = NANOS_PER_SECOND / getRefreshRate();
+		if (vsync) {
+			if (work > period + period / 2) {
+				if (++missedFrames >= ADAPTIVE_MISS_LIMIT) {
+					setVSync(false);
+					missedFrames = 0;
+					nextDeadline = 0;
+				}
+			} else {
+				missedFrames = 0;
+			}
+		} else {
+			if (work < (period * 3) / 4) {
+				if (++spareFrames >= ADAPTIVE_RECOVER_FRAMES) {
+					setVSync(true);
+					spareFrames = 0;
+				}
+			} else {
+				spareFrames = 0;
+			}
+		}
+	}
+
+	/**
+	 * Waits until the next frame deadline for the given rate. Deadlines advance by a fixed period so
+	 * small errors do not accumulate; if the game falls more than a frame behind the schedule is
+	 * restarted instead of running several frames back to back to catch up.
+	 */
+	private static void limit(long now, int fps) {
+		if (fps <= 0) { return; }
+		long period = NANOS_PER_SECOND / fps;
+		if (nextDeadline == 0 || now - nextDeadline > period) {
+			nextDeadline = now + period;
+		} else {
+			nextDeadline += period;
+		}
+		waitUntil(nextDeadline);
+	}
+
+	private static void waitUntil(long deadline) {
+		long before, overshoot;
+		while (deadline - System.nanoTime() > SLEEP_NANOS + spinNanos) {
+			before = System.nanoTime();
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			overshoot = System.nanoTime() - before - SLEEP_NANOS;
+			// follow a late wake up right away, and shrink the window slowly after it
+			if (overshoot > spinNanos) {
+				spinNanos = Math.min(overshoot, MAX_SPIN_NANOS);
+			} else {
+				spinNanos = Math.max(MIN_SPIN_NANOS, spinNanos - (spinNanos - overshoot) / 64);
+			}
+		}
+		while (deadline - System.nanoTime() > 0) {
+			Thread.yield();
+		}
+	}
+
+	private static void record(long nanos) {
+		samples[sampleIndex] = nanos;
+		sampleIndex = (sampleIndex + 1) & (SAMPLE_COUNT - 1);
+		if (sampleCount < SAMPLE_COUNT) { sampleCount++; }
+	}
+
+	/** @return The refresh rate of the current display mode, or 60 if it is not reported. */
+	public static int getRefreshRate() {
+		DisplayMode dm = Global.fullscreen ? Display.getDisplayMode() : Display.getDesktopDisplayMode();
+		int freq = dm == null ? 0 : dm.getFrequency();
+		return freq > 0 ? freq : DEFAULT_REFRESH;
+	}
+
+	/** @return <code>true</code> if vertical sync is currently enabled by the pacer. */
+	public static boolean isVSyncActive() { return vsync; }
+
+	/**
+	 * Fills in frame time percentiles over the recorded frames.
+	 * @param pct The percentiles to look up, from 0 to 100
+	 * @param out Receives the frame time (milliseconds) for each percentile
+	 * @return <code>false</code> if no frames have been recorded yet
+	 */
+	public static boolean getPercentiles(double[] pct, double[] out) {
+		if (sampleCount == 0) { return false; }
+		System.arraycopy(samples, 0, sorted, 0, sampleCount);
+		Arrays.sort(sorted, 0, sampleCount);
+		int index;
+		for (int i = 0; i < pct.length; i++) {
+			index = (int) Math.ceil(pct[i] / 100.0 * sampleCount) - 1;
+			index = Math.max(0, Math.min(sampleCount - 1, index));
+			out[i] = sorted[index] / 1000000.0;
+		}
+		return true;
+	}
+
+	/** @return A short report of the frame time p50, p95, p99 and max, in milliseconds. */
+	public static String getFrameReport() {
+		if (!getPercentiles(reportPercentiles, reportValues)) { return "no frames"; }
+		return String.format("p50 %.1f p95 %.1f p99 %.1f max %.1f ms",
+				reportValues[0], reportValues[1], reportValues[2], reportValues[3]);
+	}
+}
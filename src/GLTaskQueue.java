@@ -0,0 +1,55 @@
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Passes work that needs the OpenGL context to the render thread. OpenGL calls are only valid on the
+ * thread that created the display, so background loaders queue their GL work here and the main loop
+ * runs it between frames with <code>runPending()</code>.
+ * @author John Ojala
+ */
+public final class GLTaskQueue {
+	private static volatile Thread glThread = null;
+	private static final ConcurrentLinkedQueue<FutureTask<?>> tasks = new ConcurrentLinkedQueue<FutureTask<?>>();
+
+	private GLTaskQueue() { }
+
+	/** Marks the calling thread as the render thread. Called once when the display is created. */
+	public static void setGLThread() { glThread = Thread.currentThread(); }
+
+	/** @return <code>true</code> if the calling thread is the render thread. */
+	public static boolean isGLThread() { return Thread.currentThread() == glThread; }
+
+	/**
+	 * Runs a task on the render thread and waits for its result. When called from the render thread the
+	 * task is run immediately.
+	 * @param task The work to run
+	 * @return The task's result
+	 * @throws ExecutionException If the task threw an exception, available through <code>getCause()</code>
+	 * @throws InterruptedException If the calling thread was interrupted while waiting
+	 */
+	public static <T> T invokeAndWait(Callable<T> task) throws ExecutionException, InterruptedException {
+		FutureTask<T> future = new FutureTask<T>(task);
+		if (isGLThread()) {
+			future.run();
+		} else {
+			tasks.add(future);
+		}
+		return future.get();
+	}
+
+	/**
+	 * Runs queued tasks on the render thread until the time budget is used. At least one task is run if
+	 * any are waiting, so loading always advances.
+	 * @param budgetNanos The time (nanoseconds) that may be spent on queued tasks this frame
+	 */
+	public static void runPending(long budgetNanos) {
+		long end = System.nanoTime() + budgetNanos;
+		FutureTask<?> task;
+		while ((task = tasks.poll()) != null) {
+			task.run();
+			if (System.nanoTime() - end >= 0) { break; }
+		}
+	}
+}
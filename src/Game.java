@@ -10,15 +10,12 @@ import org.lwjgl.input.Mouse;
 import org.lwjgl.openal.AL;
 import org.lwjgl.input.Controller;
 import org.lwjgl.opengl.Display;
-import org.lwjgl.opengl.DisplayMode;
 import org.lwjgl.opengl.GL11;
 import org.newdawn.slick.Color;
 import org.newdawn.slick.openal.Audio;
 import org.newdawn.slick.openal.AudioLoader;
 import org.newdawn.slick.openal.SoundStore;
-import org.newdawn.slick.opengl.Texture;
 import org.newdawn.slick.opengl.TextureImpl;
-import org.newdawn.slick.opengl.TextureLoader;
 import org.newdawn.slick.util.ResourceLoader;
 /**
  * Base game class. This class is the first to run during program startup and acts
@@ -129,12 +126,13 @@ public class Game {
 	};
 	private int[] modeOptionOffset = new int[3];//2
 	
+	private final String[] loadingText = new String[] { "Loading", "Loading.", "Loading..", "Loading..." };
+	/** Half the width of "Loading", the dots are allowed to extend past the center. */
+	private int loadingTextOffset = 0;
+	
 	private long mouseDelay = Global.inputReadDelayTimer;
 	private Thread gameModeLoader = null;
 	
-	/** The time remaining (milliseconds) until the next movement input can be read. */
-	private long movementInputDelay = 0;
-	
 	private GameMode game;
 	
 	private int GameModeType = 0;
@@ -163,34 +161,23 @@ public class Game {
 		}
 	}
 	
-	private boolean setDisplayMode() {
-		try {
-			// get modes
-			DisplayMode [] dm = org.lwjgl.util.Display.getAvailableDisplayModes(Global.winWidth, Global.winHeight, -1, -1, -1, -1, 60, 60);
-			org.lwjgl.util.Display.setDisplayMode(dm, new String[] {
-					"width=" + Global.winWidth, 
-					"height=" + Global.winHeight,
-					"freq=" + 60,
-					"bpp=" + org.lwjgl.opengl.Display.getDisplayMode().getBitsPerPixel()
-			});
-			return true;
-		} catch (Exception e) {
-			e.printStackTrace();
-			System.out.println("Unable to enter Global.fullscreen, continuing in windowed mode.");
-		}
-		return false;
-	}
-
 	/**
 	 * Initialize OpenGL components and set OpenGL environment variables.
 	 */
 	private void initGL() {
 		try {
-			setDisplayMode();
+			long t = StartupProfiler.start();
+			if (!RenderTarget.setDisplayMode(Global.fullscreen) && Global.fullscreen) {
+				Global.fullscreen = false;
+				RenderTarget.setDisplayMode(false);
+			}
+			StartupProfiler.end("display", "set display mode", t);
 			Display.setTitle(WINDOW_TITLE);
-			Display.setFullscreen(Global.fullscreen);
+			Display.setResizable(true);
+			t = StartupProfiler.start();
 			Display.create();
-			glViewport(0, 0, Global.glEnvWidth, Global.glEnvHeight);
+			StartupProfiler.end("display", "Display.create", t);
+			// the viewport is set each frame by RenderTarget
 			// Initialize GL matrices
 			glMatrixMode(GL_PROJECTION);
 			glLoadIdentity();
@@ -214,6 +201,10 @@ public class Game {
 			// Enable alpha processing for textures
 			glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
 			glEnable(GL_BLEND);
+			t = StartupProfiler.start();
+			RenderTarget.initialize();
+			StartupProfiler.end("display", "RenderTarget.initialize", t);
+			GLTaskQueue.setGLThread();
 		} catch (LWJGLException glErr) {
 			System.out.println("Game exiting - exception in initialization:");
 			glErr.printStackTrace();
@@ -233,29 +224,46 @@ public class Game {
 		Configuration.setupDefaultValues();
 
 		// Load all used textures into memory so the game will not be slowed down by loading textures later
-		Texture tex;
+		// images are decoded in parallel while the sounds below are loaded, then uploaded together
+		AssetLoader textures = null;
+		long texTime = StartupProfiler.start();
+		try {
+			textures = new AssetLoader(texLoadList, Global.textureMap);
+			textures.start();
+		} catch (IOException e) {
+			GameLog.error("Unable to load texture resource: %s", e.getMessage());
+			e.printStackTrace();
+			System.exit(-1);
+		}
+		Audio sound;
 		String type; // holds file type extension
 		String source; // absolute file path to resource
-		for (String ref[] : texLoadList) {
-			type = ref[1].substring(ref[1].lastIndexOf('.')).toUpperCase();
-			tex = null;
-			source = ref[1];
-			 try {
-				source = FileResource.requestResource(ref[1]);
-				tex = TextureLoader.getTexture(type, ResourceLoader.getResourceAsStream(ref[1]));
-				if ( Global.textureMap.putIfAbsent(ref[0], tex) != null) {
-					// report error, attempting to add duplicate key entry
-					Global.writeToLog(
-						String.format("Attempting to load multiple textures to key [%s]\n" + 
-							"Texture resource [%s] not loaded.", ref[0], ref[1]), true);
-				 }
-			 } catch (IOException e) {
-				 Global.writeToLog(String.format("Unable to load texture resource %s\n", source), true);
-				 e.printStackTrace();
-				 System.exit(-1);
-			 }
+		long t;
+		for (String ref : soundEffectResource) {
+			sound = null;
+			source = ref;
+			t = StartupProfiler.start();
+			try {
+				source = FileResource.requestResource(ref);
+				type = source.substring(source.lastIndexOf('.') + 1).toUpperCase(); 
+				sound = AudioLoader.getAudio(type, ResourceLoader.getResourceAsStream(source));
+				soundMap.put(ref, sound);
+			} catch (IOException e) {
+				Global.writeToLog(String.format("Unable to load sound resource: %s\n%s", source, e.getMessage()), true);
+				System.out.println(e.getMessage());
+			}
+			StartupProfiler.end("sound", ref, t);
 		}
 		
+		try {
+			textures.finish();
+		} catch (IOException e) {
+			GameLog.error("Unable to load texture resource: %s", e.getMessage());
+			e.printStackTrace();
+			System.exit(-1);
+		}
+		StartupProfiler.end("texture", "all textures, overlapping the sounds", texTime);
+		
 		Global.buildStandardUIBoxes();
 		// TODO: Load all Sprite objects for menu navigation
 		menu_background = new Sprite(
@@ -283,20 +291,6 @@ public class Game {
 				new int[] { 100, 100 },
 				new int[] { 50, 50 }
 			);
-		Audio sound;
-		for (String ref : soundEffectResource) {
-			sound = null;
-			source = ref;
-			try {
-				source = FileResource.requestResource(ref);
-				type = source.substring(source.lastIndexOf('.') + 1).toUpperCase(); 
-				sound = AudioLoader.getAudio(type, ResourceLoader.getResourceAsStream(source));
-				soundMap.put(ref, sound);
-			} catch (IOException e) {
-				Global.writeToLog(String.format("Unable to load sound resource: %s\n%s", source, e.getMessage()), true);
-				System.out.println(e.getMessage());
-			}
-		}
 		
 		for (int i = 0; i < menuOptions.length; i++) {
 			menuOptionOffset[i] = Global.getFont24DrawSize(menuOptions[i]) / 2;
@@ -304,9 +298,12 @@ public class Game {
 		for (int i = 0; i < modeOptions.length; i++) {
 			modeOptionOffset[i] = Global.getFont24DrawSize(modeOptions[i]) / 2;
 		}
+		loadingTextOffset = Global.getFont48DrawSize(loadingText[0]) / 2;
 		
 		// TODO: add static class initializers
+		t = StartupProfiler.start();
 		Block.initializeBlocks(Global.textureMap);
+		StartupProfiler.end("blocks", "Block.initializeBlocks", t);
 	}
 	
 	/**
@@ -315,19 +312,21 @@ public class Game {
 	 * of maintained entities. 
 	 */
 	private void renderGL() {
-		// cap framerate to 60 fps
-		Display.sync(60);
 		/* determine how long it has been since the last update
 		 * this will be used to calculate how far the entities
 		 * should move this loop  */
 		/* The time in milliseconds since the last update */
-		Global.delta = getTime() - lastLoopTime;
-		lastLoopTime = getTime();
+		// read the timer once so that time between the two reads is not lost at high frame rates
+		long now = getTime();
+		Global.delta = now - lastLoopTime;
+		lastLoopTime = now;
+		AnimationClock.advance(Global.delta);
 		lastFpsTime += Global.delta;
 		fps++;
 		// update the FPS counter if a second has passed
 		if (lastFpsTime >= 1000) {
-			Display.setTitle( String.format("%s (FPS: %d)", WINDOW_TITLE, fps) );
+			Display.setTitle( String.format("%s (FPS: %d; %s; %s)", WINDOW_TITLE, fps,
+					FramePacer.getFrameReport(), SpriteBatch.getFrameReport()) );
 			lastFpsTime = 0;
 			fps = 0;
 		}
@@ -336,8 +335,8 @@ public class Game {
 		// This is a dev/debug feature and will not carry over to the final version
 		if (mouseDelay <= 0) {
 			if (Mouse.isButtonDown(0)) {
-				mouseX = Mouse.getX();
-				mouseY = Global.glEnvHeight - Mouse.getY();
+				mouseX = RenderTarget.getMouseX();
+				mouseY = RenderTarget.getMouseY();
 				System.out.printf("Mouse click at %d, %d\n", mouseX, mouseY);
 				mouseDelay = Global.inputReadDelayTimer;
 			} 
@@ -352,42 +351,39 @@ public class Game {
 		 */
 		switch (activeGameMode) {
 		case MainMenu:
-			if (movementInputDelay <= 0) {
-				/*// Left and Right inputs do nothing at the main menu currently
-				if (Global.getControlActive(Global.GameControl.LEFT)) { ; }
-				if (Global.getControlActive(Global.GameControl.RIGHT)) { ; }
-				//*/
-				if (cursorPos == 0) {
-					inputGameModeMenu();
-				}
-				if (Global.getControlActive(Global.GameControl.UP)) {
-					cursorPos--;
-					Global.sounds.playSoundEffect("button_click");
-					//if (cursorPos == 0) {
-					//	inputGameModeMenu();
-					//}
-					if (cursorPos < 0) {
-						cursorPos = 3;
-					}
-					movementInputDelay = Global.inputReadDelayTimer;
+			/*// Left and Right inputs do nothing at the main menu currently
+			if (Global.getControlActive(Global.GameControl.LEFT)) { ; }
+			if (Global.getControlActive(Global.GameControl.RIGHT)) { ; }
+			//*/
+			if (cursorPos == 0) {
+				inputGameModeMenu();
+			}
+			if (InputQueue.take(Global.GameControl.UP)) {
+				cursorPos--;
+				Global.sounds.playSoundEffect("button_click");
+				//if (cursorPos == 0) {
+				//	inputGameModeMenu();
+				//}
+				if (cursorPos < 0) {
+					cursorPos = 3;
 				}
-				if (Global.getControlActive(Global.GameControl.DOWN)) {
-					cursorPos++;
-					Global.sounds.playSoundEffect("button_click");
+			}
+			if (InputQueue.take(Global.GameControl.DOWN)) {
+				cursorPos++;
+				Global.sounds.playSoundEffect("button_click");
 
-					//if (cursorPos == 0) {
-					//	inputGameModeMenu();
-					//}
-					if (cursorPos > 3) {
-						cursorPos = 0;
-					}
-					movementInputDelay = Global.inputReadDelayTimer;
-				}
-				if (Global.getControlActive(Global.GameControl.CANCEL)) { // Cancel key moves the cursor to the program exit button
-					cursorPos = 3;
+				//if (cursorPos == 0) {
+				//	inputGameModeMenu();
+				//}
+				if (cursorPos > 3) {
+					cursorPos = 0;
 				}
-	
-			if (Global.getControlActive(Global.GameControl.SELECT)) {
+			}
+			if (InputQueue.takePress(Global.GameControl.CANCEL)) { // Cancel key moves the cursor to the program exit button
+				cursorPos = 3;
+			}
+			
+			if (InputQueue.takePress(Global.GameControl.SELECT)) {
 				switch (cursorPos) {
 					case 0: // Game play
 						switch (GameModeType) {
@@ -416,9 +412,6 @@ public class Game {
 						break;
 				}
 			}
-			} else if (movementInputDelay > 0) {
-				movementInputDelay -= Global.delta;
-			}
 			// Draw the frame that will contain the option boxes
 			menu_background.draw(0,0);
 			title.draw(0, 50);
@@ -451,17 +444,26 @@ public class Game {
 		default:
 			switch(game.getState()) { 
 				case NOT_LOADED:
-					gameModeLoader = new Thread( new GameModeLoader(game) );
-					gameModeLoader.run();
+					// the loader thread sets the state once it starts, only start it once
+					if (gameModeLoader == null) {
+						gameModeLoader = new Thread( new GameModeLoader(game), "GameModeLoader" );
+						// loading must not keep the program open if the window is closed
+						gameModeLoader.setDaemon(true);
+						gameModeLoader.start();
+					}
+					drawLoadingScreen(0f);
 					break;
 				case LOADING_ASSETS:
-					// TODO: game mode loading indicator
+					drawLoadingScreen(game.getLoadProgress());
 					break;
 				case LOADING_DONE:
-					try {
-						gameModeLoader.join();
-					} catch (InterruptedException e) {
-						e.printStackTrace();
+					if (gameModeLoader != null) {
+						try {
+							gameModeLoader.join();
+						} catch (InterruptedException e) {
+							e.printStackTrace();
+						}
+						gameModeLoader = null;
 					}
 					// break statement is intentionally missing here
 				case READY:
@@ -470,7 +472,6 @@ public class Game {
 				case FINALIZED:
 					game = null;
 					activeGameMode = MainMenu;
-					movementInputDelay = Global.inputReadDelayTimer;
 					cursorPos = 0;
 					break;
 				default:
@@ -485,42 +486,84 @@ public class Game {
 		}
 	}
 	
+	/**
+	 * Draws the loading screen shown while a game mode loads on the loader thread.
+	 * @param progress The load progress, from 0 to 1
+	 */
+	private void drawLoadingScreen(float progress) {
+		menu_background.draw(0, 0);
+		// dots cycle with the animation clock so the screen visibly moves even when progress stalls
+		int dots = (int) ( (AnimationClock.now() / 300) % loadingText.length );
+		Global.drawFont48(512 - loadingTextOffset, 330, loadingText[dots], Color.white);
+		Global.menuButtonShader.bind();
+		Global.uiTransWhite.draw(312, 420, 400, 40);
+		Color.white.bind();
+		int fill = (int) (392 * Math.max(0f, Math.min(1f, progress)));
+		if (fill >= 32) { // narrower than the box corners would draw incorrectly
+			Global.uiGreen.draw(316, 424, fill, 32);
+		}
+	}
+	
 	/*
 	 * @Author Brock
 	 */
 	private void inputGameModeMenu() {
-		movementInputDelay -= Global.delta;
-		
-		if (movementInputDelay > 0) { return; }
-		
-		if (Global.getControlActive(Global.GameControl.LEFT)) {
+		if (InputQueue.take(Global.GameControl.LEFT)) {
 			GameModeType--;
 			Global.sounds.playSoundEffect("button_click"); 
 			if (GameModeType < 0) { GameModeType = 2; }//1
-			movementInputDelay = Global.inputReadDelayTimer;
-		} else if (Global.getControlActive(Global.GameControl.RIGHT)) {
+		} else if (InputQueue.take(Global.GameControl.RIGHT)) {
 			GameModeType++;
 			Global.sounds.playSoundEffect("button_click"); 
 			if (GameModeType > 2) { GameModeType = 0; }
-			movementInputDelay = Global.inputReadDelayTimer;
 		} 		
 	}
 	
 	public Game(boolean runFullscreen) {
-		Global.fullscreen = runFullscreen;
+		long t = StartupProfiler.start();
+		Configuration.loadSettings();
+		StartupProfiler.end("settings", "Configuration.loadSettings", t);
+		// the command line switch overrides a saved windowed setting
+		Global.fullscreen = Global.fullscreen || runFullscreen;
+		t = StartupProfiler.start();
 		initGL(); // setup OpenGL
+		StartupProfiler.end("startup", "initGL", t);
+		t = StartupProfiler.start();
 		initComponents(); // setup game variables
+		StartupProfiler.end("startup", "initComponents", t);
+		StartupProfiler.report("startup");
 	}
 	
 	public void run() {
 		while (gameRunning) {
-			glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+			RenderTarget.beginFrame();
 			glMatrixMode(GL_MODELVIEW);
 			glLoadIdentity();
 			Keyboard.poll();
+			Global.sampleControls();
+			// GL work passed over from the game mode loader thread
+			GLTaskQueue.runPending(AssetLoader.SLICE_NANOS);
 			renderGL();
+			// let sounds triggered this frame be played again next frame
+			SoundVoicePool.endFrame();
+			// draw anything left in the sprite queue and record the bind count for the frame
+			SpriteBatch.endFrame();
+			// scale the finished frame into the window
+			RenderTarget.endFrame();
 			Display.update();
+			// wait out the rest of the frame according to the frame pacing setting
+			FramePacer.endFrame();
 		}
+		HotReload.shutdown();
+		// save the level in progress and the settings, then give the queued files time to be written
+		LevelSession.shutdown();
+		SettingsStore.shutdown();
+		DiskWriter.shutdown();
+		RenderTarget.destroy();
+		AssetLoader.shutdown();
+		MusicStreamer.shutdown();
+		Global.writeToLog(SoundVoicePool.getReport());
+		SoundVoicePool.shutdown();
 		AL.destroy();
 		Global.globalFinalize();
 		// release all textures loaded
@@ -529,8 +572,27 @@ public class Game {
 	public static void main(String[] args) {
 		System.setProperty("java.library.path", new File("native/windows").getAbsolutePath());
 		System.setProperty("org.lwjgl.librarypath", new File("native/windows/").getAbsolutePath());
-		System.out.println("Use -fullscreen for fullscreen mode.");
-		new Game( (args.length > 0) && args[0].equalsIgnoreCase("-fullscreen") ).run();
+		System.out.println("Use -fullscreen for fullscreen mode, -profile-startup to time loading, -nosound to run without sound, -debuglog for a detailed log, -hotreload to reload changed levels and images.");
+		boolean fullscreen = false;
+		boolean hotReload = false;
+		for (String arg : args) {
+			if (arg.equalsIgnoreCase("-fullscreen")) {
+				fullscreen = true;
+			} else if (arg.equalsIgnoreCase("-profile-startup")) {
+				StartupProfiler.enable();
+			} else if (arg.equalsIgnoreCase("-hotreload")) {
+				hotReload = true;
+			} else if (arg.equalsIgnoreCase("-debuglog")) {
+				GameLog.threshold = GameLog.Level.DEBUG;
+			} else if (arg.equalsIgnoreCase("-nosound")) {
+				// must happen before any sound is loaded
+				SoundStore.get().disable();
+				SoundVoicePool.silent = true;
+			}
+		}
+		Game game = new Game(fullscreen);
+		if (hotReload) { HotReload.start(); }
+		game.run();
 
 	}
 
@@ -541,11 +603,22 @@ class GameModeLoader implements Runnable {
 	
 	public GameModeLoader(GameMode gm) {
 		mode = gm;
-		Global.writeToLog("Debug: Loader thread constructor called.");
+		GameLog.debug("Loader thread constructor called.");
 	}
 	
 	public void run() {
-		Global.writeToLog("Debug: Loader thread active.");
-		mode.initialize();
+		GameLog.debug("Loader thread active.");
+		long t = StartupProfiler.start();
+		String name = mode.getClass().getName();
+		try {
+			mode.initialize();
+			StartupProfiler.end("mode", name + ".initialize", t);
+			StartupProfiler.report(name);
+		} catch (RuntimeException e) {
+			// the render thread would wait on the loading screen forever
+			GameLog.error("Game mode failed to load: %s", e);
+			e.printStackTrace();
+			System.exit(-1);
+		}
 	}
 }
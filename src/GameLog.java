@@ -0,0 +1,279 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The game's log. Logging a message only stores it in a ring buffer; <code>DiskWriter</code> formats
+ * the messages a short time later, writes them to the log file (and the console when asked) and flushes
+ * once per batch, so a message costs the caller no disk or console time. Errors are the exception: they
+ * come before the program exits, so they are written at once on the caller's thread, after anything
+ * still waiting in the buffer. A shutdown hook writes whatever is left if the program exits without
+ * calling <code>shutdown()</code>.
+ * <p>
+ * The ring buffer has a fixed size and takes messages from any thread without locking. When it is
+ * full, new messages are dropped and counted rather than making the caller wait; the count is written
+ * to the log once there is room. Messages below <code>threshold</code> are discarded before anything
+ * is stored. Format arguments are formatted on the writer thread, so they must not be changed after
+ * they are logged.
+ * <p>
+ * Code that may log every frame should use a <code>Limiter</code>.
+ * @author John Ojala
+ */
+public final class GameLog {
+	public enum Level { DEBUG, INFO, WARN, ERROR }
+
+	/** Messages below this level are discarded. */
+	public static volatile Level threshold = Level.INFO;
+	/** Number of messages the ring buffer holds, a power of two. */
+	private static final int CAPACITY = 1 << 13;
+	private static final int MASK = CAPACITY - 1;
+	/** How long messages gather before they are written. */
+	private static final long BATCH_MILLIS = 50;
+
+	private static final class Entry {
+		final Level level;
+		final long time;
+		final boolean console;
+		final String format;
+		final Object[] args;
+
+		Entry(Level level, boolean console, String format, Object[] args) {
+			this.level = level;
+			this.time = System.currentTimeMillis();
+			this.console = console;
+			this.format = format;
+			this.args = args;
+		}
+	}
+
+	/*
+	 * Ring buffer. A slot whose sequence equals a producer's position is free for it; the producer
+	 * claims the position by advancing tail, fills the slot and sets the sequence one past the position
+	 * to hand it to the writer. The writer empties the slot and moves its sequence on a full lap.
+	 */
+	private static final AtomicReferenceArray<Entry> slots = new AtomicReferenceArray<Entry>(CAPACITY);
+	private static final AtomicLongArray sequence = new AtomicLongArray(CAPACITY);
+	private static final AtomicLong tail = new AtomicLong();
+	/** Guarded by <code>drainLock</code>, as is the writing of the file. */
+	private static long head = 0;
+	private static final Object drainLock = new Object();
+	/** Set while a drain of the buffer is queued on the writer. */
+	private static final AtomicBoolean drainQueued = new AtomicBoolean();
+	/** Reused for each line written, guarded by <code>drainLock</code>. */
+	private static final StringBuilder line = new StringBuilder(256);
+	private static final AtomicInteger dropped = new AtomicInteger();
+
+	static {
+		for (int i = 0; i < CAPACITY; i++) { sequence.set(i, i); }
+	}
+
+	private static volatile Writer file = null;
+	private static boolean hookAdded = false;
+
+	private GameLog() { }
+
+	/**
+	 * Opens the log file. Messages logged before this are only written to the console.
+	 * @param filename The log file, replaced if it exists
+	 * @throws IOException If the file can not be created
+	 */
+	public static synchronized void open(String filename) throws IOException {
+		file = new BufferedWriter(new FileWriter(filename), 1 << 14);
+		if (!hookAdded) {
+			// System.exit() stops the writer thread, the hook writes what it left behind
+			Runtime.getRuntime().addShutdownHook(new Thread(GameLog::shutdown, "LogShutdown"));
+			hookAdded = true;
+		}
+	}
+
+	/** @return <code>true</code> if messages of the given level are kept */
+	public static boolean isEnabled(Level level) {
+		return level.compareTo(threshold) >= 0;
+	}
+
+	public static void debug(String format, Object... args) { log(Level.DEBUG, false, format, args); }
+	public static void info(String format, Object... args) { log(Level.INFO, false, format, args); }
+	/** Warnings and errors are also written to the console. */
+	public static void warn(String format, Object... args) { log(Level.WARN, true, format, args); }
+	/** Written at once, for failures the program exits on. */
+	public static void error(String format, Object... args) { log(Level.ERROR, true, format, args); }
+
+	/**
+	 * Logs a message.
+	 * @param level The message's level
+	 * @param console Whether to write the message to the console as well
+	 * @param format The message, or a format string for <code>args</code>
+	 * @param args Format arguments, if none <code>format</code> is logged as it is
+	 */
+	public static void log(Level level, boolean console, String format, Object... args) {
+		if (!isEnabled(level)) { return; }
+		Entry e = new Entry(level, console, format, args);
+		if (level == Level.ERROR) {
+			synchronized (drainLock) {
+				drain(line);
+				write(line, e.level, e.time, e.console, format(e));
+				flush();
+			}
+			return;
+		}
+		long pos, diff;
+		int i;
+		while (true) {
+			pos = tail.get();
+			i = (int) pos & MASK;
+			diff = sequence.get(i) - pos;
+			if (diff == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) { break; }
+			} else if (diff < 0) {
+				// the writer is a full lap behind
+				dropped.incrementAndGet();
+				return;
+			}
+		}
+		slots.set(i, e);
+		sequence.set(i, pos + 1);
+		if (drainQueued.compareAndSet(false, true)) {
+			DiskWriter.schedule(GameLog::drainTask, BATCH_MILLIS);
+		}
+	}
+
+	/** Writes what is left in the buffer and closes the log file. Called when the program exits. */
+	public static void shutdown() {
+		synchronized (drainLock) {
+			drain(line);
+			flush();
+			Writer out = file;
+			file = null;
+			if (out == null) { return; }
+			try {
+				out.close();
+			} catch (IOException e) {
+				System.out.println("Error closing log file.");
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/** Runs on the writer thread. */
+	private static void drainTask() {
+		// cleared first, so a message logged during the drain queues another
+		drainQueued.set(false);
+		synchronized (drainLock) {
+			if (drain(line) > 0) { flush(); }
+		}
+	}
+
+	/** @return The number of lines written */
+	private static int drain(StringBuilder line) {
+		int count = 0;
+		int i, lost;
+		Entry e;
+		while (true) {
+			i = (int) head & MASK;
+			if (sequence.get(i) != head + 1) { break; }
+			e = slots.get(i);
+			slots.set(i, null);
+			sequence.set(i, head + CAPACITY);
+			head++;
+			write(line, e.level, e.time, e.console, format(e));
+			count++;
+		}
+		lost = dropped.getAndSet(0);
+		if (lost > 0) {
+			write(line, Level.WARN, System.currentTimeMillis(), true,
+				String.format("%d log messages dropped, the log could not keep up.", lost));
+			count++;
+		}
+		return count;
+	}
+
+	private static String format(Entry e) {
+		if (e.args == null || e.args.length == 0) { return e.format; }
+		try {
+			return String.format(e.format, e.args);
+		} catch (RuntimeException err) {
+			return e.format + " (bad log format: " + err + ")";
+		}
+	}
+
+	private static void write(StringBuilder line, Level level, long time, boolean console, String text) {
+		if (console) { System.out.println(text); }
+		Writer out = file;
+		if (out == null) { return; }
+		line.setLength(0);
+		line.append(String.format("%tT.%<tL %-5s ", time, level)).append(text).append('\n');
+		try {
+			out.append(line);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static void flush() {
+		System.out.flush();
+		Writer out = file;
+		if (out == null) { return; }
+		try {
+			out.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Lets a message through at most once per interval, for code that may log every frame. The next
+	 * message let through reports how many were held back.
+	 * <pre>
+	 * if (wedgeLog.ready()) { wedgeLog.log("Too many wedges: %d", count); }
+	 * </pre>
+	 */
+	public static final class Limiter {
+		private final Level level;
+		private final boolean console;
+		private final long intervalNanos;
+		private final AtomicLong next = new AtomicLong(System.nanoTime());
+		private final AtomicInteger held = new AtomicInteger();
+
+		/**
+		 * @param level Level of the messages
+		 * @param console Whether to write the messages to the console as well
+		 * @param intervalMillis Shortest time between two messages
+		 */
+		public Limiter(Level level, boolean console, long intervalMillis) {
+			this.level = level;
+			this.console = console;
+			this.intervalNanos = intervalMillis * 1_000_000L;
+		}
+
+		/**
+		 * Checks whether a message may be logged now. Call <code>log()</code> when it returns
+		 * <code>true</code>; it is cheap enough to call every frame.
+		 * @return <code>true</code> if the level is enabled and the interval has passed
+		 */
+		public boolean ready() {
+			if (!isEnabled(level)) { return false; }
+			long now = System.nanoTime();
+			long n = next.get();
+			if (now - n >= 0 && next.compareAndSet(n, now + intervalNanos)) { return true; }
+			held.incrementAndGet();
+			return false;
+		}
+
+		/** Logs a message, noting how many were held back since the last one. */
+		public void log(String format, Object... args) {
+			int count = held.getAndSet(0);
+			if (count == 0) {
+				GameLog.log(level, console, format, args);
+			} else {
+				GameLog.log(level, console, "%s (%d similar messages not logged)",
+					args.length == 0 ? format : String.format(format, args), count);
+			}
+		}
+	}
+}
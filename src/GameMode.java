@@ -22,6 +22,12 @@ public interface GameMode {
 	 * FINALIZED if the game mode has completed unloading all private assets.
 	 */
 	public LoadState getState();
+	/**
+	 * Gets how far <code>initialize()</code> has progressed. <code>initialize()</code> is run on a
+	 * background thread, so this is read by the render thread while loading is under way.
+	 * @return A value from 0 (nothing loaded) to 1 (loading finished).
+	 */
+	public float getLoadProgress();
 	public void run();
 	public void cleanup();
 }
@@ -6,6 +6,7 @@ import java.util.HashMap;
 import org.lwjgl.openal.AL;
 
 import org.newdawn.slick.openal.Audio;
+import org.newdawn.slick.openal.AudioImpl;
 import org.newdawn.slick.openal.AudioLoader;
 import org.newdawn.slick.util.ResourceLoader;
 
@@ -19,8 +20,6 @@ public class GameSounds {
 	protected int soundID;
 	soundType stype;
 	String sfile;
-	String mfile;
-	Audio sounds;
 	public enum soundType {
 		MUSIC, SOUND
 	}
@@ -37,6 +36,8 @@ public class GameSounds {
 	private String[] soundBackgroundResource = { 
 			"media/Flowing Rocks.ogg"
 	};
+	/** Crossfade time (milliseconds) when changing or stopping music. */
+	public static final long musicFadeMillis = 1500;
 	
 	public GameSounds(soundType type, String[][] input) {
 		//soundID = soundNum;
@@ -57,8 +58,10 @@ public class GameSounds {
 		String source; // = file, type;
 		String type;
 		Audio sound;
+		long t;
 		for (String ref[] : audioList) {
 			source = ref[1];
+			t = StartupProfiler.start();
 			try {
 				source = FileResource.requestResource(ref[1]);
 				type = ref[1].substring(ref[1].lastIndexOf('.') + 1).toUpperCase(); 
@@ -68,55 +71,62 @@ public class GameSounds {
 				System.out.printf("Unable to load sound resource: %s\n%s", source, e.getMessage());
 				return false;
 			}
+			StartupProfiler.end("sound", ref[1], t);
 		}
 		return true;
 	}
 
-	private boolean loadMusic(String file) {
-		String source = file, type;
-		Audio sound = soundMap.get(file);
-		if (sound != null) { return true; } // sound has already been loaded
-		
-		try {
-			source = FileResource.requestResource(file);
-			type = source.substring(source.lastIndexOf('.') + 1).toUpperCase(); 
-				mfile = file;
-				sounds = AudioLoader.getStreamingAudio(type, ResourceLoader.getResource(source));
-				soundMap.put(mfile, sound);
-			
-		} catch (IOException e) {
-			System.out.printf("Unable to load sound resource: %s\n%s", source, e.getMessage());
-			return false;
-		}
-		return true;
-	}
 	public Audio getSound(String ref) {
 		return soundMap.get(ref);
 	}
 	
 	/**
-	 * Plays the audio as a sound effect. No effect if the value passed is null.
-	 * @param sfx The audio to be played
+	 * Plays the audio as a sound effect with normal priority. No effect if the value passed is null.
+	 * @param file The key of the audio to be played
 	 */
 	public void playSoundEffect(String file) {
+		playSoundEffect(file, SoundVoicePool.PRIORITY_NORMAL);
+	}
+	
+	/**
+	 * Plays the audio as a sound effect through the voice pool. Repeats of the same sound in one frame
+	 * are only played once. No effect if the value passed is null.
+	 * @param file The key of the audio to be played
+	 * @param priority Voice priority, one of the <code>SoundVoicePool.PRIORITY_</code> values
+	 */
+	public void playSoundEffect(String file, int priority) {
 		Audio sfx = getSound(file);
 		if (sfx == null) { return; } // check that sfx is a defined sound object
-		sfx.playAsSoundEffect(1.0f, 1.0f, false);
+		// sounds loaded without OpenAL have no buffer, the pool then uses its silent backend
+		int buffer = sfx instanceof AudioImpl ? ((AudioImpl) sfx).getBufferID() : 0;
+		SoundVoicePool.play(file, buffer, priority, 1.0f, 1.0f);
 		return ;
 	}
 	
 	/**
-	 * Plays the audio as repeating background music. No effect if the value passed is null.
-	 * @param music The audio to be played in the background
+	 * Plays the background track as repeating music, streamed from disk. Crossfades from any music
+	 * already playing.
 	 */
 	public void playSoundMusic() {
-		Audio music = sounds;//soundMap.get(mfile);
-		if (music == null) { return; }
-		// TODO: check for and stop previously playing music if any
-		music.playAsMusic(1.0f, 1.0f, true);
-		return ;
+		playMusic(soundBackgroundResource[0]);
 	}
+	
+	/**
+	 * Plays an OGG file as repeating music, streamed from disk. Crossfades from any music already playing.
+	 * @param file Resource path of the OGG file
+	 */
+	public void playMusic(String file) {
+		MusicStreamer.play(file, true, musicFadeMillis);
+	}
+	
+	/** Fades out the music. */
+	public void stopMusic() {
+		MusicStreamer.stop(musicFadeMillis);
+	}
+	
 	public void cleanup() {
+		MusicStreamer.shutdown();
+		SoundVoicePool.shutdown();
 		AL.destroy();
 	}
 }
@@ -1,18 +1,13 @@
 import java.util.Random;
-import java.awt.Font;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
 import java.time.LocalDateTime;
 import java.util.HashMap;
 
 import org.lwjgl.LWJGLException;
 import org.lwjgl.input.*;
 import org.newdawn.slick.Color;
-import org.newdawn.slick.TrueTypeFont;
 import org.newdawn.slick.opengl.Texture;
 import org.newdawn.slick.opengl.TextureImpl;
-import org.newdawn.slick.util.ResourceLoader;
 
 /* 
  * When adding variables and functions to this class, remember to always mark them
@@ -51,6 +46,12 @@ public class Global {
 	public static boolean useBlockCascading = true;
 	public static boolean waitForGridMovement = true;
 	public static boolean fullscreen = false;
+	/** How the main loop paces frames. */
+	public static FramePacer.Mode framePacing = FramePacer.Mode.FIXED;
+	/** The frame rate cap used when <code>framePacing</code> is <code>FIXED</code>. */
+	public static int frameRateCap = 60;
+	/** Size of the offscreen frame relative to the OpenGL environment size. Lower values reduce fill cost. */
+	public static float renderScale = 1.0f;
 	
 	// End configurable variables
 	
@@ -60,9 +61,7 @@ public class Global {
 	
 	public static Color menuButtonShader = new Color(79, 187, 101);
 	
-    private static TrueTypeFont font24, font48, numbers24, numbers48;
-	
-	private static FileWriter logFile;
+    private static BakedFont font24, font48, numbers24, numbers48;
 	
 	public static String[][] audioList = {
 			new String[] { "button_click", "media/click3.ogg"},
@@ -97,6 +96,7 @@ public class Global {
 			Controllers.create();
 			count = Controllers.getControllerCount();
 		} catch (LWJGLException e) {
+			GameLog.error("Unable to start controller input: %s", e.getMessage());
 			e.printStackTrace();
 			System.exit(0);
 		}
@@ -122,6 +122,36 @@ public class Global {
 	}
 	
 	
+	/* Control snapshot: one bit per GameControl, by ordinal, sampled once per frame by sampleControls() */
+	private static int controlsDown = 0, controlsPressed = 0, controlsReleased = 0;
+	
+	private static int bit(GameControl control) { return 1 << control.ordinal(); }
+	
+	/** @return The control the keyboard key is mapped to, or null */
+	static GameControl getKeyControl(int key) {
+		return keyMap.get(key);
+	}
+	
+	/** @return The control the gamepad button is mapped to, or null */
+	static GameControl getButtonControl(int button) {
+		GameControl c = gamepadMap.get(button);
+		// directions come from the gamepad's hat switch, not its buttons
+		return c == null || c.ordinal() <= GameControl.DOWN.ordinal() ? null : c;
+	}
+	
+	/**
+	 * Reads the input events since the last call through <code>InputQueue</code> and stores which
+	 * controls are held, and which were pressed or released since the last call. Called once per frame
+	 * from the main loop, after the keyboard is polled; the control queries below only read the result.
+	 */
+	public static void sampleControls() {
+		InputQueue.poll();
+		controlsPressed = InputQueue.getPressedControls();
+		controlsReleased = InputQueue.getReleasedControls();
+		// a tap pressed and released between two frames still reads as held for one frame
+		controlsDown = InputQueue.getHeldControls() | controlsPressed;
+	}
+	
 	/**
 	 * Checks if keys mapped to the specified game control are pressed.
 	 * @param control The game controls to check input for
@@ -129,28 +159,17 @@ public class Global {
 	 * false if no keys assigned to the control as pressed. 
 	 */
 	public static boolean getControlActive(GameControl control) {
-		for (int kbKey : keyMap.keySet()) {
-			if (keyMap.get(kbKey) == control) {
-				if (Keyboard.isKeyDown(kbKey)) { return true; }
-			}
-		}
-		if (ctrlID == -1) { return false; }
-		if (control == GameControl.LEFT) {
-			return (ctrlList[ctrlID].getPovX() == -1f);
-		} else if (control == GameControl.RIGHT) {
-			return (ctrlList[ctrlID].getPovX() == 1f);
-		} else if (control == GameControl.UP) {
-			return (ctrlList[ctrlID].getPovY() == -1f);
-		} else if (control == GameControl.DOWN) {
-			return (ctrlList[ctrlID].getPovY() == 1f);
-		} else {
-			for (int gpKey : gamepadMap.keySet()) {
-				if (gamepadMap.get(gpKey) == control) {
-					if (ctrlList[ctrlID].isButtonPressed(gpKey)) { return true; }
-				}
-			}
-		}
-		return false;
+		return (controlsDown & bit(control)) != 0;
+	}
+	
+	/** @return true if the control went from released to held this frame */
+	public static boolean getControlPressed(GameControl control) {
+		return (controlsPressed & bit(control)) != 0;
+	}
+	
+	/** @return true if the control went from held to released this frame */
+	public static boolean getControlReleased(GameControl control) {
+		return (controlsReleased & bit(control)) != 0;
 	}
 	
 	/**
@@ -166,12 +185,14 @@ public class Global {
 			return false;
 		}
 		keyMap.put(key, control);
+		InputQueue.remap();
 		return true;
 	}
 	
 	public static void breakKeyMap(int key) {
 		if (keyMap.containsKey(key)) {
 			keyMap.remove(key);
+			InputQueue.remap();
 		}
 	}
 	
@@ -180,12 +201,14 @@ public class Global {
 			return false;
 		}
 		gamepadMap.put(key, control);
+		InputQueue.remap();
 		return true;
 	}
 	
 	public static void breakGamePadMap(int key) {
 		if (gamepadMap.containsKey(key)) {
 			gamepadMap.remove(key);
+			InputQueue.remap();
 		}
 	}
 	
@@ -193,71 +216,45 @@ public class Global {
 		LocalDateTime time = LocalDateTime.now();
 		String filename = String.format("%1$tF %1$tH%1$tS.log", time);
 		try {
-			logFile = new FileWriter(filename);
+			GameLog.open(filename);
 		} catch (IOException e) {
 			System.out.println("Unable to create log file.");
 			e.printStackTrace();
 		} 
 		
 	}
+	/** Logs an information message, see <code>GameLog</code>. */
 	public static void writeToLog(String text) { writeToLog(text, false); }
 	public static void writeToLog(String text, boolean writeToConsole) {
-		if (writeToConsole) {
-			System.out.println(text);
-		}
-		if (logFile == null) { return ; }
-		try {
-			logFile.write(text);
-			logFile.write("\n");
-			logFile.flush();
-		} catch (IOException ioe) {
-			ioe.printStackTrace();
-		}
+		GameLog.log(GameLog.Level.INFO, writeToConsole, text);
 	}
 	
 	private static void closeLog() {
-		if (logFile != null) {
-			try {
-				logFile.close();
-			} catch (IOException e) {
-				System.out.println("Error closing log file.");
-				e.printStackTrace();
-			}
-		}
+		GameLog.shutdown();
 	}
 	
 	public static void globalInit() {
 		initLog();
+		long t = StartupProfiler.start();
 		buildControllers();
+		StartupProfiler.end("input", "Global.buildControllers", t);
+		t = StartupProfiler.start();
 		initFonts();
+		StartupProfiler.end("font", "Global.initFonts", t);
 		
 	}
 	
 	private static void initFonts() {
 		TextureImpl.bindNone();
-        //Font awtFont = new Font("SketchFlow Print", Font.BOLD, 20);
-		Font awtFont = new Font("Lucida Console", Font.BOLD, 24);
-		Font awtFontSized = awtFont.deriveFont(24f);
-		numbers24 = new TrueTypeFont(awtFontSized, false);
-		awtFontSized = awtFont.deriveFont(48f);
-		numbers48 = new TrueTypeFont(awtFontSized, false);
-        try {
-            InputStream inputStream = ResourceLoader.getResourceAsStream("media/fonts/SF Theramin Gothic.ttf");
-            
-            awtFont = Font.createFont(Font.TRUETYPE_FONT, inputStream);
-            awtFontSized = awtFont.deriveFont(24f); // set font size
-            font24 = new TrueTypeFont(awtFontSized, false);
-            awtFontSized = awtFont.deriveFont(48f);
-            font48 = new TrueTypeFont(awtFontSized, false);
-            
-                 
-        } catch (Exception e) {
-            e.printStackTrace();
-        }   
-
-        
-        //font = new TrueTypeFont(awtFont, true);
-
+		// glyph atlases are baked from the AWT fonts on the first run and loaded from the cache after that
+		try {
+			numbers24 = BakedFont.load("Lucida Console", null, BakedFont.BOLD, 24);
+			numbers48 = BakedFont.load("Lucida Console", null, BakedFont.BOLD, 48);
+			font24 = BakedFont.load(null, "media/fonts/SF Theramin Gothic.ttf", BakedFont.PLAIN, 24);
+			font48 = BakedFont.load(null, "media/fonts/SF Theramin Gothic.ttf", BakedFont.PLAIN, 48);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 	}
 	
 	public static void buildStandardUIBoxes() {
@@ -291,9 +288,8 @@ public class Global {
 	
 	public static void globalFinalize() {
 		closeLog();
-		for (String ref : Global.textureMap.keySet()) {
-			Global.textureMap.get(ref).release();
-		}
+		// every texture is owned by the texture cache
+		TextureCache.releaseAll();
 		Global.textureMap.clear();
 
 	}
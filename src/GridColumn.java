@@ -1,9 +1,15 @@
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.FileReader;
+import java.io.ByteArrayInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.zip.CRC32;
 
 public class GridColumn implements Cloneable {
 	protected Block[] blocks;
@@ -43,154 +49,324 @@ public class GridColumn implements Cloneable {
 		writeToFile(grid, "1a");
 	}
 	
+	/**
+	 * Saves a grid to a new level file named after the current time.
+	 * @param grid The grid to save
+	 * @param version File format, "1a" (text) or "2" (binary)
+	 */
 	protected static void writeToFile(GridColumn[] grid, String version) {
+		String filename;
 
 		switch (version) {
 			case "1a":
-				String[] conv = new String[grid.length];
-				String[] subset;
-				LocalDateTime time = LocalDateTime.now();
-				String filename = String.format("level.%1$tF.%1$tH%1$tM%1$tS.dat", time);
-				for (int x = 0; x < grid.length; x++) {
-					subset = new String[grid[0].blocks.length];
-					for (int y = 0; y < grid[0].blocks.length; y++) {
-						switch(grid[x].blocks[y].type) {
-							case BLOCK:
-								subset[y] = String.format("1%d", grid[x].blocks[y].colorID);
-								break;
-							case BOMB:
-								subset[y] = String.format("2%d", grid[x].blocks[y].colorID);
-								break;
-							case WEDGE:
-								subset[y] = "30";
-								break;
-							case STAR:
-								subset[y] = "31";
-								break;
-							case TRASH:
-								subset[y] = "32";
-								break;
-							case HEART:
-								subset[y] = "33";
-								break;
-							case ROCK:
-								subset[y] = "34";
-								break;
-						}
-					}
-					conv[x] = String.join("", subset);
-					
-				}
-				try {
-					BufferedWriter outFile = new BufferedWriter(new FileWriter(filename));
-					
+				filename = String.format("level.%1$tF.%1$tH%1$tM%1$tS.dat", LocalDateTime.now());
+				// each column is one line of two digit cell codes, written straight from a reused buffer
+				char[] line = new char[grid[0].blocks.length * 2];
+				int code;
+				try (BufferedWriter outFile = new BufferedWriter(new FileWriter(filename), 1 << 16)) {
 					outFile.write("1a"); // This is the file version
 					outFile.newLine();
-					outFile.write(String.format("%d,%d", grid.length, grid[0].blocks.length)); // write grid size to the file
+					outFile.write(grid.length + "," + grid[0].blocks.length); // write grid size to the file
 					outFile.newLine();
 					
-					for (int x = 0; x < conv.length; x++) {
-						outFile.write(conv[x]);
+					for (int x = 0; x < grid.length; x++) {
+						for (int y = 0; y < grid[0].blocks.length; y++) {
+							code = codeFromBlock(grid[x].blocks[y]);
+							line[2 * y] = (char) ('0' + code / 10);
+							line[2 * y + 1] = (char) ('0' + code % 10);
+						}
+						outFile.write(line);
 						outFile.newLine();
 					}
-					
-					outFile.close();
 				} catch (IOException ioe) {
 					Global.writeToLog(String.format("Error writing to custom map file.\n%s", ioe.getMessage()), true);
 				}				
 				break;
+			case "2":
+				filename = String.format("level.%1$tF.%1$tH%1$tM%1$tS.lvl", LocalDateTime.now());
+				try {
+					Files.write(Paths.get(filename), encodeBinary(toCells(grid)));
+				} catch (IOException ioe) {
+					Global.writeToLog(String.format("Error writing to custom map file.\n%s", ioe.getMessage()), true);
+				}
+				break;
 		} // end switch (version)
 
 	}
 	
+	/**
+	 * Loads a level grid from a file in any of the supported formats: the binary format (version 2), or the
+	 * text formats "0" and "1a".
+	 * @param filename The level file
+	 * @return The grid, or <code>null</code> if the file could not be read
+	 */
 	protected static GridColumn[] loadFromFile(String filename) {
-		GridColumn[] grid = null;
-		Block block;
-		String buffer, sub;
-		String[] set;
-		int xs = 20, ys = 20;
-		int id, data, raw;
 		try {
-			BufferedReader inf = new BufferedReader(new FileReader(filename));
+			return toGrid(readCells(filename));
+		} catch (Exception err) {
+			Global.writeToLog(String.format("An error occured trying to read from file '%s'",filename), true);
+			Global.writeToLog(err.getMessage(), true);
+			return null;
+		}
+	}
+	
+	/**
+	 * Cell codes of a level grid, stored column by column from the bottom of each column. Each code is
+	 * the two digit code of the "1a" format (block type digit, then data digit), or
+	 * <code>CELL_EMPTY</code> for an empty cell.
+	 */
+	protected static class Cells {
+		final int width, height;
+		final byte[] codes;
+		
+		Cells(int width, int height) {
+			this.width = width;
+			this.height = height;
+			codes = new byte[width * height];
+		}
+		
+		int get(int x, int y) { return codes[x * height + y]; }
+		void set(int x, int y, int code) { codes[x * height + y] = (byte) code; }
+	}
+	
+	/** Cell code of an empty grid space. */
+	protected static final int CELL_EMPTY = 0;
+	/** First four bytes of a binary level file, "BBLV". */
+	protected static final int BINARY_MAGIC = 0x42424C56;
+	protected static final int BINARY_VERSION = 2;
+	/** Binary level flag: the cells are run length encoded as (count, code) byte pairs. */
+	protected static final int FLAG_RLE = 1;
+	/** magic, version (byte), flags (byte), width (short), height (short), cell CRC32 (int), payload length (int) */
+	protected static final int BINARY_HEADER_SIZE = 18;
+	
+	/**
+	 * Reads the cell codes of a level file in any supported format. The file is read whole, and binary
+	 * files are decoded without any text parsing. Level files are small, and reading rather than
+	 * mapping them leaves them free to be saved over while the game runs.
+	 * @param filename The level file
+	 * @return The level cells
+	 * @throws IOException If the file can not be read or is not a valid level
+	 */
+	protected static Cells readCells(String filename) throws IOException {
+		byte[] data = Files.readAllBytes(Paths.get(filename));
+		if (data.length >= BINARY_HEADER_SIZE) {
+			ByteBuffer buf = ByteBuffer.wrap(data);
+			if (buf.getInt(0) == BINARY_MAGIC) { return decodeBinary(buf); }
+		}
+		return readTextCells(data);
+	}
+	
+	/** Reads the text formats "0" and "1a". */
+	private static Cells readTextCells(byte[] file) throws IOException {
+		Cells cells = null;
+		String buffer;
+		String[] set;
+		int value;
+		try (BufferedReader inf = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(file)))) {
 			String version = inf.readLine().trim();
 			switch (version) {
-				case "0": // original file format, only supports 20x20 grid
-					grid = new GridColumn[20];
+				case "0": // original file format, only supports 20x20 grid of basic blocks
+					cells = new Cells(20, 20);
 					buffer = inf.readLine();
 					int xc = 0;
 					while (buffer != null) {
 						set = buffer.split(",");
-						grid[xc] = new GridColumn(20);
 						for (int i = 0; i < set.length; i++) {
-							grid[xc].blocks[i] = new Block(Block.BlockType.BLOCK, Integer.parseInt(set[i]));
+							value = Integer.parseInt(set[i].trim());
+							// basic block with the value as its color, out of range colors become color 0
+							cells.set(xc, i, 10 + ((value < 0 || value > 9) ? 0 : value));
 						}
 						xc++;
 						buffer = inf.readLine();
 					}
-					
-					inf.close();
 					break;
 				case "1a":
 					buffer = inf.readLine().trim();
 					set = buffer.split(",");
-					xs = Integer.parseInt(set[0]);
-					ys = Integer.parseInt(set[1]);
-					grid = new GridColumn[xs];
-					for (int x = 0; x < xs; x++) {
-						grid[x] = new GridColumn(ys);
+					cells = new Cells(Integer.parseInt(set[0]), Integer.parseInt(set[1]));
+					for (int x = 0; x < cells.width; x++) {
 						buffer = inf.readLine();
-						for (int y = 0; y < ys; y++) {
-							sub = buffer.substring(2 * y, 2 * y + 2);
-							raw = Integer.parseInt(sub);
-							id = raw / 10;
-							data = raw % 10;
-							switch (id) {
-								case 1: // Block
-									block = new Block(Block.BlockType.BLOCK, data);
-									break;
-								case 2: // Bomb
-									block = new Block(Block.BlockType.BOMB, data);
-									break;
-								case 3: // Other
-									switch (data) {
-										case 0:
-											block = new Block(Block.BlockType.WEDGE);
-											break;
-										case 1:
-											block = new Block(Block.BlockType.STAR);
-											break;
-										case 2:
-											block = new Block(Block.BlockType.TRASH);
-											break;
-										case 3:
-											block = new Block(Block.BlockType.HEART);
-											break;
-										case 4:
-											block = new Block(Block.BlockType.ROCK);
-											break;
-										default: // if error return basic blue block
-											block = new Block(Block.BlockType.BOMB, 9);
-											break;
-									} // end switch(data)
-									break;
-								default:
-									block = new Block(Block.BlockType.BOMB, 5);
-									break;
-							} // end switch(id)
-							grid[x].blocks[y] = block;
+						for (int y = 0; y < cells.height; y++) {
+							// two digits per cell: block type then data
+							char id = buffer.charAt(2 * y), data = buffer.charAt(2 * y + 1);
+							if (id < '0' || id > '9' || data < '0' || data > '9') {
+								throw new IOException(String.format("Invalid cell '%s' at %d,%d", buffer.substring(2 * y, 2 * y + 2), x, y));
+							}
+							cells.set(x, y, (id - '0') * 10 + (data - '0'));
 						}
 					}
 					break; // end version 1a format
 				default: // unknown file format
-					
+					throw new IOException(String.format("Unknown level file version '%s'", version));
+			}
+		}
+		return cells;
+	}
+	
+	/**
+	 * Decodes a binary level from the buffer's position. The position is left after the level.
+	 * @param buf The level data, for example a mapped file or a slice of a level pack
+	 * @return The level cells
+	 * @throws IOException If the data is not a valid binary level
+	 */
+	protected static Cells decodeBinary(ByteBuffer buf) throws IOException {
+		if (buf.remaining() < BINARY_HEADER_SIZE || buf.getInt() != BINARY_MAGIC) {
+			throw new IOException("Not a binary level");
+		}
+		int version = buf.get() & 0xFF;
+		if (version != BINARY_VERSION) {
+			throw new IOException(String.format("Unsupported binary level version %d", version));
+		}
+		int flags = buf.get() & 0xFF;
+		int width = buf.getShort() & 0xFFFF;
+		int height = buf.getShort() & 0xFFFF;
+		int checksum = buf.getInt();
+		int length = buf.getInt();
+		if (width == 0 || height == 0 || length < 0 || length > buf.remaining()) {
+			throw new IOException("Invalid binary level header");
+		}
+		Cells cells = new Cells(width, height);
+		int end = buf.position() + length;
+		if ((flags & FLAG_RLE) != 0) {
+			int pos = 0, count;
+			byte code;
+			while (buf.position() < end) {
+				count = buf.get() & 0xFF;
+				code = buf.get();
+				if (pos + count > cells.codes.length) { throw new IOException("Binary level runs past the grid"); }
+				Arrays.fill(cells.codes, pos, pos + count, code);
+				pos += count;
+			}
+			if (pos != cells.codes.length) { throw new IOException("Binary level is missing cells"); }
+		} else {
+			if (length != cells.codes.length) { throw new IOException("Binary level is missing cells"); }
+			buf.get(cells.codes);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(cells.codes);
+		if ((int) crc.getValue() != checksum) {
+			throw new IOException("Binary level checksum does not match");
+		}
+		buf.position(end);
+		return cells;
+	}
+	
+	/**
+	 * Encodes level cells in the binary format, run length encoded when that is smaller.
+	 * @param cells The level cells
+	 * @return The binary level
+	 */
+	protected static byte[] encodeBinary(Cells cells) {
+		byte[] codes = cells.codes;
+		// run length encode, then keep whichever is smaller
+		ByteBuffer rle = ByteBuffer.allocate(codes.length * 2);
+		int run;
+		for (int i = 0; i < codes.length; i += run) {
+			run = 1;
+			while (i + run < codes.length && run < 255 && codes[i + run] == codes[i]) { run++; }
+			rle.put((byte) run).put(codes[i]);
+		}
+		rle.flip();
+		boolean useRle = rle.remaining() < codes.length;
+		int length = useRle ? rle.remaining() : codes.length;
+		CRC32 crc = new CRC32();
+		crc.update(codes);
+		
+		ByteBuffer out = ByteBuffer.allocate(BINARY_HEADER_SIZE + length);
+		out.putInt(BINARY_MAGIC);
+		out.put((byte) BINARY_VERSION);
+		out.put((byte) (useRle ? FLAG_RLE : 0));
+		out.putShort((short) cells.width);
+		out.putShort((short) cells.height);
+		out.putInt((int) crc.getValue());
+		out.putInt(length);
+		if (useRle) {
+			out.put(rle);
+		} else {
+			out.put(codes);
+		}
+		return out.array();
+	}
+	
+	/** Builds a grid of blocks from level cells. */
+	protected static GridColumn[] toGrid(Cells cells) {
+		GridColumn[] grid = new GridColumn[cells.width];
+		for (int x = 0; x < cells.width; x++) {
+			grid[x] = new GridColumn(cells.height);
+			for (int y = 0; y < cells.height; y++) {
+				grid[x].blocks[y] = blockFromCode(cells.get(x, y));
 			}
-			inf.close();
-		} catch (Exception err) {
-			Global.writeToLog(String.format("An error occured trying to read from file '%s'",filename), true);
-			Global.writeToLog(err.getMessage(), true);
-			return null;
 		}
 		return grid;
 	}
 	
+	/** Gets the cell codes for a grid of blocks. */
+	protected static Cells toCells(GridColumn[] grid) {
+		Cells cells = new Cells(grid.length, grid[0].blocks.length);
+		for (int x = 0; x < cells.width; x++) {
+			for (int y = 0; y < cells.height; y++) {
+				cells.set(x, y, codeFromBlock(grid[x].blocks[y]));
+			}
+		}
+		return cells;
+	}
+	
+	/**
+	 * @param code A cell code
+	 * @return A new block for the code, or <code>null</code> for an empty cell
+	 */
+	protected static Block blockFromCode(int code) {
+		if (code == CELL_EMPTY) { return null; }
+		int data = code % 10;
+		switch (code / 10) {
+			case 1: // Block
+				return new Block(Block.BlockType.BLOCK, data);
+			case 2: // Bomb
+				return new Block(Block.BlockType.BOMB, data);
+			case 3: // Other
+				switch (data) {
+					case 0:
+						return new Block(Block.BlockType.WEDGE);
+					case 1:
+						return new Block(Block.BlockType.STAR);
+					case 2:
+						return new Block(Block.BlockType.TRASH);
+					case 3:
+						return new Block(Block.BlockType.HEART);
+					case 4:
+						return new Block(Block.BlockType.ROCK);
+					default: // if error return basic blue block
+						return new Block(Block.BlockType.BOMB, 9);
+				} // end switch(data)
+			default:
+				return new Block(Block.BlockType.BOMB, 5);
+		}
+	}
+	
+	/**
+	 * @param block A block, or <code>null</code>
+	 * @return The cell code for the block
+	 */
+	protected static int codeFromBlock(Block block) {
+		if (block == null) { return CELL_EMPTY; }
+		switch (block.type) {
+			case BLOCK:
+				return 10 + block.colorID;
+			case BOMB:
+				return 20 + block.colorID;
+			case WEDGE:
+				return 30;
+			case STAR:
+				return 31;
+			case TRASH:
+				return 32;
+			case HEART:
+				return 33;
+			case ROCK:
+				return 34;
+			default:
+				return CELL_EMPTY;
+		}
+	}
+	
 }
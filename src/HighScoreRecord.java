@@ -2,15 +2,27 @@ import java.time.LocalDateTime;
 import java.util.zip.DataFormatException;
 
 public final class HighScoreRecord implements Comparable<HighScoreRecord> {
-	private String name, date, sScore, level;
-	private int score;
+	private String name, date, sScore;
+	private int score, level;
 	
 	public HighScoreRecord(String name, LocalDateTime date, int score, int playLevel) {
 		this.name = name;
 		this.date = String.format("%1$tm/%1$td/%1$tY", date); // format as MM/DD/YYYY with leading zeros where necessary
 		this.score = score;
 		this.sScore = Integer.toString(score);
-		this.level = String.format("%d", playLevel);
+		this.level = playLevel;
+	}
+	
+	/**
+	 * Creates a record read back from storage.
+	 * @param date Date formatted as MM/DD/YYYY
+	 */
+	HighScoreRecord(String name, String date, int score, int playLevel) {
+		this.name = name;
+		this.date = date;
+		this.score = score;
+		this.sScore = Integer.toString(score);
+		this.level = playLevel;
 	}
 	
 	private HighScoreRecord() {
@@ -18,16 +30,21 @@ public final class HighScoreRecord implements Comparable<HighScoreRecord> {
 		date = "01/01/2016";
 		score = 0;
 		sScore = "0";
-		level = "0";
+		level = 0;
 	}
 	
 	public static HighScoreRecord getNewEmptyRecord() { return new HighScoreRecord(); }
 	
+	/** @return true if this is an unchanged record from <code>getNewEmptyRecord()</code>, which fills empty places */
+	public boolean isEmptyRecord() {
+		return score == 0 && name.equals("Unknown Player");
+	}
+	
 	public String getName() { return name; }
 	public String getDate() { return date; }
 	public int getScore() { return score; }
 	public String getScoreAsString() { return sScore; }
-	public String getLevel() { return level; }
+	public int getLevel() { return level; }
 
 	@Override
 	public int compareTo(HighScoreRecord record) {
@@ -42,7 +59,7 @@ public final class HighScoreRecord implements Comparable<HighScoreRecord> {
 	
 	@Override
 	public String toString(){
-		return String.format("%s,%s,%d,%s", name, date, score, level);
+		return String.format("%s,%s,%d,%d", name, date, score, level);
 	}
 	
 	public void readRecord(String recordData) throws DataFormatException {
@@ -61,6 +78,10 @@ public final class HighScoreRecord implements Comparable<HighScoreRecord> {
 		}
 		score = value;
 		sScore = arrData[2];
-		level = arrData[3];
+		try {
+			level = Integer.parseInt(arrData[3]);
+		} catch (NumberFormatException nfe) {
+			throw new DataFormatException("Unparsable level in high score stream data.");
+		}
 	}
 }
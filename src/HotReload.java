@@ -0,0 +1,202 @@
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.lwjgl.opengl.GL11.*;
+import org.newdawn.slick.opengl.ImageData;
+import org.newdawn.slick.opengl.Texture;
+import org.newdawn.slick.opengl.TextureImpl;
+
+/**
+ * Watches the level and image files while the game runs and loads them again when they change, so an
+ * edit shows without restarting. Started with the <code>-hotreload</code> switch.
+ * <p>
+ * A background thread waits for file changes and reads each changed file. Level files are parsed into
+ * a new grid, which the level being played picks up at the start of its next frame through
+ * <code>poll()</code> if it was loaded from that file. Images are decoded and uploaded over the texture
+ * already in use, on the render thread through <code>GLTaskQueue</code>; an image whose size changed
+ * needs a restart, as the sprites cut from it would no longer match.
+ * @author John Ojala
+ */
+public final class HotReload {
+	/** Directories watched, relative to the working directory. */
+	public static String[] watchDirs = { ".", "media" };
+	/** Editors often write a file in several steps, so changes are read once the files are quiet this long. */
+	private static final long SETTLE_MILLIS = 200;
+	/** Longest wait for the files to go quiet, so a file written over and over does not hold off reloads. */
+	private static final long MAX_SETTLE_MILLIS = 2000;
+
+	/** New grids waiting for their level, keyed by the level file's absolute path. */
+	private static final ConcurrentHashMap<String, GridColumn[]> levels = new ConcurrentHashMap<String, GridColumn[]>();
+	private static WatchService watcher = null;
+
+	private HotReload() { }
+
+	/**
+	 * Starts watching. Called from <code>main()</code> once the window is open and the main textures are
+	 * loaded, before the game loop starts. Levels loaded later are matched to their files in
+	 * <code>poll()</code>.
+	 */
+	public static synchronized void start() {
+		if (watcher != null) { return; }
+		try {
+			watcher = FileSystems.getDefault().newWatchService();
+			for (String dir : watchDirs) {
+				Paths.get(dir).register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			}
+		} catch (IOException e) {
+			Global.writeToLog(String.format("Unable to watch files for changes: %s", e.getMessage()), true);
+			return;
+		}
+		Thread t = new Thread(HotReload::watchLoop, "HotReload");
+		t.setDaemon(true);
+		t.setPriority(Thread.MIN_PRIORITY);
+		t.start();
+		Global.writeToLog("Watching level and image files for changes.", true);
+	}
+
+	/** Stops watching. Called when the program exits. */
+	public static synchronized void shutdown() {
+		if (watcher == null) { return; }
+		try {
+			watcher.close();
+		} catch (IOException e) {
+			// nothing left to do with it
+		}
+	}
+
+	/**
+	 * Swaps in a changed version of the level's file, if there is one. Called by the level at the start
+	 * of each frame, on the render thread. Reloads for other files are dropped.
+	 * @param level The level being played
+	 */
+	public static void poll(BlockBreakLevel level) {
+		if (levels.isEmpty()) { return; }
+		String source = level.levelSource == null ? null : key(Paths.get(level.levelSource));
+		Iterator<Map.Entry<String, GridColumn[]>> it = levels.entrySet().iterator();
+		Map.Entry<String, GridColumn[]> e;
+		while (it.hasNext()) {
+			e = it.next();
+			it.remove();
+			if (e.getKey().equals(source)) {
+				level.reloadGrid(e.getValue());
+				Global.writeToLog(String.format("Reloaded level %s", level.levelSource), true);
+			}
+		}
+	}
+
+	private static String key(Path file) {
+		return file.toAbsolutePath().normalize().toString();
+	}
+
+	private static void watchLoop() {
+		LinkedHashSet<Path> changed = new LinkedHashSet<Path>();
+		WatchKey key;
+		long now, quiet, deadline;
+		try {
+			while (true) {
+				// the game writes its own files here too (log, settings, scores), they do not count
+				if (!collect(watcher.take(), changed)) { continue; }
+				now = System.nanoTime();
+				quiet = now + TimeUnit.MILLISECONDS.toNanos(SETTLE_MILLIS);
+				deadline = now + TimeUnit.MILLISECONDS.toNanos(MAX_SETTLE_MILLIS);
+				while ((now = System.nanoTime()) < Math.min(quiet, deadline)) {
+					key = watcher.poll(Math.min(quiet, deadline) - now, TimeUnit.NANOSECONDS);
+					if (key != null && collect(key, changed)) {
+						quiet = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SETTLE_MILLIS);
+					}
+				}
+				for (Path file : changed) { reload(file); }
+				changed.clear();
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// shut down
+		}
+	}
+
+	/** @return <code>true</code> if any level or image file changed */
+	private static boolean collect(WatchKey key, LinkedHashSet<Path> changed) {
+		Path dir = (Path) key.watchable();
+		Path file;
+		boolean found = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) { continue; }
+			file = dir.resolve((Path) event.context());
+			if (isLevel(file) || isImage(file)) {
+				changed.add(file);
+				found = true;
+			}
+		}
+		key.reset();
+		return found;
+	}
+
+	private static boolean isLevel(Path file) {
+		String name = file.getFileName().toString().toLowerCase();
+		return name.endsWith(".dat") || name.endsWith(".csv") || name.endsWith(".lvl");
+	}
+
+	private static boolean isImage(Path file) {
+		String name = file.getFileName().toString().toLowerCase();
+		return name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".tga");
+	}
+
+	private static void reload(Path file) {
+		try {
+			if (isLevel(file)) {
+				levels.put(key(file), GridColumn.toGrid(GridColumn.readCells(file.toString())));
+			} else if (isImage(file)) {
+				reloadTexture(file);
+			}
+		} catch (IOException | RuntimeException e) {
+			// a file caught half written is read again on its next change
+			Global.writeToLog(String.format("Unable to reload %s: %s", file, e.getMessage()), true);
+		}
+	}
+
+	private static void reloadTexture(Path file) throws IOException {
+		// textures are cached by real path, see FileResource.requestResource()
+		final String source = file.toRealPath().toString();
+		final ImageData data = AssetLoader.decodeImage(file.toString());
+		try {
+			GLTaskQueue.invokeAndWait(() -> {
+				upload(source, data);
+				return null;
+			});
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** Runs on the render thread, where textures are freed, so the texture can not go away meanwhile. */
+	private static void upload(String source, ImageData data) {
+		Texture tex = TextureCache.get(source);
+		if (tex == null) { return; }
+		if (data.getWidth() != tex.getImageWidth() || data.getHeight() != tex.getImageHeight()
+				|| data.getTexWidth() != tex.getTextureWidth() || data.getTexHeight() != tex.getTextureHeight()) {
+			Global.writeToLog(String.format("%s changed size, restart to use it", source), true);
+			return;
+		}
+		boolean alpha = data.getDepth() == 32;
+		glBindTexture(GL_TEXTURE_2D, tex.getTextureID());
+		glTexImage2D(GL_TEXTURE_2D, 0, alpha ? GL_RGBA8 : GL_RGB8, data.getTexWidth(), data.getTexHeight(), 0,
+				alpha ? GL_RGBA : GL_RGB, GL_UNSIGNED_BYTE, data.getImageBufferData());
+		// the texture was bound behind Slick's back
+		TextureImpl.bindNone();
+		Global.writeToLog(String.format("Reloaded texture %s", source), true);
+	}
+}
@@ -0,0 +1,328 @@
+import java.util.Arrays;
+
+import org.lwjgl.input.Controller;
+import org.lwjgl.input.Controllers;
+import org.lwjgl.input.Keyboard;
+
+/**
+ * Reads the keyboard and gamepad as events, once per frame, and turns them into actions. A key or
+ * control pressed and released between two frames still counts as a press, and an action is ready
+ * the frame after the press instead of when an input delay runs out.
+ * <p>
+ * Each press gives one action. A key or control held down repeats its action after
+ * <code>repeatDelay()</code> and then every <code>Global.inputReadDelayTimer</code> milliseconds. A
+ * press coming less than <code>DEBOUNCE_MILLIS</code> after a release is taken as contact bounce: the
+ * key counts as held throughout and gives no new action. Actions not taken in the frame they are ready
+ * are dropped, so input made while a screen ignores it does not pile up.
+ * <p>
+ * Events are timed with the timestamps the keyboard and gamepad give them, moved onto the
+ * <code>System.nanoTime()</code> clock and kept within the frame they were read in.
+ * <p>
+ * <code>poll()</code> is called by <code>Global.sampleControls()</code>, which takes the held controls
+ * from here. Code reading the keyboard's events, such as text entry, reads this frame's key events
+ * with <code>nextKey()</code> rather than <code>Keyboard.next()</code>, which the queue has emptied.
+ * @author John Ojala
+ */
+public final class InputQueue {
+	/** Presses closer than this to the key's last release are contact bounce. */
+	public static final long DEBOUNCE_MILLIS = 20;
+	private static final long DEBOUNCE_NANOS = DEBOUNCE_MILLIS * 1_000_000L;
+
+	/*
+	 * Keys and controls share the per-slot state: keys by key code, then controls by ordinal.
+	 */
+	private static final int KEYS = Keyboard.KEYBOARD_SIZE;
+	private static final Global.GameControl[] CONTROLS = Global.GameControl.values();
+	private static final int SLOTS = KEYS + CONTROLS.length;
+
+	private static final boolean[] held = new boolean[SLOTS];
+	/** When each held slot repeats next. */
+	private static final long[] nextRepeat = new long[SLOTS];
+	/** When each slot was last released, for debouncing. */
+	private static final long[] releasedAt = new long[SLOTS];
+	/** Actions ready this frame. */
+	private static final int[] presses = new int[SLOTS], repeats = new int[SLOTS];
+	/** Number of held keys, buttons and hat directions mapped to each control. */
+	private static final int[] sources = new int[CONTROLS.length];
+	/** Controls pressed and released this frame, one bit per control by ordinal. */
+	private static int pressedBits = 0, releasedBits = 0;
+
+	/* Gamepad state, as far as the events have told it */
+	private static Controller pad = null;
+	private static boolean[] padButtons = new boolean[0];
+	private static Global.GameControl padX = null, padY = null;
+
+	/* This frame's key events, read with nextKey() */
+	private static int eventCount = 0, eventRead = -1;
+	private static int[] eventKey = new int[32];
+	private static char[] eventChar = new char[32];
+	private static boolean[] eventState = new boolean[32];
+	private static long[] eventTime = new long[32];
+
+	/* Event clocks: the offset onto System.nanoTime(), and the frame the events are kept within */
+	private static final int KEYBOARD_CLOCK = 0, PAD_CLOCK = 1;
+	private static final long[] clockOffset = new long[2];
+	private static final boolean[] clockKnown = new boolean[2];
+	private static long lastPoll = System.nanoTime();
+
+	private InputQueue() { }
+
+	/** @return Milliseconds a key is held before it starts repeating */
+	public static long repeatDelay() {
+		return 2 * Global.inputReadDelayTimer;
+	}
+
+	/**
+	 * Reads the keyboard and gamepad events since the last call and works out this frame's actions.
+	 * Called once per frame, after <code>Keyboard.poll()</code>; actions from the last frame that were
+	 * not taken are dropped.
+	 */
+	public static void poll() {
+		long now = System.nanoTime();
+		Arrays.fill(presses, 0);
+		Arrays.fill(repeats, 0);
+		pressedBits = 0;
+		releasedBits = 0;
+		eventCount = 0;
+		eventRead = -1;
+
+		int key;
+		boolean state;
+		long time;
+		while (Keyboard.next()) {
+			key = Keyboard.getEventKey();
+			state = Keyboard.getEventKeyState();
+			time = eventTime(KEYBOARD_CLOCK, Keyboard.getEventNanoseconds(), now);
+			addEvent(key, Keyboard.getEventCharacter(), state, time);
+			// the queue makes its own repeats, at the game's rate
+			if (Keyboard.isRepeatEvent() || key <= Keyboard.KEY_NONE || key >= KEYS) { continue; }
+			if (held[key] == state) { continue; }
+			change(key, state, time);
+			controlSource(Global.getKeyControl(key), state, time);
+		}
+		pollPad(now);
+		// a key released while the window is not focused sends no event
+		for (key = 1; key < KEYS; key++) {
+			if (held[key] && !Keyboard.isKeyDown(key)) {
+				change(key, false, now);
+				controlSource(Global.getKeyControl(key), false, now);
+			}
+		}
+
+		long interval = Math.max(1, Global.inputReadDelayTimer) * 1_000_000L;
+		for (int i = 0; i < SLOTS; i++) {
+			if (!held[i] || nextRepeat[i] > now) { continue; }
+			// at most one repeat a frame, a slow frame does not make the cursor jump
+			repeats[i] = 1;
+			nextRepeat[i] += interval;
+			if (nextRepeat[i] <= now) { nextRepeat[i] = now + interval; }
+		}
+		lastPoll = now;
+	}
+
+	private static void pollPad(long now) {
+		Controller c = Global.getController();
+		if (c != pad) {
+			// the gamepad changed, forget what the old one had held
+			releasePad(now);
+			pad = c;
+			padButtons = new boolean[c == null ? 0 : c.getButtonCount()];
+		}
+		if (pad == null) { return; }
+		// Display.update() has already polled the gamepads and queued their events
+		int index;
+		long time;
+		while (Controllers.next()) {
+			if (Controllers.getEventSource() != pad) { continue; }
+			time = eventTime(PAD_CLOCK, Controllers.getEventNanoseconds(), now);
+			if (Controllers.isEventButton()) {
+				index = Controllers.getEventControlIndex();
+				if (index < 0 || index >= padButtons.length) { continue; }
+				if (padButtons[index] == Controllers.getEventButtonState()) { continue; }
+				padButtons[index] = !padButtons[index];
+				controlSource(Global.getButtonControl(index), padButtons[index], time);
+			} else if (Controllers.isEventPovX()) {
+				// the event has no value, the hat's position is its last one this frame
+				padX = hat(padX, pad.getPovX(), Global.GameControl.LEFT, Global.GameControl.RIGHT, time);
+			} else if (Controllers.isEventPovY()) {
+				padY = hat(padY, pad.getPovY(), Global.GameControl.UP, Global.GameControl.DOWN, time);
+			}
+		}
+	}
+
+	/** @return The direction now held on one axis of the hat switch */
+	private static Global.GameControl hat(Global.GameControl was, float value,
+			Global.GameControl negative, Global.GameControl positive, long time) {
+		Global.GameControl now = value == -1f ? negative : value == 1f ? positive : null;
+		if (now != was) {
+			controlSource(was, false, time);
+			controlSource(now, true, time);
+		}
+		return now;
+	}
+
+	private static void releasePad(long now) {
+		for (int i = 0; i < padButtons.length; i++) {
+			if (padButtons[i]) { controlSource(Global.getButtonControl(i), false, now); }
+		}
+		Arrays.fill(padButtons, false);
+		controlSource(padX, false, now);
+		controlSource(padY, false, now);
+		padX = padY = null;
+	}
+
+	/**
+	 * Moves an event timestamp onto <code>System.nanoTime()</code>. The offset between the clocks is
+	 * taken as the smallest seen, the event read soonest after it happened, and the result is kept
+	 * within this frame so a clock that drifts or jumps only affects timing inside one frame.
+	 */
+	private static long eventTime(int clock, long nanos, long now) {
+		long offset = now - nanos;
+		if (!clockKnown[clock] || offset < clockOffset[clock]) {
+			clockOffset[clock] = offset;
+			clockKnown[clock] = true;
+		}
+		return Math.max(lastPoll, Math.min(now, nanos + clockOffset[clock]));
+	}
+
+	private static void addEvent(int key, char character, boolean state, long time) {
+		if (eventCount == eventKey.length) {
+			int size = eventCount * 2;
+			eventKey = Arrays.copyOf(eventKey, size);
+			eventChar = Arrays.copyOf(eventChar, size);
+			eventState = Arrays.copyOf(eventState, size);
+			eventTime = Arrays.copyOf(eventTime, size);
+		}
+		eventKey[eventCount] = key;
+		eventChar[eventCount] = character;
+		eventState[eventCount] = state;
+		eventTime[eventCount++] = time;
+	}
+
+	/** A key, button or hat direction mapped to the control went down or up. */
+	private static void controlSource(Global.GameControl control, boolean down, long time) {
+		if (control == null) { return; }
+		int c = control.ordinal();
+		if (down) {
+			if (sources[c]++ == 0) { change(KEYS + c, true, time); }
+		} else if (sources[c] > 0 && --sources[c] == 0) {
+			change(KEYS + c, false, time);
+		}
+	}
+
+	private static void change(int slot, boolean down, long time) {
+		held[slot] = down;
+		if (!down) {
+			releasedAt[slot] = time;
+			if (slot >= KEYS) { releasedBits |= 1 << (slot - KEYS); }
+			return;
+		}
+		// a bounce keeps the repeat timing of the press before it
+		if (time - releasedAt[slot] < DEBOUNCE_NANOS) { return; }
+		presses[slot]++;
+		nextRepeat[slot] = time + repeatDelay() * 1_000_000L;
+		if (slot >= KEYS) { pressedBits |= 1 << (slot - KEYS); }
+	}
+
+	/**
+	 * Works the held controls out again from the held keys and buttons, after a key or button was
+	 * mapped to another control. Controls that stay held give no new action.
+	 */
+	static void remap() {
+		Arrays.fill(sources, 0);
+		Global.GameControl c;
+		for (int key = 1; key < KEYS; key++) {
+			if (held[key] && (c = Global.getKeyControl(key)) != null) { sources[c.ordinal()]++; }
+		}
+		for (int i = 0; i < padButtons.length; i++) {
+			if (padButtons[i] && (c = Global.getButtonControl(i)) != null) { sources[c.ordinal()]++; }
+		}
+		if (padX != null) { sources[padX.ordinal()]++; }
+		if (padY != null) { sources[padY.ordinal()]++; }
+		long now = System.nanoTime();
+		for (int i = 0; i < CONTROLS.length; i++) {
+			if (held[KEYS + i] != (sources[i] > 0)) {
+				held[KEYS + i] = sources[i] > 0;
+				releasedAt[KEYS + i] = now;
+				nextRepeat[KEYS + i] = now + repeatDelay() * 1_000_000L;
+			}
+		}
+	}
+
+	/* Actions */
+
+	/**
+	 * Takes one of the control's actions ready this frame, a press or a repeat.
+	 * @param control The control
+	 * @return <code>true</code> if there was an action, which is now used up
+	 */
+	public static boolean take(Global.GameControl control) {
+		return take(KEYS + control.ordinal(), true);
+	}
+
+	/**
+	 * Takes one press of the control made this frame, ignoring repeats, for actions that should not
+	 * happen again while the control is held.
+	 * @param control The control
+	 * @return <code>true</code> if the control was pressed, the press is now used up
+	 */
+	public static boolean takePress(Global.GameControl control) {
+		return take(KEYS + control.ordinal(), false);
+	}
+
+	/**
+	 * Takes one of the keyboard key's actions ready this frame, a press or a repeat, whatever control
+	 * the key is mapped to.
+	 * @param key An LWJGL key code
+	 * @return <code>true</code> if there was an action, which is now used up
+	 */
+	public static boolean takeKey(int key) {
+		return key > Keyboard.KEY_NONE && key < KEYS && take(key, true);
+	}
+
+	private static boolean take(int slot, boolean repeat) {
+		if (presses[slot] > 0) {
+			presses[slot]--;
+			return true;
+		}
+		if (repeat && repeats[slot] > 0) {
+			repeats[slot]--;
+			return true;
+		}
+		return false;
+	}
+
+	/** @return The controls held now, one bit per control by ordinal */
+	public static int getHeldControls() {
+		int bits = 0;
+		for (int i = 0; i < CONTROLS.length; i++) {
+			if (held[KEYS + i]) { bits |= 1 << i; }
+		}
+		return bits;
+	}
+
+	/** @return The controls pressed this frame, one bit per control by ordinal */
+	public static int getPressedControls() { return pressedBits; }
+
+	/** @return The controls released this frame, one bit per control by ordinal */
+	public static int getReleasedControls() { return releasedBits; }
+
+	/* This frame's key events, read like Keyboard.next() */
+
+	/**
+	 * Moves to this frame's next key event, including the keyboard's own repeat events.
+	 * @return <code>false</code> when there are no more
+	 */
+	public static boolean nextKey() {
+		if (eventRead + 1 >= eventCount) { return false; }
+		eventRead++;
+		return true;
+	}
+
+	public static int getEventKey() { return eventKey[eventRead]; }
+	public static char getEventCharacter() { return eventChar[eventRead]; }
+	/** @return <code>true</code> if the key went down, <code>false</code> if it was released */
+	public static boolean getEventKeyState() { return eventState[eventRead]; }
+	/** @return When the event happened, on the <code>System.nanoTime()</code> clock */
+	public static long getEventNanoseconds() { return eventTime[eventRead]; }
+}
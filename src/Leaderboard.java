@@ -0,0 +1,412 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps every score, one board per mode, level and seed, so a score can be ranked against all of
+ * them rather than only a top ten.
+ * <p>
+ * Each board is a treap (a binary search tree kept balanced by random priorities) ordered from the
+ * highest score down, with the size of each subtree stored in its node. Adding a score, finding the
+ * rank a score would take and reading the top scores all take logarithmic time (plus the number of
+ * scores read), so boards with hundreds of thousands of scores stay fast.
+ * <p>
+ * Scores are kept on disk in an append only log, <code>logFile</code>. A new score is appended by
+ * <code>DiskWriter</code>, so adding one never waits on the disk. The log is compacted when it is loaded:
+ * a damaged last record left by a crash is dropped, and boards over <code>MAX_SCORES</code> lose their
+ * lowest scores. Damaged records elsewhere are skipped, and the log is first copied to
+ * <code>scores.log.bad</code> so the scores that could not be read are not lost. Compaction writes a
+ * new log with <code>FileResource.writeAtomically()</code>. If it fails, the damaged tail is cut off
+ * before the next score is appended, so new scores always follow a whole record. Nothing is appended
+ * to a file that is not a score log, or whose unreadable scores could not be copied.
+ * <p>
+ * Log layout, all values big endian:
+ * <pre>
+ * int magic, int version
+ * per score: int length, int CRC32 of the record, then the record:
+ *            UTF board, UTF name, UTF date, int score, int level
+ * </pre>
+ * @author John Ojala
+ */
+public final class Leaderboard {
+	/** The score log. */
+	public static String logFile = "scores.log";
+	/** Most scores kept on one board. The lowest scores are dropped when the log is compacted. */
+	public static final int MAX_SCORES = 1 << 20;
+	private static final int MAGIC = 0x42425343; // "BBSC"
+	private static final int VERSION = 1;
+	/** More than any record the game writes takes up, used to tell a torn last record from a damaged length. */
+	private static final int MAX_RECORD_BYTES = 1 << 12;
+
+	/** A score in the treap. */
+	private static class Node {
+		final HighScoreRecord record;
+		final int score;
+		/** Order the scores were added, so equal scores keep the earlier one first. */
+		final long order;
+		final int priority;
+		int size = 1;
+		Node left, right;
+
+		Node(HighScoreRecord record, long order, int priority) {
+			this.record = record;
+			this.score = record.getScore();
+			this.order = order;
+			this.priority = priority;
+		}
+
+		/** @return <code>true</code> if this node is ranked before a score added at <code>order</code> */
+		boolean before(int score, long order) {
+			return this.score > score || (this.score == score && this.order < order);
+		}
+	}
+
+	private static final HashMap<String, Leaderboard> boards = new HashMap<String, Leaderboard>();
+	private static boolean loaded = false;
+	/** End of the last whole record in the log, where the next score goes. -1 until the log is read. */
+	private static long logEnd = -1;
+	/** Cleared if appending could lose scores that are still in the log. */
+	private static boolean appendAllowed = true;
+
+	private final String key;
+	private final Random priorities = new Random();
+	private Node root = null;
+	private long added = 0;
+
+	private Leaderboard(String key) {
+		this.key = key;
+	}
+
+	/**
+	 * @param mode Game mode name, such as "standard"
+	 * @param level Level the scores are for, or 0 for scores of a whole game
+	 * @param seed Seed of the random blocks, or 0 if the game was not seeded
+	 * @return The board, created empty if it has no scores yet
+	 */
+	public static Leaderboard get(String mode, int level, long seed) {
+		return get(mode + ":" + level + ":" + seed);
+	}
+
+	private static Leaderboard get(String key) {
+		synchronized (boards) {
+			Leaderboard board = boards.get(key);
+			if (board == null) {
+				board = new Leaderboard(key);
+				boards.put(key, board);
+			}
+			return board;
+		}
+	}
+
+	/* Treap operations */
+
+	private static int size(Node n) { return n == null ? 0 : n.size; }
+
+	private static void update(Node n) { n.size = 1 + size(n.left) + size(n.right); }
+
+	/** Splits a tree into the nodes ranked before a score added at <code>order</code> and the rest. */
+	private static Node[] split(Node n, int score, long order) {
+		if (n == null) { return new Node[] { null, null }; }
+		Node[] parts;
+		if (n.before(score, order)) {
+			parts = split(n.right, score, order);
+			n.right = parts[0];
+			update(n);
+			parts[0] = n;
+		} else {
+			parts = split(n.left, score, order);
+			n.left = parts[1];
+			update(n);
+			parts[1] = n;
+		}
+		return parts;
+	}
+
+	/** Joins two trees where every node of <code>a</code> is ranked before every node of <code>b</code>. */
+	private static Node merge(Node a, Node b) {
+		if (a == null) { return b; }
+		if (b == null) { return a; }
+		if (a.priority > b.priority) {
+			a.right = merge(a.right, b);
+			update(a);
+			return a;
+		}
+		b.left = merge(a, b.left);
+		update(b);
+		return b;
+	}
+
+	/** Adds a score to the tree only. */
+	private synchronized void insert(HighScoreRecord record) {
+		Node node = new Node(record, added++, priorities.nextInt());
+		Node[] parts = split(root, node.score, node.order);
+		root = merge(merge(parts[0], node), parts[1]);
+	}
+
+	/* Queries */
+
+	/** @return Number of scores on the board. */
+	public synchronized int size() { return size(root); }
+
+	/**
+	 * Finds the place a new score would take. A score equal to one already on the board is placed after
+	 * it, so only a higher score takes a place from an earlier one.
+	 * @param score A score
+	 * @return The rank, 1 for the top score
+	 */
+	public synchronized int rank(int score) {
+		int before = 0;
+		Node n = root;
+		while (n != null) {
+			if (n.score >= score) {
+				before += size(n.left) + 1;
+				n = n.right;
+			} else {
+				n = n.left;
+			}
+		}
+		return before + 1;
+	}
+
+	/**
+	 * @param count Number of scores to read
+	 * @return The highest scores, best first. Fewer are returned if the board has fewer.
+	 */
+	public synchronized List<HighScoreRecord> top(int count) {
+		ArrayList<HighScoreRecord> list = new ArrayList<HighScoreRecord>(Math.min(count, size(root)));
+		ArrayDeque<Node> path = new ArrayDeque<Node>();
+		Node n = root;
+		while (list.size() < count && (n != null || !path.isEmpty())) {
+			while (n != null) {
+				path.push(n);
+				n = n.left;
+			}
+			n = path.pop();
+			list.add(n.record);
+			n = n.right;
+		}
+		return list;
+	}
+
+	/**
+	 * Adds a score and queues it to be appended to the log.
+	 * @param record The score
+	 * @return The rank the score took, 1 for the top score
+	 */
+	public int add(HighScoreRecord record) {
+		int rank;
+		synchronized (this) {
+			rank = rank(record.getScore());
+			insert(record);
+		}
+		final byte[] bytes = encode(key, record);
+		DiskWriter.execute(() -> append(bytes));
+		return rank;
+	}
+
+	/* Log */
+
+	/**
+	 * Reads the score log, compacting it if needed. Meant for a game mode's loader thread. Called once;
+	 * later calls do nothing.
+	 */
+	public static void load() {
+		synchronized (boards) {
+			if (loaded) { return; }
+			loaded = true;
+		}
+		long t = StartupProfiler.start();
+		ByteBuffer data;
+		try {
+			// read whole rather than mapped, a mapped file can not be replaced by compact() on Windows
+			data = ByteBuffer.wrap(Files.readAllBytes(Paths.get(logFile)));
+		} catch (NoSuchFileException e) {
+			setLogEnd(0, true);
+			return;
+		} catch (IOException e) {
+			Global.writeToLog(String.format("Unable to read %s: %s", logFile, e.getMessage()), true);
+			setLogEnd(-1, false);
+			return;
+		}
+		// a crash can only tear the last record; damage anywhere else keeps a copy of the log
+		boolean torn = false, lost = false;
+		int count = 0, skipped = 0;
+		if (data.remaining() < 8 || data.getInt() != MAGIC || data.getInt() != VERSION) {
+			Global.writeToLog(String.format("%s is not a score log, scores not loaded or saved", logFile), true);
+			setLogEnd(-1, false);
+			return;
+		}
+		int end = data.position();
+		CRC32 crc = new CRC32();
+		byte[] record;
+		int length, check;
+		while (data.hasRemaining()) {
+			if (data.remaining() < 8) {
+				torn = true;
+				break;
+			}
+			length = data.getInt();
+			check = data.getInt();
+			if (length < 0 || length > data.remaining()) {
+				// a record running past the end is the torn last one, unless far too long to be a record
+				if (length >= 0 && data.remaining() < MAX_RECORD_BYTES) { torn = true; }
+				else { lost = true; }
+				break;
+			}
+			record = new byte[length];
+			data.get(record);
+			crc.reset();
+			crc.update(record);
+			try {
+				if ((int) crc.getValue() != check) { throw new IOException("bad CRC"); }
+				decode(record);
+				count++;
+			} catch (IOException | RuntimeException e) {
+				// the length was readable, so the records after this one still are
+				skipped++;
+			}
+			end = data.position();
+		}
+		boolean trimmed = false;
+		synchronized (boards) {
+			for (Leaderboard board : boards.values()) { trimmed |= board.trim(); }
+		}
+		StartupProfiler.end("scores", String.format("Leaderboard.load %d scores", count), t);
+		if (skipped > 0 || lost) {
+			String copy = logFile + ".bad";
+			Global.writeToLog(String.format("%s has damaged scores (%d skipped%s), keeping a copy in %s",
+				logFile, skipped, lost ? ", the rest unreadable" : "", copy), true);
+			try {
+				Files.copy(Paths.get(logFile), Paths.get(copy), StandardCopyOption.REPLACE_EXISTING);
+			} catch (IOException e) {
+				// without the copy the unreadable scores would be gone for good, leave the log alone
+				Global.writeToLog(String.format("Unable to copy %s, not compacting it or saving new scores: %s",
+					logFile, e.getMessage()), true);
+				setLogEnd(-1, false);
+				return;
+			}
+		} else if (torn) {
+			Global.writeToLog(String.format("%s ends with a damaged score, compacting", logFile), true);
+		}
+		// appends go after the last whole record, even if compacting fails
+		setLogEnd(end, true);
+		if (torn || lost || skipped > 0 || trimmed) { compact(); }
+	}
+
+	private static synchronized void setLogEnd(long end, boolean allowed) {
+		logEnd = end;
+		appendAllowed = allowed;
+	}
+
+	private static void decode(byte[] record) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+		String board = in.readUTF();
+		String name = in.readUTF();
+		String date = in.readUTF();
+		int score = in.readInt();
+		int level = in.readInt();
+		get(board).insert(new HighScoreRecord(name, date, score, level));
+	}
+
+	private static byte[] encode(String board, HighScoreRecord r) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeUTF(board);
+			out.writeUTF(r.getName());
+			out.writeUTF(r.getDate());
+			out.writeInt(r.getScore());
+			out.writeInt(r.getLevel());
+			byte[] record = bytes.toByteArray();
+			CRC32 crc = new CRC32();
+			crc.update(record);
+			ByteBuffer buf = ByteBuffer.allocate(8 + record.length);
+			buf.putInt(record.length).putInt((int) crc.getValue()).put(record);
+			return buf.array();
+		} catch (IOException e) {
+			// only thrown by the underlying stream, which is in memory
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** Drops the lowest scores over <code>MAX_SCORES</code>. @return <code>true</code> if any were dropped */
+	private synchronized boolean trim() {
+		if (size(root) <= MAX_SCORES) { return false; }
+		Node n = root;
+		int keep = MAX_SCORES;
+		// find the first score to drop, then split it and everything after it off
+		Node cut = null;
+		while (n != null) {
+			if (size(n.left) >= keep) {
+				cut = n;
+				n = n.left;
+			} else {
+				keep -= size(n.left) + 1;
+				n = n.right;
+			}
+		}
+		root = split(root, cut.score, cut.order)[0];
+		return true;
+	}
+
+	/** Rewrites the log with the scores currently held. */
+	private static synchronized void compact() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 16);
+		ByteBuffer header = ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION);
+		out.write(header.array(), 0, 8);
+		synchronized (boards) {
+			byte[] record;
+			for (Leaderboard board : boards.values()) {
+				for (HighScoreRecord r : board.top(Integer.MAX_VALUE)) {
+					record = encode(board.key, r);
+					out.write(record, 0, record.length);
+				}
+			}
+		}
+		try {
+			FileResource.writeAtomically(logFile, out.toByteArray());
+			logEnd = out.size();
+		} catch (IOException e) {
+			Global.writeToLog(String.format("Unable to compact %s: %s", logFile, e.getMessage()), true);
+		}
+	}
+
+	/** Runs on the writer thread. */
+	private static synchronized void append(byte[] record) {
+		if (!appendAllowed) { return; }
+		try (FileChannel out = FileChannel.open(Paths.get(logFile), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE)) {
+			long size = out.size();
+			long end = logEnd < 0 || size == 0 ? size : logEnd;
+			if (end > size) { throw new IOException("the log was cut short since it was read"); }
+			// drop a torn record left at the end
+			if (end < size) { out.truncate(end); }
+			if (end < 8) {
+				out.truncate(0);
+				out.write(ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION).flip(), 0);
+				end = 8;
+			}
+			ByteBuffer buf = ByteBuffer.wrap(record);
+			while (buf.hasRemaining()) { end += out.write(buf, end); }
+			out.force(false);
+			logEnd = end;
+		} catch (IOException e) {
+			Global.writeToLog(String.format("Unable to save score to %s: %s", logFile, e.getMessage()), true);
+		}
+	}
+}
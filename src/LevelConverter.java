@@ -0,0 +1,97 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Command line tool that converts level files in the text formats ("0" and "1a") to the binary level
+ * format. Each file is written next to the original with the extension <code>.lvl</code>.
+ * <p>
+ * Usage: <code>java LevelConverter level2.dat media/sp1.csv ...</code>
+ * <p>
+ * With <code>-pack &lt;pack file&gt;</code> the levels are instead written together into one level pack
+ * (see <code>LevelPack</code>), numbered from 1 in the order given and named by the paths as given.
+ * This is how <code>LevelPack.defaultPack</code> is built.
+ * @author John Ojala
+ */
+public class LevelConverter {
+
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			System.out.println("Usage: LevelConverter <level file> [<level file> ...]");
+			System.out.println("       LevelConverter -pack <pack file> <level file> [<level file> ...]");
+			System.out.println("Converts \"0\" and \"1a\" level files to the binary level format (.lvl),");
+			System.out.println("or writes them all into one level pack.");
+			return;
+		}
+		if (args[0].equals("-pack")) {
+			if (args.length < 3) {
+				System.err.println("-pack needs a pack file and at least one level file");
+				System.exit(1);
+			}
+			try {
+				String[] files = java.util.Arrays.copyOfRange(args, 2, args.length);
+				pack(args[1], files);
+				System.out.printf("%d levels -> %s (%d bytes)%n", files.length, args[1], Files.size(Paths.get(args[1])));
+			} catch (IOException | RuntimeException e) {
+				System.err.printf("%s: %s%n", args[1], e.getMessage());
+				System.exit(1);
+			}
+			return;
+		}
+		int failed = 0;
+		for (String file : args) {
+			try {
+				Path out = convert(file);
+				System.out.printf("%s -> %s (%d bytes)%n", file, out, Files.size(out));
+			} catch (IOException | RuntimeException e) {
+				System.err.printf("%s: %s%n", file, e.getMessage());
+				failed++;
+			}
+		}
+		if (failed > 0) { System.exit(1); }
+	}
+
+	/**
+	 * Converts one level file.
+	 * @param file The level file, in any supported format
+	 * @return The binary level file written
+	 * @throws IOException If the level can not be read or written
+	 */
+	public static Path convert(String file) throws IOException {
+		GridColumn.Cells cells = GridColumn.readCells(file);
+		String name = Paths.get(file).getFileName().toString();
+		int dot = name.lastIndexOf('.');
+		if (dot > 0) { name = name.substring(0, dot); }
+		Path out = Paths.get(file).resolveSibling(name + ".lvl");
+		Files.write(out, GridColumn.encodeBinary(cells));
+		// read it back so a bad conversion is caught here rather than in game
+		GridColumn.readCells(out.toString());
+		return out;
+	}
+
+	/**
+	 * Writes level files into one level pack.
+	 * @param packFile The pack file to write
+	 * @param files The level files, in any supported format
+	 * @throws IOException If a level can not be read or the pack can not be written
+	 */
+	public static void pack(String packFile, String[] files) throws IOException {
+		int[] ids = new int[files.length];
+		String[] metadata = new String[files.length];
+		GridColumn.Cells[] levels = new GridColumn.Cells[files.length];
+		for (int i = 0; i < files.length; i++) {
+			ids[i] = i + 1;
+			levels[i] = GridColumn.readCells(files[i]);
+		}
+		LevelPack.write(packFile, ids, files, metadata, levels);
+		// read every level back so a bad pack is caught here rather than in game
+		LevelPack pack = LevelPack.open(packFile);
+		for (LevelPack.Entry e : pack.getEntries()) {
+			GridColumn.Cells cells = pack.loadCells(e);
+			if (!java.util.Arrays.equals(cells.codes, levels[e.id - 1].codes)) {
+				throw new IOException("Level " + e.name + " does not match after packing");
+			}
+		}
+	}
+}
@@ -0,0 +1,259 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A single file holding many binary levels (see <code>GridColumn.encodeBinary()</code>) with a directory
+ * at the front. Opening a pack memory maps the file and reads only the directory, so a pack with
+ * thousands of levels can be listed without reading any of them, and a level is decoded straight from
+ * its slice of the mapped file when asked for.
+ * <p>
+ * Pack layout, all values big endian:
+ * <pre>
+ * int magic, int version, int entry count
+ * per entry: int id, short name length, name (UTF-8), short metadata length, metadata (UTF-8),
+ *            short width, short height, int block count, long offset, int size
+ * binary level data for each entry
+ * </pre>
+ * The levels used by the game modes are shipped in <code>defaultPack</code> and loaded through
+ * <code>loadLevel()</code>, which falls back to the loose level file when it is not in the pack or has
+ * been changed since the pack was built.
+ * @author John Ojala
+ */
+public class LevelPack {
+	/** The pack holding the game's built in levels. */
+	public static String defaultPack = "media/levels.pack";
+	private static final int MAGIC = 0x42424C50; // "BBLP"
+	private static final int VERSION = 1;
+
+	/** Directory entry for one level. */
+	public static class Entry {
+		public final int id;
+		/** The level's name. For built in levels this is the path of the level file it was made from. */
+		public final String name;
+		/** Free form level information, such as an author or difficulty. */
+		public final String metadata;
+		public final int width, height;
+		/** Number of cells that are not empty. */
+		public final int blocks;
+		final long offset;
+		final int size;
+
+		Entry(int id, String name, String metadata, int width, int height, int blocks, long offset, int size) {
+			this.id = id;
+			this.name = name;
+			this.metadata = metadata;
+			this.width = width;
+			this.height = height;
+			this.blocks = blocks;
+			this.offset = offset;
+			this.size = size;
+		}
+	}
+
+	private static LevelPack builtIn = null;
+	private static boolean builtInChecked = false;
+
+	private final File file;
+	private final MappedByteBuffer data;
+	private final List<Entry> entries;
+	private final HashMap<Integer, Entry> byId = new HashMap<Integer, Entry>();
+	private final HashMap<String, Entry> byName = new HashMap<String, Entry>();
+
+	private LevelPack(File file, MappedByteBuffer data, List<Entry> entries) {
+		this.file = file;
+		this.data = data;
+		this.entries = Collections.unmodifiableList(entries);
+		for (Entry e : entries) {
+			byId.put(e.id, e);
+			byName.put(e.name, e);
+		}
+	}
+
+	/**
+	 * Opens a pack and reads its directory.
+	 * @param filename The pack file
+	 * @return The open pack
+	 * @throws IOException If the file can not be read or is not a level pack
+	 */
+	public static LevelPack open(String filename) throws IOException {
+		File file = new File(filename);
+		MappedByteBuffer data;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		try {
+			if (data.getInt() != MAGIC || data.getInt() != VERSION) {
+				throw new IOException("Not a level pack: " + filename);
+			}
+			int count = data.getInt();
+			ArrayList<Entry> entries = new ArrayList<Entry>(count);
+			int id, width, height, blocks, size;
+			String name, metadata;
+			long offset;
+			for (int i = 0; i < count; i++) {
+				id = data.getInt();
+				name = readString(data);
+				metadata = readString(data);
+				width = data.getShort() & 0xFFFF;
+				height = data.getShort() & 0xFFFF;
+				blocks = data.getInt();
+				offset = data.getLong();
+				size = data.getInt();
+				if (offset < 0 || size < 0 || offset + size > data.capacity()) {
+					throw new IOException(String.format("Level %d lies outside of the pack", id));
+				}
+				entries.add(new Entry(id, name, metadata, width, height, blocks, offset, size));
+			}
+			return new LevelPack(file, data, entries);
+		} catch (RuntimeException e) {
+			// a truncated directory runs past the end of the buffer
+			throw new IOException("Damaged level pack: " + filename, e);
+		}
+	}
+
+	private static String readString(ByteBuffer buf) {
+		byte[] bytes = new byte[buf.getShort() & 0xFFFF];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/** @return Every level in the pack, in pack order. */
+	public List<Entry> getEntries() { return entries; }
+
+	/** @return The level with the given id, or <code>null</code> */
+	public Entry getEntry(int id) { return byId.get(id); }
+
+	/** @return The level with the given name, or <code>null</code> */
+	public Entry getEntry(String name) { return byName.get(name); }
+
+	/**
+	 * Decodes a level's cells from the mapped pack.
+	 * @param e A directory entry of this pack
+	 * @return The level cells
+	 * @throws IOException If the level data is damaged
+	 */
+	public GridColumn.Cells loadCells(Entry e) throws IOException {
+		ByteBuffer slice = data.duplicate();
+		slice.position((int) e.offset);
+		slice.limit((int) e.offset + e.size);
+		return GridColumn.decodeBinary(slice);
+	}
+
+	/**
+	 * Builds a level's grid.
+	 * @param e A directory entry of this pack
+	 * @return The grid of blocks
+	 * @throws IOException If the level data is damaged
+	 */
+	public GridColumn[] loadGrid(Entry e) throws IOException {
+		return GridColumn.toGrid(loadCells(e));
+	}
+
+	/**
+	 * Loads a built in level, from <code>defaultPack</code> when it holds an up to date copy of the level
+	 * file, otherwise from the level file itself.
+	 * @param filename Path of the level file, as it was given when the pack was built
+	 * @return The grid, or <code>null</code> if the level could not be loaded
+	 */
+	public static GridColumn[] loadLevel(String filename) {
+		LevelPack pack = getBuiltIn();
+		Entry e = pack == null ? null : pack.getEntry(filename);
+		File loose = new File(filename);
+		// a level file edited after the pack was built takes priority
+		if (e != null && (!loose.exists() || loose.lastModified() <= pack.file.lastModified())) {
+			try {
+				return pack.loadGrid(e);
+			} catch (IOException err) {
+				Global.writeToLog(String.format("Unable to load level '%s' from %s: %s", filename, pack.file, err.getMessage()), true);
+			}
+		}
+		return GridColumn.loadFromFile(filename);
+	}
+
+	private static synchronized LevelPack getBuiltIn() {
+		if (!builtInChecked) {
+			builtInChecked = true;
+			if (new File(defaultPack).exists()) {
+				try {
+					builtIn = open(defaultPack);
+				} catch (IOException e) {
+					Global.writeToLog(String.format("Unable to open level pack: %s", e.getMessage()), true);
+				}
+			}
+		}
+		return builtIn;
+	}
+
+	/**
+	 * Writes a pack.
+	 * @param filename The pack file to write
+	 * @param ids Level id of each level
+	 * @param names Name of each level
+	 * @param metadata Metadata of each level, <code>null</code> entries are written as empty
+	 * @param levels Cells of each level
+	 * @throws IOException If the pack can not be written
+	 */
+	public static void write(String filename, int[] ids, String[] names, String[] metadata, GridColumn.Cells[] levels) throws IOException {
+		byte[][] encoded = new byte[levels.length][];
+		byte[][] nameBytes = new byte[levels.length][];
+		byte[][] metaBytes = new byte[levels.length][];
+		// the level data starts after the directory
+		long offset = 12;
+		for (int i = 0; i < levels.length; i++) {
+			encoded[i] = GridColumn.encodeBinary(levels[i]);
+			nameBytes[i] = names[i].getBytes(StandardCharsets.UTF_8);
+			metaBytes[i] = (metadata[i] == null ? "" : metadata[i]).getBytes(StandardCharsets.UTF_8);
+			offset += 4 + 2 + nameBytes[i].length + 2 + metaBytes[i].length + 2 + 2 + 4 + 8 + 4;
+		}
+		ByteArrayOutputStream dirBytes = new ByteArrayOutputStream();
+		DataOutputStream dir = new DataOutputStream(dirBytes);
+		for (int i = 0; i < levels.length; i++) {
+			dir.writeInt(ids[i]);
+			dir.writeShort(nameBytes[i].length);
+			dir.write(nameBytes[i]);
+			dir.writeShort(metaBytes[i].length);
+			dir.write(metaBytes[i]);
+			dir.writeShort(levels[i].width);
+			dir.writeShort(levels[i].height);
+			dir.writeInt(countBlocks(levels[i]));
+			dir.writeLong(offset);
+			dir.writeInt(encoded[i].length);
+			offset += encoded[i].length;
+		}
+		Path target = Paths.get(filename);
+		Path temp = Paths.get(filename + ".tmp");
+		ByteBuffer header = ByteBuffer.allocate(12);
+		header.putInt(MAGIC).putInt(VERSION).putInt(levels.length);
+		try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			header.flip();
+			out.write(header);
+			out.write(ByteBuffer.wrap(dirBytes.toByteArray()));
+			for (byte[] level : encoded) { out.write(ByteBuffer.wrap(level)); }
+		}
+		Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static int countBlocks(GridColumn.Cells cells) {
+		int count = 0;
+		for (byte code : cells.codes) {
+			if (code != GridColumn.CELL_EMPTY) { count++; }
+		}
+		return count;
+	}
+}
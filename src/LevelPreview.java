@@ -0,0 +1,146 @@
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.EXTFramebufferObject.*;
+import static org.lwjgl.opengl.GL14.glBlendFuncSeparate;
+
+import java.nio.ByteBuffer;
+
+import org.newdawn.slick.opengl.TextureImpl;
+
+/**
+ * Preview image of a puzzle level's starting grid, shown on the level select screen. Only the grid is
+ * built, the first time its preview is drawn, and it is then drawn once into a texture so each
+ * following frame draws the preview as a single quad.
+ * <p>
+ * Without offscreen rendering (see <code>RenderTarget.isOffscreen()</code>) the grid is kept and its
+ * blocks are drawn every frame instead.
+ * @author John Ojala
+ */
+public class LevelPreview {
+	/** Size of a block in the preview, in pixels. */
+	public static final int BLOCK_SIZE = 24;
+	/** Width and height of the preview area, in pixels. Fits a grid of 20 x 20 blocks. */
+	public static final int PREVIEW_SIZE = 20 * BLOCK_SIZE;
+	/** Width and height of the preview texture. */
+	private static final int TEXTURE_SIZE = 512;
+
+	private final int level;
+	/** The level's starting grid, <code>null</code> until first drawn. */
+	private GridColumn[] grid = null;
+	private int texture = 0;
+
+	/**
+	 * @param level The puzzle level to preview
+	 */
+	public LevelPreview(int level) {
+		this.level = level;
+	}
+
+	/**
+	 * Draws the preview, building the grid and its texture first if needed. Must be called on the
+	 * render thread.
+	 * @param x Left edge of the preview area
+	 * @param y Top edge of the preview area
+	 */
+	public void draw(int x, int y) {
+		if (grid == null && texture == 0) {
+			grid = PuzzleBreakLevel.startingGrid(level);
+			if (RenderTarget.isOffscreen()) { render(); }
+			// the texture is all that is needed from now on
+			if (texture != 0) { grid = null; }
+		}
+		if (texture == 0) {
+			drawGrid(x, y);
+			SpriteBatch.flush();
+			return;
+		}
+		// the texture holds premultiplied colors, see render()
+		glBlendFunc(GL_ONE, GL_ONE_MINUS_SRC_ALPHA);
+		glColor4f(1f, 1f, 1f, 1f);
+		glBindTexture(GL_TEXTURE_2D, texture);
+		// the texture has its origin at the bottom left, flip it to match the top left projection
+		glBegin(GL_QUADS);
+		{
+			glTexCoord2f(0f, 1f);
+			glVertex2i(x, y);
+
+			glTexCoord2f(0f, 0f);
+			glVertex2i(x, y + PREVIEW_SIZE);
+
+			glTexCoord2f(1f, 0f);
+			glVertex2i(x + PREVIEW_SIZE, y + PREVIEW_SIZE);
+
+			glTexCoord2f(1f, 1f);
+			glVertex2i(x + PREVIEW_SIZE, y);
+		}
+		glEnd();
+		glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+		TextureImpl.unbind();
+	}
+
+	/** Queues the grid's blocks with the bottom row at the bottom of the preview area. */
+	private void drawGrid(int x, int y) {
+		int[] blockSize = new int[] { BLOCK_SIZE, BLOCK_SIZE };
+		int bottom = y + PREVIEW_SIZE - BLOCK_SIZE;
+		for (int i = 0; i < grid.length; i++) {
+			for (int k = 0; k < grid[i].blocks.length; k++) {
+				if (grid[i].blocks[k] == null) { continue; }
+				grid[i].blocks[k].queue(x + BLOCK_SIZE * i, bottom - BLOCK_SIZE * k, blockSize);
+			}
+		}
+	}
+
+	/** Draws the grid into a new texture. Leaves the frame bound as the drawing target afterwards. */
+	private void render() {
+		// anything already queued belongs to the frame
+		SpriteBatch.flush();
+		texture = glGenTextures();
+		glBindTexture(GL_TEXTURE_2D, texture);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP);
+		glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, TEXTURE_SIZE, TEXTURE_SIZE, 0, GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer) null);
+		TextureImpl.unbind();
+
+		int fbo = glGenFramebuffersEXT();
+		glBindFramebufferEXT(GL_FRAMEBUFFER_EXT, fbo);
+		glFramebufferTexture2DEXT(GL_FRAMEBUFFER_EXT, GL_COLOR_ATTACHMENT0_EXT, GL_TEXTURE_2D, texture, 0);
+		if (glCheckFramebufferStatusEXT(GL_FRAMEBUFFER_EXT) == GL_FRAMEBUFFER_COMPLETE_EXT) {
+			glViewport(0, 0, TEXTURE_SIZE, TEXTURE_SIZE);
+			glClear(GL_COLOR_BUFFER_BIT);
+			glMatrixMode(GL_PROJECTION);
+			glPushMatrix();
+			glLoadIdentity();
+			glOrtho(0, PREVIEW_SIZE, PREVIEW_SIZE, 0, -1, 1);
+			glMatrixMode(GL_MODELVIEW);
+			glPushMatrix();
+			glLoadIdentity();
+			// colors are blended as usual, which premultiplies them. Alpha is combined as one layer over
+			// another, blending it like the colors would leave a part transparent pixel its alpha squared
+			glBlendFuncSeparate(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA, GL_ONE, GL_ONE_MINUS_SRC_ALPHA);
+			drawGrid(0, 0);
+			SpriteBatch.flush();
+			glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+			glPopMatrix();
+			glMatrixMode(GL_PROJECTION);
+			glPopMatrix();
+			glMatrixMode(GL_MODELVIEW);
+		} else {
+			Global.writeToLog(String.format("Unable to draw preview of level %d, drawing the grid instead.", level));
+			glDeleteTextures(texture);
+			texture = 0;
+		}
+		glBindFramebufferEXT(GL_FRAMEBUFFER_EXT, 0);
+		glDeleteFramebuffersEXT(fbo);
+		RenderTarget.bindFrame();
+	}
+
+	/** Frees the preview texture. Must be called on the render thread. */
+	public void release() {
+		if (texture != 0) {
+			glDeleteTextures(texture);
+			texture = 0;
+		}
+		grid = null;
+	}
+}
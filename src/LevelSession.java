@@ -0,0 +1,205 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Saves a level in progress so it can be resumed on the next launch.
+ * <p>
+ * The level being played registers itself when it is created. A snapshot of it is taken when the
+ * player pauses and when the program exits, and is removed again once the level is finished. Taking a
+ * snapshot only copies the level state into a small byte array on the render thread; the file is
+ * written by <code>DiskWriter</code>, so a slow disk never holds up a frame. If several snapshots of the
+ * same file are waiting, only the newest is written.
+ * <p>
+ * Session file layout, all values big endian:
+ * <pre>
+ * int magic, int version, int level, boolean practice, int state length
+ * level state, see <code>BlockBreakLevel.writeSession()</code>
+ * </pre>
+ * @author John Ojala
+ */
+public final class LevelSession {
+	private static final int MAGIC = 0x42425353; // "BBSS"
+	private static final int VERSION = 1;
+	/** Queued in place of a snapshot to delete the session file. */
+	private static final byte[] DELETE = new byte[0];
+
+	/** A session read from disk, not yet applied to a level. */
+	public static class Snapshot {
+		public final int level;
+		public final boolean practice;
+		private final byte[] state;
+
+		private Snapshot(int level, boolean practice, byte[] state) {
+			this.level = level;
+			this.practice = practice;
+			this.state = state;
+		}
+	}
+
+	private static BlockBreakLevel active = null;
+
+	/** Files waiting to be written, in the order they were queued. Guarded by itself. */
+	private static final LinkedHashMap<String, byte[]> pending = new LinkedHashMap<String, byte[]>();
+	/** Set while a write of the pending files is queued. Guarded by <code>pending</code>. */
+	private static boolean writeQueued = false;
+
+	private LevelSession() { }
+
+	/**
+	 * Makes a level the one saved at exit. Called by the game mode when play starts, and by
+	 * <code>restore()</code>; a level built only to look at, like a preview, is never registered.
+	 * Levels without a session file are ignored.
+	 * @param level The level that is starting
+	 */
+	public static void setActive(BlockBreakLevel level) {
+		if (level.getSessionFile() != null) { active = level; }
+	}
+
+	/**
+	 * Takes a snapshot of a level and queues it to be written.
+	 * @param level The level to save
+	 */
+	public static void save(BlockBreakLevel level) {
+		String file = level.getSessionFile();
+		if (file == null || !level.canSaveSession()) { return; }
+		ByteArrayOutputStream state = new ByteArrayOutputStream(1024);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+		try {
+			level.writeSession(new DataOutputStream(state));
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(level.level);
+			out.writeBoolean(level.practice);
+			out.writeInt(state.size());
+			state.writeTo(out);
+		} catch (IOException e) {
+			// only thrown by the underlying stream, which is in memory
+			Global.writeToLog(String.format("Unable to save session: %s", e.getMessage()), true);
+			return;
+		}
+		queue(file, bytes.toByteArray());
+	}
+
+	/** Saves the active level, if any. Called when the program exits. */
+	public static void saveActive() {
+		if (active != null) { save(active); }
+	}
+
+	/**
+	 * Removes a finished level's session file, so it is not offered again.
+	 * @param level The finished level
+	 */
+	public static void end(BlockBreakLevel level) {
+		if (level == null) { return; }
+		if (level == active) { active = null; }
+		String file = level.getSessionFile();
+		if (file != null) { queue(file, DELETE); }
+	}
+
+	/**
+	 * Reads a session file. Meant for a game mode's loader thread, the state is applied on the render
+	 * thread with <code>restore()</code>.
+	 * @param file The session file
+	 * @return The session, or <code>null</code> if there is none or it can not be used
+	 */
+	public static Snapshot read(String file) {
+		byte[] bytes;
+		try {
+			bytes = Files.readAllBytes(Paths.get(file));
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			Global.writeToLog(String.format("Unable to read session %s: %s", file, e.getMessage()), true);
+			return null;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				Global.writeToLog(String.format("Ignoring session %s from another version", file), true);
+				return null;
+			}
+			int level = in.readInt();
+			boolean practice = in.readBoolean();
+			byte[] state = new byte[in.readInt()];
+			in.readFully(state);
+			return new Snapshot(level, practice, state);
+		} catch (IOException | RuntimeException e) {
+			Global.writeToLog(String.format("Ignoring damaged session %s", file), true);
+			return null;
+		}
+	}
+
+	/**
+	 * Applies a session to a newly created level of the same number, leaving the level paused.
+	 * @param level A new level created for <code>snapshot.level</code>
+	 * @param snapshot The session
+	 * @return <code>true</code> if the level was restored, otherwise the level should be discarded
+	 */
+	public static boolean restore(BlockBreakLevel level, Snapshot snapshot) {
+		try {
+			level.readSession(new DataInputStream(new ByteArrayInputStream(snapshot.state)));
+		} catch (IOException | RuntimeException e) {
+			Global.writeToLog(String.format("Unable to resume level %d: %s", snapshot.level, e.getMessage()), true);
+			end(level);
+			return false;
+		}
+		level.practice = snapshot.practice;
+		setActive(level);
+		return true;
+	}
+
+	/** Saves the active level. Called when the program exits, before <code>DiskWriter.shutdown()</code>. */
+	public static void shutdown() {
+		saveActive();
+	}
+
+	private static void queue(String file, byte[] data) {
+		synchronized (pending) {
+			// re-insert so the file moves behind anything queued since
+			pending.remove(file);
+			pending.put(file, data);
+			if (!writeQueued) {
+				writeQueued = true;
+				DiskWriter.execute(LevelSession::writePending);
+			}
+		}
+	}
+
+	/** Runs on the writer thread. */
+	private static void writePending() {
+		String file;
+		byte[] data;
+		while (true) {
+			synchronized (pending) {
+				if (pending.isEmpty()) {
+					writeQueued = false;
+					return;
+				}
+				Iterator<Map.Entry<String, byte[]>> it = pending.entrySet().iterator();
+				Map.Entry<String, byte[]> next = it.next();
+				it.remove();
+				file = next.getKey();
+				data = next.getValue();
+			}
+			try {
+				if (data == DELETE) {
+					Files.deleteIfExists(Paths.get(file));
+				} else {
+					FileResource.writeAtomically(file, data);
+				}
+			} catch (IOException e) {
+				Global.writeToLog(String.format("Unable to write session %s: %s", file, e.getMessage()), true);
+			}
+		}
+	}
+}
@@ -0,0 +1,292 @@
+import static org.lwjgl.openal.AL10.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.openal.AL;
+import org.newdawn.slick.openal.OggInputStream;
+import org.newdawn.slick.openal.SoundStore;
+import org.newdawn.slick.util.ResourceLoader;
+
+/**
+ * Streams OGG music from disk. A background thread decodes each track a chunk at a time into a small
+ * ring of OpenAL buffers, so a track of any length uses the same memory and the render thread never
+ * waits on decoding. Starting a track while another is playing crossfades between the two.
+ * <p>
+ * The public methods only queue a command for the streaming thread and return immediately; they can
+ * be called from any thread. <code>shutdown()</code> must be called before OpenAL is destroyed.
+ * @author John Ojala
+ */
+public final class MusicStreamer {
+	/** Number of buffers queued on a playing source. */
+	public static final int BUFFER_COUNT = 4;
+	/** Size of each buffer in bytes, about 0.2 seconds of 44.1 kHz 16 bit stereo. */
+	public static final int BUFFER_BYTES = 32 * 1024;
+	/** Time between checks for played buffers, well under the length of one buffer. */
+	private static final long TICK_MILLIS = 10;
+
+	/** A source and its buffer ring. One plays the current track, the other fades out the previous one. */
+	private static class Channel {
+		final int source;
+		final IntBuffer buffers = BufferUtils.createIntBuffer(BUFFER_COUNT);
+		String path = null;
+		boolean loop;
+		OggInputStream in = null;
+		int format, rate;
+		/** Set once the end of a track that does not loop has been queued. */
+		boolean ended;
+		float fadeFrom, fadeTo;
+		long fadeStart, fadeNanos;
+
+		Channel(int source) {
+			this.source = source;
+			alGenBuffers(buffers);
+		}
+
+		boolean isActive() { return path != null; }
+
+		float getFade(long now) {
+			if (fadeNanos <= 0 || now - fadeStart >= fadeNanos) { return fadeTo; }
+			return fadeFrom + (fadeTo - fadeFrom) * (now - fadeStart) / fadeNanos;
+		}
+
+		void fadeTo(float target, long millis, long now) {
+			fadeFrom = getFade(now);
+			fadeTo = target;
+			fadeStart = now;
+			fadeNanos = millis * 1000000L;
+		}
+	}
+
+	private static final ConcurrentLinkedQueue<Runnable> commands = new ConcurrentLinkedQueue<Runnable>();
+	private static Thread thread = null;
+	private static volatile boolean running = false;
+	private static volatile float volume = 1f;
+	private static volatile String currentTrack = null;
+
+	/* Owned by the streaming thread */
+	private static Channel current, previous;
+	private static final byte[] chunk = new byte[BUFFER_BYTES];
+	private static final ByteBuffer pcm = BufferUtils.createByteBuffer(BUFFER_BYTES);
+
+	private MusicStreamer() { }
+
+	/**
+	 * Starts playing a track, fading out whatever is playing over the same time. Playing the track that is
+	 * already playing does nothing.
+	 * @param path Resource path of an OGG file
+	 * @param loop <code>true</code> to repeat the track until stopped
+	 * @param fadeMillis Crossfade time, 0 to switch immediately
+	 */
+	public static void play(final String path, final boolean loop, final long fadeMillis) {
+		if (path.equals(currentTrack) || !start()) { return; }
+		currentTrack = path;
+		commands.add(() -> open(path, loop, fadeMillis));
+	}
+
+	/**
+	 * Fades out and stops the current track.
+	 * @param fadeMillis Fade time, 0 to stop immediately
+	 */
+	public static void stop(final long fadeMillis) {
+		if (!running) { return; }
+		currentTrack = null;
+		commands.add(() -> {
+			if (current == null || !current.isActive()) { return; }
+			swap();
+			previous.fadeTo(0f, fadeMillis, System.nanoTime());
+		});
+	}
+
+	/** @param level Music volume, from 0 to 1 */
+	public static void setVolume(float level) {
+		volume = Math.max(0f, Math.min(1f, level));
+	}
+
+	/** @return The resource path of the track playing or fading in, or <code>null</code> if none. */
+	public static String getCurrentTrack() { return currentTrack; }
+
+	/** Stops playback and frees the OpenAL sources and buffers. Called before OpenAL is destroyed. */
+	public static synchronized void shutdown() {
+		if (thread == null) { return; }
+		running = false;
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		thread = null;
+		currentTrack = null;
+	}
+
+	/** Starts the streaming thread if needed. @return <code>false</code> if sound is not available */
+	private static synchronized boolean start() {
+		if (running) { return true; }
+		if (!AL.isCreated()) { SoundStore.get().init(); }
+		if (!AL.isCreated()) {
+			Global.writeToLog("Sound is not available, music disabled.");
+			return false;
+		}
+		running = true;
+		thread = new Thread(MusicStreamer::streamLoop, "MusicStreamer");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MAX_PRIORITY - 1);
+		thread.start();
+		return true;
+	}
+
+	private static void streamLoop() {
+		IntBuffer sources = BufferUtils.createIntBuffer(2);
+		alGetError();
+		alGenSources(sources);
+		if (alGetError() != AL_NO_ERROR) {
+			Global.writeToLog("No sound sources left for music, music disabled.", true);
+			running = false;
+			return;
+		}
+		current = new Channel(sources.get(0));
+		previous = new Channel(sources.get(1));
+		Runnable command;
+		long now;
+		while (running) {
+			while ((command = commands.poll()) != null) { command.run(); }
+			now = System.nanoTime();
+			service(current, now);
+			service(previous, now);
+			try {
+				Thread.sleep(TICK_MILLIS);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+		commands.clear();
+		close(current);
+		close(previous);
+		alDeleteSources(sources);
+		alDeleteBuffers(current.buffers);
+		alDeleteBuffers(previous.buffers);
+		current = previous = null;
+	}
+
+	/** Makes the current channel the previous one, stopping whatever the previous channel was fading out. */
+	private static void swap() {
+		close(previous);
+		Channel c = previous;
+		previous = current;
+		current = c;
+	}
+
+	private static void open(String path, boolean loop, long fadeMillis) {
+		long now = System.nanoTime();
+		if (current.isActive()) {
+			swap();
+			previous.fadeTo(0f, fadeMillis, now);
+		}
+		Channel c = current;
+		c.path = path;
+		c.loop = loop;
+		c.ended = false;
+		c.fadeTo = 0f;
+		c.fadeNanos = 0L;
+		c.fadeTo(1f, fadeMillis, now);
+		if (!openStream(c)) {
+			c.path = null;
+			return;
+		}
+		alSourcef(c.source, AL_GAIN, c.getFade(now) * volume);
+		// queue the whole ring before playing so playback starts with a full buffer ahead
+		for (int i = 0; i < BUFFER_COUNT; i++) {
+			if (!fill(c, c.buffers.get(i))) { break; }
+		}
+		alSourcePlay(c.source);
+	}
+
+	private static boolean openStream(Channel c) {
+		try {
+			InputStream in = ResourceLoader.getResourceAsStream(FileResource.requestResource(c.path));
+			c.in = new OggInputStream(in);
+			c.format = c.in.getChannels() > 1 ? AL_FORMAT_STEREO16 : AL_FORMAT_MONO16;
+			c.rate = c.in.getRate();
+			return true;
+		} catch (IOException e) {
+			Global.writeToLog(String.format("Unable to stream music %s: %s", c.path, e.getMessage()), true);
+			return false;
+		}
+	}
+
+	/**
+	 * Decodes the next chunk of a track into a buffer and queues it.
+	 * @return <code>false</code> if the track has ended and nothing was queued
+	 */
+	private static boolean fill(Channel c, int buffer) {
+		if (c.ended) { return false; }
+		int length = 0, read;
+		try {
+			while (length < BUFFER_BYTES) {
+				read = c.in.read(chunk, length, BUFFER_BYTES - length);
+				if (read > 0) {
+					length += read;
+				} else if (c.loop) {
+					c.in.close();
+					if (!openStream(c)) { break; }
+				} else {
+					break;
+				}
+			}
+		} catch (IOException e) {
+			Global.writeToLog(String.format("Error streaming music %s: %s", c.path, e.getMessage()), true);
+		}
+		if (length < BUFFER_BYTES) { c.ended = true; }
+		if (length == 0) { return false; }
+		pcm.clear();
+		pcm.put(chunk, 0, length).flip();
+		alBufferData(buffer, c.format, pcm, c.rate);
+		alSourceQueueBuffers(c.source, buffer);
+		return true;
+	}
+
+	/** Refills played buffers, applies the fade, and frees the channel once it is silent or finished. */
+	private static void service(Channel c, long now) {
+		if (!c.isActive()) { return; }
+		float fade = c.getFade(now);
+		if (fade <= 0f && c.fadeTo <= 0f) {
+			close(c);
+			return;
+		}
+		alSourcef(c.source, AL_GAIN, fade * volume);
+		int played = alGetSourcei(c.source, AL_BUFFERS_PROCESSED);
+		int buffer;
+		while (played-- > 0) {
+			buffer = alSourceUnqueueBuffers(c.source);
+			fill(c, buffer);
+		}
+		if (alGetSourcei(c.source, AL_SOURCE_STATE) != AL_PLAYING) {
+			if (alGetSourcei(c.source, AL_BUFFERS_QUEUED) > 0) {
+				// the ring ran dry and the source stopped, carry on from what is queued
+				alSourcePlay(c.source);
+			} else if (c.ended) {
+				if (c == current && c.path.equals(currentTrack)) { currentTrack = null; }
+				close(c);
+			}
+		}
+	}
+
+	private static void close(Channel c) {
+		if (c == null || !c.isActive()) { return; }
+		alSourceStop(c.source);
+		// stopping marks every queued buffer as processed
+		int queued = alGetSourcei(c.source, AL_BUFFERS_QUEUED);
+		while (queued-- > 0) { alSourceUnqueueBuffers(c.source); }
+		try {
+			if (c.in != null) { c.in.close(); }
+		} catch (IOException e) {
+			// nothing more will be read from it
+		}
+		c.in = null;
+		c.path = null;
+	}
+}
@@ -0,0 +1,190 @@
+import static org.lwjgl.opengl.GL11.*;
+
+import java.nio.FloatBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.newdawn.slick.Color;
+
+/**
+ * Fixed capacity particle pool used for block clear and explosion effects. Particle state is kept in
+ * parallel arrays that are allocated once, so spawning and updating particles never allocates. Live
+ * particles are kept packed at the front of the arrays; a particle that expires is replaced by the last
+ * live particle.
+ * <p>
+ * All particles are drawn as untextured additive quads with a single <code>glDrawArrays</code> call
+ * from a vertex buffer that is also allocated once. When the pool is full new particles are dropped.
+ * @author John Ojala
+ */
+public final class ParticleSystem {
+	/** The maximum number of live particles. */
+	public static final int CAPACITY = 8192;
+	/** Downward acceleration in pixels per second per second. */
+	private static final float GRAVITY = 900f;
+	/** Floats per vertex: x, y, r, g, b, a */
+	private static final int VERTEX_FLOATS = 6;
+	private static final int VERTEX_STRIDE = VERTEX_FLOATS * 4;
+
+	/* Particle state, one entry per particle */
+	private static final float[] x = new float[CAPACITY];
+	private static final float[] y = new float[CAPACITY];
+	private static final float[] vx = new float[CAPACITY];
+	private static final float[] vy = new float[CAPACITY];
+	private static final float[] size = new float[CAPACITY];
+	/** Remaining life in seconds */
+	private static final float[] life = new float[CAPACITY];
+	/** 1 / starting life, used to fade and shrink the particle */
+	private static final float[] invLife = new float[CAPACITY];
+	private static final float[] gravity = new float[CAPACITY];
+	private static final float[] red = new float[CAPACITY];
+	private static final float[] green = new float[CAPACITY];
+	private static final float[] blue = new float[CAPACITY];
+	private static int count = 0;
+
+	/** Vertex data is built in a heap array and copied to the direct buffer in one bulk put. */
+	private static final float[] vertexData = new float[CAPACITY * 4 * VERTEX_FLOATS];
+	private static FloatBuffer vertices = null;
+
+	private ParticleSystem() { }
+
+	/** @return The number of live particles. */
+	public static int getCount() { return count; }
+
+	/** @return The number of particles that can still be spawned before the pool is full. */
+	public static int getFree() { return CAPACITY - count; }
+
+	/** Removes all particles. */
+	public static void clear() { count = 0; }
+
+	/**
+	 * Spawns particles spraying out from a point in random directions.
+	 * @param xc Screen x coordinate of the burst center
+	 * @param yc Screen y coordinate of the burst center
+	 * @param amount The number of particles to spawn
+	 * @param speed The maximum starting speed (pixels per second)
+	 * @param lifeMs The maximum life of each particle (milliseconds)
+	 * @param particleSize The starting size of each particle (pixels)
+	 * @param color The particle color
+	 */
+	public static void burst(float xc, float yc, int amount, float speed, int lifeMs, float particleSize, Color color) {
+		spawn(xc, yc, amount, speed * 0.2f, speed, lifeMs, particleSize, color, 1f);
+	}
+
+	/**
+	 * Spawns a ring of particles moving outward from a point, unaffected by gravity. Used for explosion
+	 * shock waves.
+	 * @param xc Screen x coordinate of the ring center
+	 * @param yc Screen y coordinate of the ring center
+	 * @param amount The number of particles to spawn
+	 * @param speed The speed of the ring (pixels per second)
+	 * @param lifeMs The life of each particle (milliseconds)
+	 * @param particleSize The starting size of each particle (pixels)
+	 * @param color The particle color
+	 */
+	public static void ring(float xc, float yc, int amount, float speed, int lifeMs, float particleSize, Color color) {
+		spawn(xc, yc, amount, speed * 0.9f, speed, lifeMs, particleSize, color, 0f);
+	}
+
+	private static void spawn(float xc, float yc, int amount, float minSpeed, float maxSpeed,
+			int lifeMs, float particleSize, Color color, float gravityScale) {
+		if (amount > CAPACITY - count) { amount = CAPACITY - count; }
+		float angle, speed, seconds;
+		for (int i = 0; i < amount; i++, count++) {
+			angle = Global.rand.nextFloat() * (float)(Math.PI * 2);
+			speed = minSpeed + Global.rand.nextFloat() * (maxSpeed - minSpeed);
+			seconds = (lifeMs * (0.5f + Global.rand.nextFloat() * 0.5f)) / 1000f;
+			x[count] = xc;
+			y[count] = yc;
+			vx[count] = (float)Math.cos(angle) * speed;
+			vy[count] = (float)Math.sin(angle) * speed;
+			size[count] = particleSize;
+			life[count] = seconds;
+			invLife[count] = 1f / seconds;
+			gravity[count] = GRAVITY * gravityScale;
+			red[count] = color.r;
+			green[count] = color.g;
+			blue[count] = color.b;
+		}
+	}
+
+	/**
+	 * Moves all particles and removes any that have expired.
+	 * @param deltaMs The time since the last update (milliseconds)
+	 */
+	public static void update(long deltaMs) {
+		float dt = deltaMs / 1000f;
+		int i = 0;
+		while (i < count) {
+			life[i] -= dt;
+			if (life[i] <= 0f) {
+				// move the last live particle into this slot and check it on the next pass
+				count--;
+				x[i] = x[count];
+				y[i] = y[count];
+				vx[i] = vx[count];
+				vy[i] = vy[count];
+				size[i] = size[count];
+				life[i] = life[count];
+				invLife[i] = invLife[count];
+				gravity[i] = gravity[count];
+				red[i] = red[count];
+				green[i] = green[count];
+				blue[i] = blue[count];
+				continue;
+			}
+			vy[i] += gravity[i] * dt;
+			x[i] += vx[i] * dt;
+			y[i] += vy[i] * dt;
+			i++;
+		}
+	}
+
+	/**
+	 * Draws all live particles in one call. Should be called after <code>SpriteBatch.flush()</code>
+	 * so the particles appear over the grid.
+	 */
+	public static void draw() {
+		if (count == 0) { return; }
+		if (vertices == null) {
+			vertices = BufferUtils.createFloatBuffer(CAPACITY * 4 * VERTEX_FLOATS);
+		}
+		float t, half;
+		int v = 0;
+		for (int i = 0; i < count; i++) {
+			t = life[i] * invLife[i]; // 1 at spawn, 0 at expiry, used for both alpha and size
+			half = size[i] * (0.25f + 0.25f * t);
+			v = putVertex(v, x[i] - half, y[i] - half, i, t);
+			v = putVertex(v, x[i] - half, y[i] + half, i, t);
+			v = putVertex(v, x[i] + half, y[i] + half, i, t);
+			v = putVertex(v, x[i] + half, y[i] - half, i, t);
+		}
+		vertices.clear();
+		vertices.put(vertexData, 0, v);
+		vertices.flip();
+
+		glDisable(GL_TEXTURE_2D);
+		glBlendFunc(GL_SRC_ALPHA, GL_ONE);
+		glEnableClientState(GL_VERTEX_ARRAY);
+		glEnableClientState(GL_COLOR_ARRAY);
+		vertices.position(0);
+		glVertexPointer(2, VERTEX_STRIDE, vertices);
+		vertices.position(2);
+		glColorPointer(4, VERTEX_STRIDE, vertices);
+		glDrawArrays(GL_QUADS, 0, count * 4);
+		glDisableClientState(GL_COLOR_ARRAY);
+		glDisableClientState(GL_VERTEX_ARRAY);
+		// restore the default state used by sprites
+		glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+		glEnable(GL_TEXTURE_2D);
+		Color.white.bind();
+	}
+
+	private static int putVertex(int v, float xPos, float yPos, int i, float alpha) {
+		vertexData[v] = xPos;
+		vertexData[v + 1] = yPos;
+		vertexData[v + 2] = red[i];
+		vertexData[v + 3] = green[i];
+		vertexData[v + 4] = blue[i];
+		vertexData[v + 5] = alpha;
+		return v + VERTEX_FLOATS;
+	}
+}
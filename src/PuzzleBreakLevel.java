@@ -1,5 +1,8 @@
 import static org.lwjgl.opengl.GL11.*;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.HashMap;
 
@@ -190,6 +193,9 @@ public class PuzzleBreakLevel extends BlockBreakLevel {
 	private int addScore = 0;
 	
 	private int medalOffset = 45;
+	
+	/** File the level in progress is saved to by <code>LevelSession</code>. */
+	protected static final String SESSION_FILE = "puzzle.session";
 		
 	public static void buildStaticAssets(HashMap<String,Texture> localTexMap) {
 		overlay = new Sprite(
@@ -291,8 +297,37 @@ public class PuzzleBreakLevel extends BlockBreakLevel {
 
 	} 
 	
+	@Override
+	protected String getSessionFile() {
+		return SESSION_FILE;
+	}
+	
+	@Override
+	protected void writeSession(DataOutputStream out) throws IOException {
+		super.writeSession(out);
+		out.writeInt(remainClears);
+		out.writeInt(levelMedal);
+		out.writeInt(oldMedal);
+		out.writeBoolean(noMoves);
+		out.writeBoolean(noRemainClears);
+	}
+	
+	@Override
+	protected void readSession(DataInputStream in) throws IOException {
+		super.readSession(in);
+		remainClears = in.readInt();
+		levelMedal = in.readInt();
+		oldMedal = in.readInt();
+		noMoves = in.readBoolean();
+		noRemainClears = in.readBoolean();
+		movesDisplay = remainClears;
+		pauseCursorPos = 0;
+		gamePaused = true;
+		inputDelay = 1000l;
+	}
+	
 	private GridColumn[] buildGrid(String source) {
-		return GridColumn.loadFromFile(source);
+		return loadLevelFile(source);
 	}
 	
 	protected int scoreSystem(int levelScore) {
@@ -399,8 +434,41 @@ public class PuzzleBreakLevel extends BlockBreakLevel {
 
 		Global.rand.setSeed(LocalDateTime.now().getNano());
 
-		//level = levelSelect;
-		
+		grid = startingGrid(levelSelect);
+		levelSource = levelFile(levelSelect);
+		if (levelSelect == 15) { gridShiftDir = 0; }
+		gridBasePos = new int[] { 20, Global.glEnvHeight - blockSize[1] - 50 };
+		cursorGridPos[0] = grid.length / 2;
+		cursorGridPos[1] = grid[0].blocks.length / 2;
+		//queue = new Block[grid.length];
+		setGridCounts();
+	}
+	
+	/** @return The file a puzzle level's grid is loaded from, or <code>null</code> if the grid is built here */
+	private static String levelFile(int levelSelect) {
+		switch (levelSelect) {
+			case 5:
+				return "media/sp6.csv";
+			case 10:
+				return "level2.dat";
+			case 11:
+			case 20:
+				return "level6.dat";
+			case 15:
+				return "level4.dat";
+			default:
+				return null;
+		}
+	}
+	
+	/**
+	 * Builds the starting grid of a puzzle level, without the rest of the level, so a preview does not
+	 * disturb the level being played. Also sets the level's entries in the clear and medal tables.
+	 * @param levelSelect The puzzle level
+	 * @return The grid
+	 */
+	protected static GridColumn[] startingGrid(int levelSelect) {
+		GridColumn[] grid = null;
 		Block b = null;
 		int r, rx, ry;
 		// TODO: finish all level grid builds
@@ -410,7 +478,7 @@ public class PuzzleBreakLevel extends BlockBreakLevel {
 		 */
 		switch (levelSelect) {
 			case 1:
-				levelClears[level] = 30;
+				levelClears[levelSelect] = 30;
 				grid = new GridColumn[20];
 				for (int i = 0; i < grid.length; i++) {
 					grid[i] = new GridColumn(20);
@@ -433,9 +501,9 @@ public class PuzzleBreakLevel extends BlockBreakLevel {
 						
 					}
 				}
-				scoreMedal1st[level] = 56000;
-				scoreMedal2nd[level] = 56200;
-				scoreMedal3rd[level] = 25000;
+				scoreMedal1st[levelSelect] = 56000;
+				scoreMedal2nd[levelSelect] = 56200;
+				scoreMedal3rd[levelSelect] = 25000;
 				
 				break;
 			case 2:
@@ -458,11 +526,11 @@ public class PuzzleBreakLevel extends BlockBreakLevel {
 						//grid[i].blocks[k] = b;
 					}
 				}
-				levelClears[level] = 31;
+				levelClears[levelSelect] = 31;
 				
-				scoreMedal1st[level] = 5000;
-				scoreMedal2nd[level] = 14000;
-				scoreMedal3rd[level] = 25000;
+				scoreMedal1st[levelSelect] = 5000;
+				scoreMedal2nd[levelSelect] = 14000;
+				scoreMedal3rd[levelSelect] = 25000;
 				
 				//scoreMedal1 = 5000;
 				//scoreMedal2 = 14000;
@@ -481,7 +549,7 @@ public class PuzzleBreakLevel extends BlockBreakLevel {
 						//grid[i].blocks[k] = new Block(Block.BlockType.BLOCK, Global.rand.nextInt(3));
 					}
 				}
-				levelClears[level] = 50;
+				levelClears[levelSelect] = 50;
 				scoreMedal1 = 2500;
 				scoreMedal2 = 5000;
 				scoreMedal3 = 25000;
@@ -509,14 +577,14 @@ public class PuzzleBreakLevel extends BlockBreakLevel {
 						//grid[i].blocks[k] = new Block(Block.BlockType.BLOCK, Global.rand.nextInt(3) + 2);
 					}
 				}
-				levelClears[level] = 50;
+				levelClears[levelSelect] = 50;
 				scoreMedal1 = 2500;
 				scoreMedal2 = 5000;
 				scoreMedal3 = 25000;
 
 				break;
 			case 5:
-				grid = GridColumn.loadFromFile("media/sp6.csv");
+				grid = LevelPack.loadLevel(levelFile(levelSelect));
 				scoreMedal1 = 2500;
 				scoreMedal2 = 5000;
 				scoreMedal3 = 25000;
@@ -544,7 +612,7 @@ public class PuzzleBreakLevel extends BlockBreakLevel {
 
 				break;
 			case 7:
-				levelClears[level] = 40;
+				levelClears[levelSelect] = 40;
 				// 3 colors, wedge, no starter heart block
 				grid = new GridColumn[20];
 				for (int i = 0; i < grid.length; i++) {
@@ -595,37 +663,36 @@ public class PuzzleBreakLevel extends BlockBreakLevel {
 
 				break;
 			case 10:
-				grid = GridColumn.loadFromFile("level2.dat");
+				grid = LevelPack.loadLevel(levelFile(levelSelect));
 				scoreMedal1 = 2500;
 				scoreMedal2 = 5000;
 				scoreMedal3 = 25000;
-				levelClears[level] = 50;
+				levelClears[levelSelect] = 50;
 				
-				//grid = GridColumn.loadFromFile("media/sp6.csv");
+				//grid = loadLevelFile("media/sp6.csv");
 				break;
 			case 11:
-				grid = GridColumn.loadFromFile("level6.dat");
+				grid = LevelPack.loadLevel(levelFile(levelSelect));
 				scoreMedal1 = 2500;
 				scoreMedal2 = 5000;
 				scoreMedal3 = 25000;
-				levelClears[level] = 50;
+				levelClears[levelSelect] = 50;
 
 				break;
 			case 15:
-				grid = GridColumn.loadFromFile("level4.dat");
+				grid = LevelPack.loadLevel(levelFile(levelSelect));
 				scoreMedal1 = 2500;
 				scoreMedal2 = 5000;
 				scoreMedal3 = 25000;
-				levelClears[level] = 50;
-				gridShiftDir = 0;
+				levelClears[levelSelect] = 50;
 
 				break;
 			case 20:
-				grid = GridColumn.loadFromFile("level6.dat");
+				grid = LevelPack.loadLevel(levelFile(levelSelect));
 				scoreMedal1 = 2500;
 				scoreMedal2 = 5000;
 				scoreMedal3 = 25000;
-				levelClears[level] = 50;
+				levelClears[levelSelect] = 50;
 
 				break;
 			default:
@@ -647,15 +714,12 @@ public class PuzzleBreakLevel extends BlockBreakLevel {
 
 				break;
 		}
-		gridBasePos = new int[] { 20, Global.glEnvHeight - blockSize[1] - 50 };
-		cursorGridPos[0] = grid.length / 2;
-		cursorGridPos[1] = grid[0].blocks.length / 2;
-		//queue = new Block[grid.length];
-		setGridCounts();
+		return grid;
 	}
 	
 	@Override
 	public void run() {
+		HotReload.poll(this);
 		// decrement input delay variables
 		actionDelay -= Global.delta;
 		inputDelay -= Global.delta;
@@ -757,6 +821,8 @@ public class PuzzleBreakLevel extends BlockBreakLevel {
 			drawGrid(grid);
 			
 			drawCursor();
+			SpriteBatch.flush();
+			drawParticles();
 
 			// check if heart special control is active and handle accordingly
 			if (heartSpecialActive) {
@@ -1150,33 +1216,28 @@ public class PuzzleBreakLevel extends BlockBreakLevel {
 	@Override
 	protected void pauseControls() {
 		if (inputDelay <= 0) {
-			if (Global.getControlActive(Global.GameControl.UP)) {
+			if (InputQueue.take(Global.GameControl.UP)) {
 				pauseCursorPos--;
 				if (pauseCursorPos < 0) {
 						pauseCursorPos = 2;
 				}
-				inputDelay = Global.inputReadDelayTimer * 2;
 			}
-			if (Global.getControlActive(Global.GameControl.DOWN)) {
+			if (InputQueue.take(Global.GameControl.DOWN)) {
 				pauseCursorPos++;
 				if (pauseCursorPos > 2) {
 					pauseCursorPos = 0;
 				}
-				inputDelay = Global.inputReadDelayTimer * 2;
 			}
-			if (Global.getControlActive(Global.GameControl.CANCEL)) { // Cancel key moves the cursor to the program exit button
+			if (InputQueue.takePress(Global.GameControl.CANCEL)) { // Cancel key moves the cursor to the program exit button
 				gamePaused = false;
-				inputDelay = Global.inputReadDelayTimer * 2;
 			}
-			if (Global.getControlActive(Global.GameControl.PAUSE)) { // Cancel key moves the cursor to the program exit button
+			if (InputQueue.takePress(Global.GameControl.PAUSE)) { // Cancel key moves the cursor to the program exit button
 				gamePaused = false;
-				inputDelay = Global.inputReadDelayTimer * 2;		
 			}
-			if (Global.getControlActive(Global.GameControl.SELECT)) {
+			if (InputQueue.takePress(Global.GameControl.SELECT)) {
 				switch (pauseCursorPos) {
 					case 0:
 						gamePaused = false;
-						inputDelay = Global.inputReadDelayTimer;	
 						break;
 					case 1:
 						buildGrid(level);
@@ -1185,7 +1246,6 @@ public class PuzzleBreakLevel extends BlockBreakLevel {
 						//levelFinished = true;
 						//gameOver = true;
 						score = 0;
-						inputDelay = Global.inputReadDelayTimer;	
 						break;
 					case 2:
 						levelFinished = true;
@@ -1193,12 +1253,9 @@ public class PuzzleBreakLevel extends BlockBreakLevel {
 						buildGrid(level);
 						remainClears = -1;
 						score = 0;
-						inputDelay = Global.inputReadDelayTimer;
 						break;
 				}
 			}
-		} else if (inputDelay > 0) {
-			inputDelay -= Global.delta;
 		}
 	}
 	
@@ -1206,23 +1263,21 @@ public class PuzzleBreakLevel extends BlockBreakLevel {
 	@Override
 	protected void gameOverControls() {
 		if (inputDelay <= 0) {
-			if (Global.getControlActive(Global.GameControl.UP)) {
+			if (InputQueue.take(Global.GameControl.UP)) {
 				//pauseCursorPos = pauseCursorPos == 0 ? 1 : 0;
 				pauseCursorPos--;
 				if (pauseCursorPos < 0) {
 						pauseCursorPos = 1;
 				}
-				inputDelay = Global.inputReadDelayTimer * 2;
 			}
-			if (Global.getControlActive(Global.GameControl.DOWN)) {
+			if (InputQueue.take(Global.GameControl.DOWN)) {
 				//pauseCursorPos = pauseCursorPos == 0 ? 1 : 0;
 				pauseCursorPos++;
 				if (pauseCursorPos > 1) {
 						pauseCursorPos = 0;
 				}
-				inputDelay = Global.inputReadDelayTimer * 2;
 			}
-			if (Global.getControlActive(Global.GameControl.SELECT)) {
+			if (InputQueue.takePress(Global.GameControl.SELECT)) {
 				switch (pauseCursorPos) {
 					case 0:
 						//resetVariables();
@@ -1240,8 +1295,6 @@ public class PuzzleBreakLevel extends BlockBreakLevel {
 						break;
 				}
 			}
-		} else if (inputDelay > 0) {
-			inputDelay -= Global.delta;
 		}
 	}
 	
@@ -1249,21 +1302,19 @@ public class PuzzleBreakLevel extends BlockBreakLevel {
 	@Override
 	protected void levelFinishedControls() {
 		if (inputDelay <= 0) {
-			if (Global.getControlActive(Global.GameControl.UP)) {
+			if (InputQueue.take(Global.GameControl.UP)) {
 				pauseCursorPos--;
 				if (pauseCursorPos < 0) {
 					pauseCursorPos = 2;
 				}
-				inputDelay = Global.inputReadDelayTimer * 2;
 			}
-			if (Global.getControlActive(Global.GameControl.DOWN)) {
+			if (InputQueue.take(Global.GameControl.DOWN)) {
 				pauseCursorPos++;
 				if (pauseCursorPos > 2) {
 					pauseCursorPos = 0;
 				}
-				inputDelay = Global.inputReadDelayTimer * 2;
 			}
-			if (Global.getControlActive(Global.GameControl.SELECT)) {
+			if (InputQueue.takePress(Global.GameControl.SELECT)) {
 				switch (pauseCursorPos) {
 					case 0:
 						levelFinished = true;
@@ -1298,8 +1349,6 @@ public class PuzzleBreakLevel extends BlockBreakLevel {
 						inputDelay = 10 * Global.inputReadDelayTimer;
 				}
 			}
-		} else if (inputDelay > 0) {
-			inputDelay -= Global.delta;
 		}
 	}
 
@@ -1309,43 +1358,40 @@ public class PuzzleBreakLevel extends BlockBreakLevel {
 	 */
 	@Override
 	protected void checkCommonControls() {
-		if (Global.getControlActive(Global.GameControl.PAUSE)) {
+		if (InputQueue.takePress(Global.GameControl.PAUSE)) {
 			pauseCursorPos = 0;
 			gamePaused = true;
-			inputDelay = 1000l;
+			LevelSession.save(this);
 		}  else {
 			//queueHold = false;
 			// cursor control
-			if (Global.getControlActive(Global.GameControl.UP)) {
+			if (InputQueue.take(Global.GameControl.UP)) {
 				cursorGridPos[1]++;
 				if (cursorGridPos[1] >= grid[0].blocks.length) {
 					cursorGridPos[1] = grid[0].blocks.length - 1;
 				}
-				inputDelay = Global.inputReadDelayTimer;
 			} else
-			if (Global.getControlActive(Global.GameControl.DOWN)) {
+			if (InputQueue.take(Global.GameControl.DOWN)) {
 				if (cursorGridPos[1] > 0) {
 					cursorGridPos[1]--;
 				}
-				inputDelay = Global.inputReadDelayTimer;
 			} 
-			if (Global.getControlActive(Global.GameControl.LEFT)) {
+			if (InputQueue.take(Global.GameControl.LEFT)) {
 				if (cursorGridPos[0] > 0) {
 					cursorGridPos[0]--;
 				}
-				inputDelay = Global.inputReadDelayTimer;
 			} else
-			if (Global.getControlActive(Global.GameControl.RIGHT)) {
+			if (InputQueue.take(Global.GameControl.RIGHT)) {
 				cursorGridPos[0]++;
 				if (cursorGridPos[0] >= grid.length) {
 					cursorGridPos[0] = grid.length - 1;
 				}
-				inputDelay = Global.inputReadDelayTimer;
 			}
 			if (actionDelay <= 0) {
+				// holding select keeps activating, at the repeat rate
 				if ((!blocksMoving || !Global.waitForGridMovement) &&
-						Global.getControlActive(Global.GameControl.SELECT) &&
-						grid[cursorGridPos[0]].blocks[cursorGridPos[1]] != null) {
+						grid[cursorGridPos[0]].blocks[cursorGridPos[1]] != null &&
+						InputQueue.take(Global.GameControl.SELECT)) {
 					int counter = processActivate();
 					if (counter > 1 || grid[cursorGridPos[0]].blocks[cursorGridPos[1]].type == Block.BlockType.BOMB || 
 							grid[cursorGridPos[0]].blocks[cursorGridPos[1]].type == Block.BlockType.STAR) {
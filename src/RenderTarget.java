@@ -0,0 +1,237 @@
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.EXTFramebufferObject.*;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.LWJGLException;
+import org.lwjgl.input.Mouse;
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.Display;
+import org.lwjgl.opengl.DisplayMode;
+import org.lwjgl.opengl.GLContext;
+import org.newdawn.slick.opengl.TextureImpl;
+
+/**
+ * Decouples the game's drawing space from the window. The game always draws in the
+ * <code>Global.glEnvWidth</code> x <code>Global.glEnvHeight</code> coordinate space. Each frame is
+ * drawn into an offscreen framebuffer sized by <code>Global.renderScale</code>, which is then scaled
+ * into the largest rectangle with the same aspect ratio that fits the window, leaving black bars on the
+ * remaining sides.
+ * <p>
+ * If framebuffer objects are not supported, or the framebuffer cannot be created, frames are drawn
+ * straight to the window through a letterboxed viewport. The render scale has no effect in that case.
+ * @author John Ojala
+ */
+public final class RenderTarget {
+	/** Smallest and largest allowed render scale. */
+	public static final float MIN_SCALE = 0.25f, MAX_SCALE = 2.0f;
+
+	private static int fbo = 0;
+	private static int colorTex = 0;
+	/** Size of the offscreen frame in pixels. */
+	private static int targetWidth = 0, targetHeight = 0;
+	/** Texture coordinates of the frame within the texture, less than 1 when padded to a power of two. */
+	private static float texU = 1f, texV = 1f;
+	/** The render scale the offscreen frame was built for. */
+	private static float builtScale = 0f;
+	private static boolean useFbo = false;
+	/** Current size of the window or screen in pixels. */
+	private static int windowWidth = Global.glEnvWidth, windowHeight = Global.glEnvHeight;
+	/** Letterboxed area of the window the game is shown in, in window pixels from the bottom left. */
+	private static int viewX = 0, viewY = 0, viewWidth = Global.glEnvWidth, viewHeight = Global.glEnvHeight;
+
+	private RenderTarget() { }
+
+	/**
+	 * Sets the window or fullscreen display mode. Fullscreen uses the desktop display mode, which is
+	 * always available, so entering fullscreen does not depend on any particular mode being supported.
+	 * Windowed mode uses <code>Global.winWidth</code> x <code>Global.winHeight</code>, reduced to fit the
+	 * desktop if needed.
+	 * @param fullscreen <code>true</code> to run in fullscreen
+	 * @return <code>true</code> if the requested mode was set
+	 */
+	public static boolean setDisplayMode(boolean fullscreen) {
+		try {
+			if (fullscreen) {
+				Display.setDisplayModeAndFullscreen(Display.getDesktopDisplayMode());
+			} else {
+				DisplayMode desktop = Display.getDesktopDisplayMode();
+				int w = Global.winWidth, h = Global.winHeight;
+				if (w > desktop.getWidth() || h > desktop.getHeight()) {
+					float fit = Math.min((float) desktop.getWidth() / w, (float) desktop.getHeight() / h) * 0.9f;
+					w = (int)(w * fit);
+					h = (int)(h * fit);
+				}
+				Display.setFullscreen(false);
+				Display.setDisplayMode(new DisplayMode(w, h));
+			}
+			if (Display.isCreated()) { resize(); }
+			return true;
+		} catch (LWJGLException e) {
+			Global.writeToLog(String.format("Unable to set display mode (fullscreen %b): %s", fullscreen, e.getMessage()), true);
+			e.printStackTrace();
+		}
+		return false;
+	}
+
+	/**
+	 * Creates the offscreen frame. Must be called after the display is created.
+	 */
+	public static void initialize() {
+		ContextCapabilities caps = GLContext.getCapabilities();
+		useFbo = caps.GL_EXT_framebuffer_object;
+		if (!useFbo) {
+			Global.writeToLog("Framebuffer objects not supported, rendering directly to the window.", true);
+		}
+		resize();
+	}
+
+	/** @return <code>true</code> if frames are drawn offscreen and scaled to the window. */
+	public static boolean isOffscreen() { return useFbo; }
+
+	/**
+	 * Updates the letterbox for the current window size, and rebuilds the offscreen frame if the render
+	 * scale has changed.
+	 */
+	public static void resize() {
+		windowWidth = Display.getWidth();
+		windowHeight = Display.getHeight();
+		if (!Display.isFullscreen()) {
+			// remember the window size so it is kept when returning from fullscreen
+			Global.winWidth = windowWidth;
+			Global.winHeight = windowHeight;
+		}
+		float fit = Math.min((float) windowWidth / Global.glEnvWidth, (float) windowHeight / Global.glEnvHeight);
+		viewWidth = Math.max(1, Math.round(Global.glEnvWidth * fit));
+		viewHeight = Math.max(1, Math.round(Global.glEnvHeight * fit));
+		viewX = (windowWidth - viewWidth) / 2;
+		viewY = (windowHeight - viewHeight) / 2;
+		if (useFbo && builtScale != Global.renderScale) {
+			build();
+		}
+	}
+
+	private static void build() {
+		release();
+		float scale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, Global.renderScale));
+		targetWidth = Math.max(1, Math.round(Global.glEnvWidth * scale));
+		targetHeight = Math.max(1, Math.round(Global.glEnvHeight * scale));
+		ContextCapabilities caps = GLContext.getCapabilities();
+		int texW = targetWidth, texH = targetHeight;
+		if (!caps.OpenGL20 && !caps.GL_ARB_texture_non_power_of_two) {
+			texW = Integer.highestOneBit(targetWidth - 1) << 1;
+			texH = Integer.highestOneBit(targetHeight - 1) << 1;
+		}
+		texU = (float) targetWidth / texW;
+		texV = (float) targetHeight / texH;
+
+		colorTex = glGenTextures();
+		glBindTexture(GL_TEXTURE_2D, colorTex);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP);
+		glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, texW, texH, 0, GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer) null);
+		TextureImpl.unbind();
+
+		fbo = glGenFramebuffersEXT();
+		glBindFramebufferEXT(GL_FRAMEBUFFER_EXT, fbo);
+		glFramebufferTexture2DEXT(GL_FRAMEBUFFER_EXT, GL_COLOR_ATTACHMENT0_EXT, GL_TEXTURE_2D, colorTex, 0);
+		int status = glCheckFramebufferStatusEXT(GL_FRAMEBUFFER_EXT);
+		glBindFramebufferEXT(GL_FRAMEBUFFER_EXT, 0);
+		if (status != GL_FRAMEBUFFER_COMPLETE_EXT) {
+			Global.writeToLog(String.format("Offscreen frame incomplete (status 0x%X), rendering directly to the window.", status), true);
+			release();
+			useFbo = false;
+			return;
+		}
+		builtScale = Global.renderScale;
+	}
+
+	private static void release() {
+		if (fbo != 0) {
+			glDeleteFramebuffersEXT(fbo);
+			fbo = 0;
+		}
+		if (colorTex != 0) {
+			glDeleteTextures(colorTex);
+			colorTex = 0;
+		}
+		builtScale = 0f;
+	}
+
+	/**
+	 * Starts a frame. Everything drawn until <code>endFrame()</code> goes to the offscreen frame, or to the
+	 * letterboxed area of the window when drawing directly.
+	 */
+	public static void beginFrame() {
+		if (Display.wasResized() || (useFbo && builtScale != Global.renderScale)) { resize(); }
+		// drawing directly is limited to the letterbox, the clear below still covers the bars
+		bindFrame();
+		glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+	}
+
+	/**
+	 * Makes the current frame the drawing target again, after drawing into another framebuffer
+	 * during the frame.
+	 */
+	public static void bindFrame() {
+		if (useFbo) {
+			glBindFramebufferEXT(GL_FRAMEBUFFER_EXT, fbo);
+			glViewport(0, 0, targetWidth, targetHeight);
+		} else {
+			glViewport(viewX, viewY, viewWidth, viewHeight);
+		}
+	}
+
+	/**
+	 * Ends a frame, scaling the offscreen frame into the window. Called before <code>Display.update()</code>.
+	 */
+	public static void endFrame() {
+		if (!useFbo) { return; }
+		glBindFramebufferEXT(GL_FRAMEBUFFER_EXT, 0);
+		// glClear ignores the viewport, so this clears the bars as well
+		glClear(GL_COLOR_BUFFER_BIT);
+		glViewport(viewX, viewY, viewWidth, viewHeight);
+
+		glMatrixMode(GL_MODELVIEW);
+		glLoadIdentity();
+		glDisable(GL_BLEND);
+		glColor4f(1f, 1f, 1f, 1f);
+		glBindTexture(GL_TEXTURE_2D, colorTex);
+		// the frame texture has its origin at the bottom left, flip it to match the top left projection
+		glBegin(GL_QUADS);
+		{
+			glTexCoord2f(0f, texV);
+			glVertex2i(0, 0);
+
+			glTexCoord2f(0f, 0f);
+			glVertex2i(0, Global.glEnvHeight);
+
+			glTexCoord2f(texU, 0f);
+			glVertex2i(Global.glEnvWidth, Global.glEnvHeight);
+
+			glTexCoord2f(texU, texV);
+			glVertex2i(Global.glEnvWidth, 0);
+		}
+		glEnd();
+		glEnable(GL_BLEND);
+		// the texture cache in Slick does not know about the bind above
+		TextureImpl.unbind();
+	}
+
+	/** @return The mouse x position in game coordinates. */
+	public static int getMouseX() {
+		return ( (Mouse.getX() - viewX) * Global.glEnvWidth ) / viewWidth;
+	}
+
+	/** @return The mouse y position in game coordinates, measured from the top. */
+	public static int getMouseY() {
+		return Global.glEnvHeight - ( (Mouse.getY() - viewY) * Global.glEnvHeight ) / viewHeight;
+	}
+
+	/** Frees the offscreen frame. */
+	public static void destroy() {
+		release();
+	}
+}
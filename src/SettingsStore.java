@@ -0,0 +1,342 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Holds the game's settings and saved progress as typed key/value pairs in one file,
+ * <code>storeFile</code>.
+ * <p>
+ * Values are read and changed in memory, so the getters and setters never touch the disk. A change
+ * queues a write on <code>DiskWriter</code> that runs <code>BATCH_MILLIS</code> later and writes every
+ * value at once, so a burst of changes costs one write. The file is replaced with
+ * <code>FileResource.writeAtomically()</code>, so a crash leaves either the old or the new file, never a
+ * partly written one.
+ * <p>
+ * When the store file does not exist yet, the values are taken from the files used before it,
+ * <code>game.conf</code>, <code>standard.pref</code> and <code>puzzle.pref</code>. Those files are left
+ * in place but are not read again.
+ * <p>
+ * Store file layout, one value per line, sorted by key:
+ * <pre>
+ * key:type=value
+ * </pre>
+ * where type is <code>i</code> (int), <code>l</code> (long), <code>f</code> (float), <code>b</code>
+ * (boolean) or <code>s</code> (string, with <code>\\</code> and line breaks escaped).
+ * @author John Ojala
+ */
+public final class SettingsStore {
+	/** The store file. */
+	public static String storeFile = "game.settings";
+	/** Time to wait after a change for more changes before writing. */
+	private static final long BATCH_MILLIS = 500;
+
+	/** Every value, guarded by itself. Sorted so the file is easy to read and compare. */
+	private static final TreeMap<String, Object> values = new TreeMap<String, Object>();
+	private static boolean loaded = false;
+	/** Set when values changed since the last write, and while a write is queued. Guarded by <code>values</code>. */
+	private static boolean dirty = false, writeQueued = false;
+
+	private SettingsStore() { }
+
+	/**
+	 * Reads the store file, or migrates the older files if it does not exist. Called once at startup,
+	 * before anything reads a value; later calls do nothing.
+	 */
+	public static void load() {
+		synchronized (values) {
+			if (loaded) { return; }
+			loaded = true;
+			List<String> lines;
+			try {
+				lines = Files.readAllLines(Paths.get(storeFile), StandardCharsets.UTF_8);
+			} catch (NoSuchFileException e) {
+				migrate();
+				return;
+			} catch (IOException e) {
+				Global.writeToLog(String.format("Unable to read %s, using defaults: %s", storeFile, e.getMessage()), true);
+				return;
+			}
+			for (String line : lines) {
+				if (line.isEmpty() || line.startsWith("#")) { continue; }
+				if (!parse(line)) {
+					Global.writeToLog(String.format("Ignoring invalid line in %s: %s", storeFile, line), true);
+				}
+			}
+		}
+	}
+
+	private static boolean parse(String line) {
+		int split = line.indexOf('=');
+		int type = line.lastIndexOf(':', split);
+		if (split < 0 || type <= 0 || type != split - 2) { return false; }
+		String key = line.substring(0, type);
+		String value = line.substring(split + 1);
+		try {
+			switch (line.charAt(type + 1)) {
+				case 'i':
+					values.put(key, Integer.valueOf(value));
+					return true;
+				case 'l':
+					values.put(key, Long.valueOf(value));
+					return true;
+				case 'f':
+					values.put(key, Float.valueOf(value));
+					return true;
+				case 'b':
+					values.put(key, Boolean.valueOf(value));
+					return true;
+				case 's':
+					values.put(key, unescape(value));
+					return true;
+				default:
+					return false;
+			}
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/* Getters, each returning the default when the key is missing or holds another type */
+
+	public static int getInt(String key, int def) {
+		Object v = get(key);
+		return v instanceof Integer ? (Integer) v : def;
+	}
+
+	public static long getLong(String key, long def) {
+		Object v = get(key);
+		return v instanceof Long ? (Long) v : def;
+	}
+
+	public static float getFloat(String key, float def) {
+		Object v = get(key);
+		return v instanceof Float ? (Float) v : def;
+	}
+
+	public static boolean getBoolean(String key, boolean def) {
+		Object v = get(key);
+		return v instanceof Boolean ? (Boolean) v : def;
+	}
+
+	public static String getString(String key, String def) {
+		Object v = get(key);
+		return v instanceof String ? (String) v : def;
+	}
+
+	private static Object get(String key) {
+		synchronized (values) { return values.get(key); }
+	}
+
+	/* Setters, each queueing a write if the value changed */
+
+	public static void putInt(String key, int value) { put(key, value); }
+	public static void putLong(String key, long value) { put(key, value); }
+	public static void putFloat(String key, float value) { put(key, value); }
+	public static void putBoolean(String key, boolean value) { put(key, value); }
+	public static void putString(String key, String value) { put(key, value); }
+
+	/** Removes a value, queueing a write if it was present. */
+	public static void remove(String key) {
+		synchronized (values) {
+			if (values.remove(key) != null) { changed(); }
+		}
+	}
+
+	private static void put(String key, Object value) {
+		if (key.isEmpty() || key.indexOf('=') >= 0 || key.indexOf('\n') >= 0) {
+			throw new IllegalArgumentException("Invalid settings key: " + key);
+		}
+		synchronized (values) {
+			if (!value.equals(values.put(key, value))) { changed(); }
+		}
+	}
+
+	/** Called holding the lock on <code>values</code>. */
+	private static void changed() {
+		dirty = true;
+		if (!writeQueued) {
+			writeQueued = true;
+			// gather the changes that follow shortly after
+			DiskWriter.schedule(SettingsStore::write, BATCH_MILLIS);
+		}
+	}
+
+	/** Queues any unwritten changes without waiting out the batching delay. Called when the program exits. */
+	public static void shutdown() {
+		synchronized (values) {
+			if (dirty) { DiskWriter.execute(SettingsStore::write); }
+		}
+	}
+
+	/** Runs on the writer thread. Does nothing if an earlier write already took the changes. */
+	private static void write() {
+		byte[] data;
+		synchronized (values) {
+			writeQueued = false;
+			if (!dirty) { return; }
+			dirty = false;
+			data = format().getBytes(StandardCharsets.UTF_8);
+		}
+		try {
+			FileResource.writeAtomically(storeFile, data);
+		} catch (IOException e) {
+			Global.writeToLog(String.format("Unable to write %s: %s", storeFile, e.getMessage()), true);
+		}
+	}
+
+	/** Called holding the lock on <code>values</code>. */
+	private static String format() {
+		StringBuilder sb = new StringBuilder(4096);
+		sb.append("# BlockBreak settings and progress\n");
+		Object v;
+		char type;
+		for (Map.Entry<String, Object> e : values.entrySet()) {
+			v = e.getValue();
+			if (v instanceof Integer) { type = 'i'; }
+			else if (v instanceof Long) { type = 'l'; }
+			else if (v instanceof Float) { type = 'f'; }
+			else if (v instanceof Boolean) { type = 'b'; }
+			else { type = 's'; }
+			sb.append(e.getKey()).append(':').append(type).append('=');
+			sb.append(type == 's' ? escape((String) v) : v.toString()).append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static String escape(String s) {
+		return s.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+	}
+
+	private static String unescape(String s) {
+		StringBuilder sb = new StringBuilder(s.length());
+		char c;
+		for (int i = 0; i < s.length(); i++) {
+			c = s.charAt(i);
+			if (c == '\\' && i + 1 < s.length()) {
+				c = s.charAt(++i);
+				if (c == 'n') { c = '\n'; }
+				else if (c == 'r') { c = '\r'; }
+			}
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	/* Migration from the files used before the store. Called holding the lock on values. */
+
+	private static void migrate() {
+		boolean found = migrateConf("game.conf");
+		found |= migrateStandardPrefs("standard.pref");
+		found |= migratePuzzlePrefs("puzzle.pref");
+		if (found) {
+			Global.writeToLog(String.format("Moved settings and progress into %s", storeFile));
+			changed();
+		}
+	}
+
+	private static boolean migrateConf(String filename) {
+		try (BufferedReader inf = new BufferedReader(new FileReader(filename))) {
+			String line, key, value;
+			int split;
+			while ((line = inf.readLine()) != null) {
+				split = line.indexOf('=');
+				if (split < 0) { continue; }
+				key = line.substring(0, split).trim();
+				value = line.substring(split + 1).trim();
+				try {
+					switch (key) {
+						case "inputReadDelayTimer":
+							values.put(key, Long.valueOf(value));
+							break;
+						case "useBlockCascading":
+						case "waitForGridMovement":
+						case "fullscreen":
+							values.put(key, Boolean.valueOf(value));
+							break;
+						case "frameRateCap":
+						case "windowWidth":
+						case "windowHeight":
+							values.put(key, Integer.valueOf(value));
+							break;
+						case "renderScale":
+							values.put(key, Float.valueOf(value));
+							break;
+						case "framePacing":
+							values.put(key, value);
+							break;
+						default:
+							break;
+					}
+				} catch (NumberFormatException err) {
+					Global.writeToLog(String.format("Ignoring invalid setting in %s: %s", filename, line), true);
+				}
+			}
+			return true;
+		} catch (IOException err) {
+			return false;
+		}
+	}
+
+	/** standard.pref: the top level after [TopLevel], then one high score record per line after [HighScore]. */
+	private static boolean migrateStandardPrefs(String filename) {
+		try (BufferedReader inf = new BufferedReader(new FileReader(filename))) {
+			String line = inf.readLine();
+			int record = 0;
+			while (line != null) {
+				if (line.equalsIgnoreCase("[TopLevel]")) {
+					migrateInt("standard.maxUnlocked", inf.readLine());
+				} else if (line.equalsIgnoreCase("[HighScore]")) {
+					while ((line = inf.readLine()) != null && !line.startsWith("[")) {
+						if (!line.isEmpty()) { values.put("standard.highScore." + (record++), line); }
+					}
+					continue;
+				}
+				line = inf.readLine();
+			}
+			return true;
+		} catch (IOException err) {
+			return false;
+		}
+	}
+
+	/** puzzle.pref: the top level after [TopLevel], then <code>level:medals</code> lines after [HighScore]. */
+	private static boolean migratePuzzlePrefs(String filename) {
+		try (BufferedReader inf = new BufferedReader(new FileReader(filename))) {
+			String line = inf.readLine();
+			int split;
+			while (line != null) {
+				if (line.equalsIgnoreCase("[TopLevel]")) {
+					migrateInt("puzzle.maxUnlocked", inf.readLine());
+				} else if (line.equalsIgnoreCase("[HighScore]")) {
+					while ((line = inf.readLine()) != null && !line.startsWith("[")) {
+						split = line.indexOf(':');
+						if (split > 0) {
+							migrateInt("puzzle.medals." + line.substring(0, split).trim(), line.substring(split + 1));
+						}
+					}
+					continue;
+				}
+				line = inf.readLine();
+			}
+			return true;
+		} catch (IOException err) {
+			return false;
+		}
+	}
+
+	private static void migrateInt(String key, String value) {
+		if (value == null) { return; }
+		try {
+			values.put(key, Integer.valueOf(value.trim()));
+		} catch (NumberFormatException e) {
+			Global.writeToLog(String.format("Ignoring invalid value for %s: %s", key, value), true);
+		}
+	}
+}
@@ -0,0 +1,213 @@
+import static org.lwjgl.openal.AL10.*;
+
+import java.nio.IntBuffer;
+import java.util.HashSet;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.openal.AL;
+
+/**
+ * Plays sound effects on a fixed set of voices (OpenAL sources).
+ * <ul>
+ * <li>A sound triggered several times in the same frame is only played once; the extra triggers are
+ * counted as coalesced.</li>
+ * <li>When every voice is busy, the voice with the lowest priority, and the oldest of those, is stopped
+ * for the new sound if its priority is not higher than the new sound's. Otherwise the new sound is
+ * dropped.</li>
+ * </ul>
+ * Without OpenAL (headless runs, <code>-nosound</code>, or no sources available) a silent backend is used
+ * that keeps each voice busy for <code>SILENT_VOICE_MILLIS</code>, so the pool behaves and counts the
+ * same way without producing sound.
+ * <p>
+ * Called on the render thread. <code>endFrame()</code> is called once per frame by the main loop.
+ * @author John Ojala
+ */
+public final class SoundVoicePool {
+	/** Number of voices. */
+	public static final int VOICES = 16;
+	/** Sound priorities. Higher priority sounds can take voices from lower priority ones. */
+	public static final int PRIORITY_LOW = 0, PRIORITY_NORMAL = 1, PRIORITY_HIGH = 2;
+	/** How long a voice stays busy with the silent backend. */
+	public static final long SILENT_VOICE_MILLIS = 250;
+	/** Set before the first sound is played to use the silent backend. */
+	public static boolean silent = false;
+
+	/** Plays sounds on numbered voices. */
+	interface Backend {
+		/** @return The number of voices available. */
+		int getVoices();
+		void play(int voice, int buffer, float pitch, float gain);
+		void stop(int voice);
+		boolean isPlaying(int voice);
+		void destroy();
+	}
+
+	/** Plays on OpenAL sources owned by the pool. */
+	private static class OpenALBackend implements Backend {
+		private final IntBuffer sources;
+
+		OpenALBackend(IntBuffer sources) { this.sources = sources; }
+
+		/** @return The backend, or <code>null</code> if no sources could be created. */
+		static OpenALBackend create(int voices) {
+			IntBuffer sources = BufferUtils.createIntBuffer(voices);
+			IntBuffer one = BufferUtils.createIntBuffer(1);
+			alGetError();
+			// take as many sources as are available, up to the number asked for
+			while (sources.hasRemaining()) {
+				alGenSources(one);
+				if (alGetError() != AL_NO_ERROR) { break; }
+				sources.put(one.get(0));
+			}
+			sources.flip();
+			return sources.hasRemaining() ? new OpenALBackend(sources) : null;
+		}
+
+		@Override
+		public int getVoices() { return sources.limit(); }
+
+		@Override
+		public void play(int voice, int buffer, float pitch, float gain) {
+			int source = sources.get(voice);
+			alSourceStop(source);
+			alSourcei(source, AL_BUFFER, buffer);
+			alSourcef(source, AL_PITCH, pitch);
+			alSourcef(source, AL_GAIN, gain);
+			alSourcei(source, AL_LOOPING, AL_FALSE);
+			alSourcePlay(source);
+		}
+
+		@Override
+		public void stop(int voice) { alSourceStop(sources.get(voice)); }
+
+		@Override
+		public boolean isPlaying(int voice) {
+			return alGetSourcei(sources.get(voice), AL_SOURCE_STATE) == AL_PLAYING;
+		}
+
+		@Override
+		public void destroy() {
+			for (int i = 0; i < sources.limit(); i++) { alSourceStop(sources.get(i)); }
+			alDeleteSources(sources);
+		}
+	}
+
+	/** Keeps voices busy for a fixed time without playing anything. */
+	private static class SilentBackend implements Backend {
+		private final long[] busyUntil = new long[VOICES];
+
+		@Override
+		public int getVoices() { return VOICES; }
+
+		@Override
+		public void play(int voice, int buffer, float pitch, float gain) {
+			busyUntil[voice] = System.nanoTime() + SILENT_VOICE_MILLIS * 1000000L;
+		}
+
+		@Override
+		public void stop(int voice) { busyUntil[voice] = 0L; }
+
+		@Override
+		public boolean isPlaying(int voice) { return System.nanoTime() - busyUntil[voice] < 0; }
+
+		@Override
+		public void destroy() { }
+	}
+
+	private static Backend backend = null;
+	private static int[] voicePriority;
+	private static long[] voiceStart;
+	/** Sounds already triggered this frame. */
+	private static final HashSet<Object> frameSounds = new HashSet<Object>();
+
+	/* Counters since the program started */
+	private static long played = 0, coalesced = 0, stolen = 0, dropped = 0;
+
+	private SoundVoicePool() { }
+
+	private static Backend getBackend() {
+		if (backend == null) {
+			if (!silent && AL.isCreated()) { backend = OpenALBackend.create(VOICES); }
+			if (backend == null) {
+				backend = new SilentBackend();
+				Global.writeToLog("Sound effects use the silent backend.");
+			}
+			voicePriority = new int[backend.getVoices()];
+			voiceStart = new long[backend.getVoices()];
+		}
+		return backend;
+	}
+
+	/**
+	 * Plays a sound on a free voice, or on one taken from a sound of the same or lower priority.
+	 * @param sound Identifies the sound for coalescing, such as its name
+	 * @param buffer OpenAL buffer holding the sound
+	 * @param priority <code>PRIORITY_LOW</code>, <code>PRIORITY_NORMAL</code> or <code>PRIORITY_HIGH</code>
+	 * @param pitch Pitch, 1 for the recorded pitch
+	 * @param gain Volume, from 0 to 1
+	 * @return <code>true</code> if the sound was started
+	 */
+	public static boolean play(Object sound, int buffer, int priority, float pitch, float gain) {
+		if (!frameSounds.add(sound)) {
+			coalesced++;
+			return false;
+		}
+		Backend b = getBackend();
+		int voice = -1;
+		for (int i = 0; i < voicePriority.length; i++) {
+			if (!b.isPlaying(i)) {
+				voice = i;
+				break;
+			}
+			// lowest priority, then oldest
+			if (voice < 0 || voicePriority[i] < voicePriority[voice]
+					|| (voicePriority[i] == voicePriority[voice] && voiceStart[i] < voiceStart[voice])) {
+				voice = i;
+			}
+		}
+		if (b.isPlaying(voice)) {
+			if (voicePriority[voice] > priority) {
+				dropped++;
+				return false;
+			}
+			b.stop(voice);
+			stolen++;
+		}
+		b.play(voice, buffer, pitch, gain);
+		voicePriority[voice] = priority;
+		voiceStart[voice] = played++;
+		return true;
+	}
+
+	/** Ends the frame, allowing sounds played this frame to be played again. */
+	public static void endFrame() {
+		frameSounds.clear();
+	}
+
+	/** Stops every voice. */
+	public static void stopAll() {
+		if (backend == null) { return; }
+		for (int i = 0; i < voicePriority.length; i++) { backend.stop(i); }
+	}
+
+	/** Frees the voices. Called before OpenAL is destroyed. */
+	public static void shutdown() {
+		if (backend == null) { return; }
+		backend.destroy();
+		backend = null;
+	}
+
+	/** @return Sounds started since the program started. */
+	public static long getPlayed() { return played; }
+	/** @return Triggers ignored because the same sound was already triggered in the frame. */
+	public static long getCoalesced() { return coalesced; }
+	/** @return Sounds stopped early to free a voice for another sound. */
+	public static long getStolen() { return stolen; }
+	/** @return Sounds not played because every voice had a higher priority sound. */
+	public static long getDropped() { return dropped; }
+
+	/** @return A short report of the voice counters. */
+	public static String getReport() {
+		return String.format("sfx %d played, %d coalesced, %d stolen, %d dropped", played, coalesced, stolen, dropped);
+	}
+}
@@ -1,4 +1,5 @@
 import static org.lwjgl.opengl.GL11.*;
+import org.newdawn.slick.Color;
 import org.newdawn.slick.opengl.Texture;
 
 /**
@@ -117,4 +118,40 @@ public class Sprite {
 	public void draw(int[] xy, int[] size) {
 		this.draw(xy[0], xy[1], size);
 	}
+	
+	/**
+	 * Queues the sprite to be drawn by <code>SpriteBatch</code> at its default draw size.
+	 * @param layer The <code>SpriteBatch</code> layer key to draw the sprite on
+	 * @param x Screen position from the left
+	 * @param y Screen position from the top
+	 */
+	public void queue(int layer, int x, int y) {
+		queue(layer, x, y, drawSpace[0], drawSpace[1], null);
+	}
+	
+	/**
+	 * Queues the sprite to be drawn by <code>SpriteBatch</code>.
+	 * @param layer The <code>SpriteBatch</code> layer key to draw the sprite on
+	 * @param xc Screen position from the left
+	 * @param yc Screen position from the top
+	 * @param size 2-element array with the width and height to draw the sprite at
+	 */
+	public void queue(int layer, int xc, int yc, int[] size) {
+		queue(layer, xc, yc, size[0], size[1], null);
+	}
+	
+	/**
+	 * Queues the sprite to be drawn by <code>SpriteBatch</code>.
+	 * @param layer The <code>SpriteBatch</code> layer key to draw the sprite on
+	 * @param xc Screen position from the left
+	 * @param yc Screen position from the top
+	 * @param w Draw width
+	 * @param h Draw height
+	 * @param color The color to tint the sprite with, <code>null</code> for no tint
+	 */
+	public void queue(int layer, int xc, int yc, int w, int h, Color color) {
+		SpriteBatch.queue(texture, layer, SpriteBatch.BLEND_ALPHA,
+				xc, yc, xc + w, yc + h,
+				left, top, left + width, top + height, color);
+	}
 }
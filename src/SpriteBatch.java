@@ -0,0 +1,246 @@
+import static org.lwjgl.opengl.GL11.*;
+
+import java.util.Arrays;
+
+import org.newdawn.slick.Color;
+import org.newdawn.slick.opengl.Texture;
+
+/**
+ * Deferred sprite renderer. Quads are queued with a layer key, and on <code>flush()</code> they are
+ * sorted by (layer, blend state, texture) before being submitted to OpenGL, so sprites that share a
+ * texture are drawn with a single bind. Submission order is kept for quads that have the same key.
+ * <p>
+ * Quads on different layers are always drawn lowest layer first, so anything that must appear on top
+ * of another sprite (block overlays, the cursor, UI) has to be queued on a higher layer. Within a layer
+ * the draw order between different textures is not guaranteed.
+ * @author John Ojala
+ */
+public final class SpriteBatch {
+	/* Layer keys. Lower layers are drawn first. */
+	/** Grid and queue blocks. */
+	public static final int LAYER_BLOCK = 10;
+	/** Sprites drawn on top of a block, such as the star overlay and bomb radius numbers. */
+	public static final int LAYER_BLOCK_OVERLAY = 11;
+	/** Grid cursor and fill point markers. */
+	public static final int LAYER_CURSOR = 20;
+	/** Particle and other effects drawn over the grid. */
+	public static final int LAYER_EFFECT = 30;
+	/** Interface elements drawn over game play. */
+	public static final int LAYER_UI = 40;
+
+	/* Blend states */
+	/** Standard alpha blending, matches the blend function set in <code>Game.initGL</code>. */
+	public static final int BLEND_ALPHA = 0;
+	/** Additive blending, used for glowing effects. */
+	public static final int BLEND_ADDITIVE = 1;
+
+	private static final int LAYER_SHIFT = 48;
+	private static final int BLEND_SHIFT = 44;
+	private static final int TEXTURE_SHIFT = 24;
+	private static final int MAX_QUADS = 1 << TEXTURE_SHIFT;
+
+	/* Quad storage, one entry per queued quad */
+	private static int capacity = 1024;
+	private static int count = 0;
+	private static long[] keys = new long[capacity];
+	private static int[] texSlot = new int[capacity];
+	private static int[] blend = new int[capacity];
+	/** Screen and texture coordinates, stored as x0, y0, x1, y1, u0, v0, u1, v1 */
+	private static float[] coords = new float[capacity * 8];
+	/** Vertex color, stored as r, g, b, a */
+	private static float[] colors = new float[capacity * 4];
+
+	/** Textures referenced by the quads currently queued. Quads reference textures by slot index. */
+	private static Texture[] textures = new Texture[32];
+	private static int textureCount = 0;
+
+	/* Bind statistics */
+	private static int frameBindsUnsorted = 0;
+	private static int frameBindsSorted = 0;
+	private static int frameQuads = 0;
+	private static int lastBindsUnsorted = 0;
+	private static int lastBindsSorted = 0;
+	private static int lastQuads = 0;
+
+	private SpriteBatch() { }
+
+	/**
+	 * Queues a textured quad for drawing.
+	 * @param tex The texture to draw from
+	 * @param layer The layer key, lower layers are drawn first
+	 * @param blendMode <code>BLEND_ALPHA</code> or <code>BLEND_ADDITIVE</code>
+	 * @param x0 Left screen coordinate
+	 * @param y0 Top screen coordinate
+	 * @param x1 Right screen coordinate
+	 * @param y1 Bottom screen coordinate
+	 * @param u0 Left texture coordinate
+	 * @param v0 Top texture coordinate
+	 * @param u1 Right texture coordinate
+	 * @param v1 Bottom texture coordinate
+	 * @param color The color to tint the quad with, <code>null</code> for white
+	 */
+	public static void queue(Texture tex, int layer, int blendMode,
+			float x0, float y0, float x1, float y1,
+			float u0, float v0, float u1, float v1, Color color) {
+		if (count == capacity) { grow(); }
+		int slot = getTextureSlot(tex);
+		keys[count] = ((long) layer << LAYER_SHIFT)
+				| ((long) blendMode << BLEND_SHIFT)
+				| ((long) slot << TEXTURE_SHIFT)
+				| count;
+		texSlot[count] = slot;
+		blend[count] = blendMode;
+		int c = count * 8;
+		coords[c] = x0;
+		coords[c + 1] = y0;
+		coords[c + 2] = x1;
+		coords[c + 3] = y1;
+		coords[c + 4] = u0;
+		coords[c + 5] = v0;
+		coords[c + 6] = u1;
+		coords[c + 7] = v1;
+		c = count * 4;
+		if (color == null) { color = Color.white; }
+		colors[c] = color.r;
+		colors[c + 1] = color.g;
+		colors[c + 2] = color.b;
+		colors[c + 3] = color.a;
+		count++;
+	}
+
+	/** @return <code>true</code> if there are quads waiting to be drawn. */
+	public static boolean hasPending() { return count > 0; }
+
+	/**
+	 * Sorts and draws all queued quads. This should be called before any sprites are drawn
+	 * directly, so that the directly drawn sprites appear over the queued ones.
+	 */
+	public static void flush() {
+		if (count == 0) { return; }
+		// count binds as they would have happened in the order that the quads were queued
+		int last = -1;
+		for (int i = 0; i < count; i++) {
+			if (texSlot[i] != last) {
+				frameBindsUnsorted++;
+				last = texSlot[i];
+			}
+		}
+		Arrays.sort(keys, 0, count);
+
+		int boundSlot = -1;
+		int boundBlend = BLEND_ALPHA;
+		float r = -1f, g = -1f, b = -1f, a = -1f;
+		int index, c;
+		boolean drawing = false;
+		glPushMatrix();
+		glMatrixMode(GL_MODELVIEW);
+		for (int i = 0; i < count; i++) {
+			index = (int) (keys[i] & (MAX_QUADS - 1));
+			if (!drawing || texSlot[index] != boundSlot || blend[index] != boundBlend) {
+				// state changes are not allowed between glBegin and glEnd
+				if (drawing) { glEnd(); }
+				if (texSlot[index] != boundSlot) {
+					boundSlot = texSlot[index];
+					textures[boundSlot].bind();
+					frameBindsSorted++;
+				}
+				if (blend[index] != boundBlend) {
+					boundBlend = blend[index];
+					setBlend(boundBlend);
+				}
+				glBegin(GL_QUADS);
+				drawing = true;
+			}
+			c = index * 4;
+			if (colors[c] != r || colors[c + 1] != g || colors[c + 2] != b || colors[c + 3] != a) {
+				r = colors[c];
+				g = colors[c + 1];
+				b = colors[c + 2];
+				a = colors[c + 3];
+				glColor4f(r, g, b, a);
+			}
+			c = index * 8;
+			glTexCoord2f(coords[c + 4], coords[c + 5]);
+			glVertex2f(coords[c], coords[c + 1]);
+
+			glTexCoord2f(coords[c + 4], coords[c + 7]);
+			glVertex2f(coords[c], coords[c + 3]);
+
+			glTexCoord2f(coords[c + 6], coords[c + 7]);
+			glVertex2f(coords[c + 2], coords[c + 3]);
+
+			glTexCoord2f(coords[c + 6], coords[c + 5]);
+			glVertex2f(coords[c + 2], coords[c + 1]);
+		}
+		glEnd();
+		glPopMatrix();
+
+		// restore default state for sprites drawn directly
+		if (boundBlend != BLEND_ALPHA) { setBlend(BLEND_ALPHA); }
+		Color.white.bind();
+		frameQuads += count;
+		count = 0;
+		for (int i = 0; i < textureCount; i++) {
+			textures[i] = null;
+		}
+		textureCount = 0;
+	}
+
+	/**
+	 * Ends the frame. Draws anything still queued and stores the bind statistics for the frame.
+	 */
+	public static void endFrame() {
+		flush();
+		lastBindsUnsorted = frameBindsUnsorted;
+		lastBindsSorted = frameBindsSorted;
+		lastQuads = frameQuads;
+		frameBindsUnsorted = 0;
+		frameBindsSorted = 0;
+		frameQuads = 0;
+	}
+
+	/** @return The number of texture binds the last frame would have used if quads were drawn in queued order. */
+	public static int getBindsUnsorted() { return lastBindsUnsorted; }
+	/** @return The number of texture binds used by the last frame after sorting. */
+	public static int getBindsSorted() { return lastBindsSorted; }
+	/** @return The number of quads drawn through the batch in the last frame. */
+	public static int getQuadCount() { return lastQuads; }
+
+	/** @return A short report of the texture binds used in the last frame. */
+	public static String getFrameReport() {
+		return String.format("binds %d -> %d, quads %d", lastBindsUnsorted, lastBindsSorted, lastQuads);
+	}
+
+	private static void setBlend(int blendMode) {
+		if (blendMode == BLEND_ADDITIVE) {
+			glBlendFunc(GL_SRC_ALPHA, GL_ONE);
+		} else {
+			glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+		}
+	}
+
+	private static int getTextureSlot(Texture tex) {
+		for (int i = 0; i < textureCount; i++) {
+			if (textures[i] == tex) { return i; }
+		}
+		if (textureCount == textures.length) {
+			textures = Arrays.copyOf(textures, textures.length * 2);
+		}
+		textures[textureCount] = tex;
+		return textureCount++;
+	}
+
+	private static void grow() {
+		if (capacity == MAX_QUADS) {
+			// the sequence number would overflow into the texture bits, draw what is queued
+			flush();
+			return;
+		}
+		capacity *= 2;
+		keys = Arrays.copyOf(keys, capacity);
+		texSlot = Arrays.copyOf(texSlot, capacity);
+		blend = Arrays.copyOf(blend, capacity);
+		coords = Arrays.copyOf(coords, capacity * 8);
+		colors = Arrays.copyOf(colors, capacity * 4);
+	}
+}
@@ -0,0 +1,161 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records how long each step of startup and game mode loading takes. Enabled with the
+ * <code>-profile-startup</code> command line switch; when disabled the calls do nothing.
+ * <p>
+ * A step is timed by taking <code>start()</code> before it and passing that value to <code>end()</code>
+ * after it. Steps can be timed from any thread. <code>report()</code> prints the steps recorded since
+ * the last report, longest first, and writes every step so far to <code>profileFile</code> in the
+ * Chrome trace event format, which can be opened in chrome://tracing or Perfetto to see the timeline.
+ * @author John Ojala
+ */
+public final class StartupProfiler {
+	/** File the timeline is written to. */
+	public static String profileFile = "startup_profile.json";
+	private static volatile boolean enabled = false;
+	private static long origin = 0L;
+
+	private static class Event {
+		final String category, name, thread;
+		final long start, duration;
+
+		Event(String category, String name, String thread, long start, long duration) {
+			this.category = category;
+			this.name = name;
+			this.thread = thread;
+			this.start = start;
+			this.duration = duration;
+		}
+	}
+
+	private static final ArrayList<Event> events = new ArrayList<Event>();
+	/** Index of the first event not yet included in a printed summary. */
+	private static int reported = 0;
+
+	private StartupProfiler() { }
+
+	/** Starts recording. Times in the timeline are measured from this call. */
+	public static void enable() {
+		origin = System.nanoTime();
+		enabled = true;
+	}
+
+	/** @return <code>true</code> if steps are being recorded. */
+	public static boolean isEnabled() { return enabled; }
+
+	/** @return The start time to pass to <code>end()</code>, or 0 when not recording. */
+	public static long start() {
+		return enabled ? System.nanoTime() : 0L;
+	}
+
+	/**
+	 * Records a step.
+	 * @param category Group of the step, such as "texture" or "sound"
+	 * @param name The step, such as the file loaded
+	 * @param start The value returned by <code>start()</code> before the step
+	 */
+	public static void end(String category, String name, long start) {
+		if (!enabled) { return; }
+		long now = System.nanoTime();
+		Event e = new Event(category, name, Thread.currentThread().getName(), start - origin, now - start);
+		synchronized (events) {
+			events.add(e);
+		}
+	}
+
+	/**
+	 * Prints the steps recorded since the last report and writes the whole timeline to
+	 * <code>profileFile</code>.
+	 * @param title Heading for the printed summary
+	 */
+	public static void report(String title) {
+		if (!enabled) { return; }
+		ArrayList<Event> recent;
+		ArrayList<Event> all;
+		synchronized (events) {
+			recent = new ArrayList<Event>(events.subList(reported, events.size()));
+			all = new ArrayList<Event>(events);
+			reported = events.size();
+		}
+		Collections.sort(recent, new Comparator<Event>() {
+			@Override
+			public int compare(Event a, Event b) { return Long.compare(b.duration, a.duration); }
+		});
+		// steps on different threads overlap, so category totals can exceed the elapsed time
+		LinkedHashMap<String, long[]> totals = new LinkedHashMap<String, long[]>();
+		long[] t;
+		for (Event e : recent) {
+			t = totals.get(e.category);
+			if (t == null) {
+				t = new long[2];
+				totals.put(e.category, t);
+			}
+			t[0]++;
+			t[1] += e.duration;
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("Startup profile: %s (%d steps)\n", title, recent.size()));
+		for (Event e : recent) {
+			sb.append(String.format("%10.2f ms  %-10s %s [%s]\n", e.duration / 1e6, e.category, e.name, e.thread));
+		}
+		for (Map.Entry<String, long[]> total : totals.entrySet()) {
+			sb.append(String.format("%10.2f ms  %-10s total of %d\n", total.getValue()[1] / 1e6, total.getKey(), total.getValue()[0]));
+		}
+		Global.writeToLog(sb.toString(), true);
+		write(all);
+	}
+
+	private static void write(ArrayList<Event> all) {
+		// thread ids for the trace, in order of first appearance
+		LinkedHashMap<String, Integer> threads = new LinkedHashMap<String, Integer>();
+		try (BufferedWriter out = new BufferedWriter(new FileWriter(profileFile))) {
+			out.write("{\"traceEvents\":[\n");
+			Integer tid;
+			boolean first = true;
+			for (Event e : all) {
+				tid = threads.get(e.thread);
+				if (tid == null) {
+					tid = threads.size() + 1;
+					threads.put(e.thread, tid);
+				}
+				if (!first) { out.write(",\n"); }
+				first = false;
+				out.write(String.format("{\"name\":\"%s\",\"cat\":\"%s\",\"ph\":\"X\",\"ts\":%d,\"dur\":%d,\"pid\":1,\"tid\":%d}",
+						escape(e.name), escape(e.category), e.start / 1000, e.duration / 1000, tid));
+			}
+			for (Map.Entry<String, Integer> thread : threads.entrySet()) {
+				if (!first) { out.write(",\n"); }
+				first = false;
+				out.write(String.format("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":%d,\"args\":{\"name\":\"%s\"}}",
+						thread.getValue(), escape(thread.getKey())));
+			}
+			out.write("\n]}\n");
+		} catch (IOException e) {
+			Global.writeToLog(String.format("Unable to write startup profile to %s: %s", profileFile, e.getMessage()), true);
+		}
+	}
+
+	private static String escape(String s) {
+		StringBuilder sb = new StringBuilder(s.length());
+		char c;
+		for (int i = 0; i < s.length(); i++) {
+			c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,134 @@
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.newdawn.slick.opengl.Texture;
+
+/**
+ * Process wide texture cache keyed by canonical file path. Each game mode acquires the textures it uses
+ * and releases them in <code>cleanup()</code>; textures used by several modes are loaded once and
+ * shared. A texture whose last user releases it is kept idle, up to <code>idleBudgetBytes</code> of
+ * texture memory, so returning to a game mode does not load it again. Idle textures past the budget are
+ * freed, oldest first.
+ * <p>
+ * Lookups may come from loader threads. Textures are only freed on the render thread, from
+ * <code>release()</code> and <code>releaseAll()</code>.
+ * @author John Ojala
+ */
+public final class TextureCache {
+	/** The most texture memory (bytes) kept for textures that no game mode is using. */
+	public static long idleBudgetBytes = 64L * 1024 * 1024;
+
+	private static class Entry {
+		final String path;
+		final Texture texture;
+		final long bytes;
+		int refs = 1;
+
+		Entry(String path, Texture texture) {
+			this.path = path;
+			this.texture = texture;
+			bytes = 4L * texture.getTextureWidth() * texture.getTextureHeight();
+		}
+	}
+
+	private static final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+	/** Textures with no users, least recently released first. */
+	private static final LinkedHashMap<String, Entry> idle = new LinkedHashMap<String, Entry>();
+	private static long idleBytes = 0;
+
+	private TextureCache() { }
+
+	/**
+	 * Takes a reference to a cached texture.
+	 * @param path Canonical path of the image file
+	 * @return The texture, or <code>null</code> if it is not cached and must be loaded
+	 */
+	public static synchronized Texture acquire(String path) {
+		Entry e = entries.get(path);
+		if (e == null) { return null; }
+		if (e.refs++ == 0) {
+			idle.remove(path);
+			idleBytes -= e.bytes;
+		}
+		return e.texture;
+	}
+
+	/**
+	 * Looks up a cached texture without taking a reference.
+	 * @param path Canonical path of the image file
+	 * @return The texture, or <code>null</code> if it is not cached
+	 */
+	public static synchronized Texture get(String path) {
+		Entry e = entries.get(path);
+		return e == null ? null : e.texture;
+	}
+
+	/**
+	 * Adds a newly loaded texture to the cache with one reference. Called on the render thread.
+	 * If another loader added the same file first, the new copy is freed and the cached one is returned.
+	 * @param path Canonical path of the image file
+	 * @param tex The loaded texture
+	 * @return The texture to use
+	 */
+	public static synchronized Texture add(String path, Texture tex) {
+		Texture cached = acquire(path);
+		if (cached != null) {
+			tex.release();
+			return cached;
+		}
+		entries.put(path, new Entry(path, tex));
+		return tex;
+	}
+
+	/**
+	 * Drops a reference to a texture. Called on the render thread.
+	 * @param path Canonical path of the image file
+	 */
+	public static synchronized void release(String path) {
+		Entry e = entries.get(path);
+		if (e == null || e.refs == 0) {
+			Global.writeToLog(String.format("Texture released more times than acquired: %s", path));
+			return;
+		}
+		if (--e.refs == 0) {
+			idle.put(path, e);
+			idleBytes += e.bytes;
+			trim(idleBudgetBytes);
+		}
+	}
+
+	/**
+	 * Frees idle textures, oldest first, until the idle textures fit the given size.
+	 * @param maxIdleBytes The most texture memory (bytes) to leave idle, 0 to free every idle texture
+	 */
+	public static synchronized void trim(long maxIdleBytes) {
+		Iterator<Entry> it = idle.values().iterator();
+		Entry e;
+		while (idleBytes > maxIdleBytes && it.hasNext()) {
+			e = it.next();
+			it.remove();
+			idleBytes -= e.bytes;
+			entries.remove(e.path);
+			e.texture.release();
+		}
+	}
+
+	/** Frees every cached texture, in use or not. Called when the program exits. */
+	public static synchronized void releaseAll() {
+		for (Entry e : entries.values()) {
+			e.texture.release();
+		}
+		entries.clear();
+		idle.clear();
+		idleBytes = 0;
+	}
+
+	/** @return A short report of the cached texture count and memory. */
+	public static synchronized String getReport() {
+		long total = 0;
+		for (Entry e : entries.values()) { total += e.bytes; }
+		return String.format("textures %d (%d idle), %d KB (%d KB idle)",
+				entries.size(), idle.size(), total / 1024, idleBytes / 1024);
+	}
+}